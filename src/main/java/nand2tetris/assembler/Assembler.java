@@ -1,22 +1,146 @@
 package nand2tetris.assembler;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 /**
- * Primary assembler class. Assembles the .asm file specified on the command line into a .hack file.
+ * Primary assembler class. Assembles the .asm file specified on the command line into a .hack file,
+ * or a binary ROM image if requested. Directories, globs and lists of files are assembled concurrently as a batch.
+ * Instances can also be used to assemble programs in-process; an instance holds only its settings, so it may be
+ * reused for any number of programs and shared between threads.
  */
 public class Assembler {
+    /**Largest value which fits in a load instruction*/
+    static final int MAX_LOAD = 32767;
+    /**Version of the generated code, part of every cache key. Must change whenever the output for any input changes*/
+    public static final String VERSION = "2.0";
+
+    /**Assembly algorithm*/
+    private Mode mode;
+    /**Output format used when writing to a sink*/
+    private RomWriter.Format format;
+    /**Whether the peephole optimizer is run before encoding*/
+    private boolean peephole;
+    /**Whether unreachable code and unused labels are removed before encoding*/
+    private boolean stripDeadCode;
+    /**Cache of assembled ROM images, or null to always assemble*/
+    private BuildCache cache;
+    /**Statistics collected while assembling, or null if none are collected*/
+    private AssemblyStats stats;
+
+    /**
+     * Enum for assembly algorithms. All produce identical output.
+     */
+    public enum Mode {
+        /**Collect labels, then translate*/
+        TWO_PASS,
+        /**Translate while reading, patching forward references*/
+        SINGLE_PASS,
+        /**Two-phase assembly of chunks on the common fork/join pool*/
+        PARALLEL
+    }
+
+    /**
+     * Constructs an assembler using the two-pass algorithm and .hack text output.
+     */
+    public Assembler() {
+        mode = Mode.TWO_PASS;
+        format = RomWriter.Format.TEXT;
+    }
+
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.err.println("Usage: Assembler.jar [filename]");
+        //Parse options
+        Assembler assembler = new Assembler();
+        ArrayList<String> inputs = new ArrayList<>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean useCache = false;
+        String statsFormat = null;
+        boolean valid = true;
+        for (String arg: args) {
+            if (arg.equals("--single-pass")) {
+                assembler.setMode(Mode.SINGLE_PASS);
+            }
+            else if (arg.equals("--parallel")) {
+                assembler.setMode(Mode.PARALLEL);
+            }
+            else if (arg.equals("--binary")) {
+                assembler.setFormat(RomWriter.Format.BINARY);
+            }
+            else if (arg.equals("--ihex")) {
+                assembler.setFormat(RomWriter.Format.INTEL_HEX);
+            }
+            else if (arg.equals("--peephole")) {
+                assembler.setPeephole(true);
+            }
+            else if (arg.equals("--strip-dead-code")) {
+                assembler.setStripDeadCode(true);
+            }
+            else if (arg.equals("--cache")) {
+                useCache = true;
+            }
+            else if (arg.equals("--stats") || arg.equals("--stats=text")) {
+                statsFormat = "text";
+            }
+            else if (arg.equals("--stats=json")) {
+                statsFormat = "json";
+            }
+            else if (arg.startsWith("--threads=")) {
+                try {
+                    threads = Integer.parseInt(arg.substring("--threads=".length()));
+                    valid &= threads > 0;
+                }
+                catch (NumberFormatException e) {
+                    valid = false;
+                }
+            }
+            else if (!arg.startsWith("--")) {
+                inputs.add(arg);
+            }
+            else {
+                valid = false;
+            }
+        }
+
+        if (!valid || inputs.isEmpty()) {
+            System.err.println("Usage: Assembler.jar [--single-pass | --parallel] [--binary | --ihex] [--peephole] "
+                    + "[--strip-dead-code] [--threads=N] [--cache] [--stats[=json]] [filename | directory | glob]...");
             System.exit(1);
         }
 
+        //Reuse earlier output for unchanged inputs if asked to, unless the cache cannot be created or the work is being measured
+        if (useCache && statsFormat == null) {
+            try {
+                assembler.setCache(new BuildCache(BuildCache.defaultDirectory(), BuildCache.DEFAULT_MAX_SIZE));
+            }
+            catch (IOException e) {
+                System.err.println("Warning: Cache disabled, cannot create " + BuildCache.defaultDirectory());
+            }
+        }
+
+        //Directories, globs and multiple inputs are assembled as a batch
+        String assemblyFilename = inputs.get(0);
+        if (inputs.size() > 1 || new File(assemblyFilename).isDirectory() || !new File(assemblyFilename).exists()
+                && BatchAssembler.isGlob(assemblyFilename)) {
+            if (statsFormat != null) {
+                System.err.println("Error: --stats requires a single input file.");
+                System.exit(1);
+            }
+            if (!BatchAssembler.run(assembler, inputs, threads)) {
+                System.exit(1);
+            }
+            return;
+        }
+
         //Throw error if input file does not exist
-        String assemblyFilename = args[0];
         File assemblyFile = new File(assemblyFilename);
         if (!assemblyFile.exists()) {
             System.err.println("Error: No such file " + assemblyFilename);
@@ -24,90 +148,560 @@ public class Assembler {
         }
 
         //Generate output filename based on input filename
-        String hackFilename;
-        File hackFile = null;
+        String outputFilename;
+        File outputFile = null;
         if (!assemblyFilename.endsWith(".asm")) {
             System.err.println("Error: Assembler files should use the .asm extension.");
             System.exit(1);
         }
         else {
-            hackFilename = assemblyFilename.substring(0, assemblyFilename.length() - 3) + "hack";
-            hackFile = new File(hackFilename);
+            outputFilename = assemblyFilename.substring(0, assemblyFilename.length() - 3) + assembler.getFormat().extension();
+            outputFile = new File(outputFilename);
+        }
+
+        AssemblyStats stats = null;
+        if (statsFormat != null) {
+            stats = new AssemblyStats();
+            assembler.setStats(stats);
+        }
+
+        try {
+            int[] words = assembler.assemble(assemblyFile.toPath());
+            if (stats != null) {
+                stats.begin(AssemblyStats.Phase.WRITE);
+            }
+            RomWriter.write(words, words.length, outputFile, assembler.getFormat());
+            if (stats != null) {
+                stats.end();
+                System.out.print(statsFormat.equals("json") ? stats.toJson() + System.lineSeparator() : stats.toText());
+            }
+        }
+        catch (AssemblyException e) {
+            System.err.println("Assembly error:");
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        catch (IOException e) {
+            System.err.println("IOException while trying to write ." + assembler.getFormat().extension() + " file.");
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Sets the assembly algorithm.
+     *
+     * @param _mode The algorithm to use.
+     */
+    public void setMode(Mode _mode) {
+        mode = _mode;
+    }
+
+    /**
+     * Gets the assembly algorithm.
+     *
+     * @return The algorithm in use.
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Sets the format used when writing to a sink.
+     *
+     * @param _format The output format to use.
+     */
+    public void setFormat(RomWriter.Format _format) {
+        format = _format;
+    }
+
+    /**
+     * Gets the format used when writing to a sink.
+     *
+     * @return The output format in use.
+     */
+    public RomWriter.Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Sets whether the peephole optimizer is run. When it is, the program is parsed into a Program and
+     * rewritten before encoding, whatever the mode. See PeepholeOptimizer for the assumptions this makes.
+     *
+     * @param _peephole True to optimize, false to translate instructions as written.
+     */
+    public void setPeephole(boolean _peephole) {
+        peephole = _peephole;
+    }
+
+    /**
+     * Gets whether the peephole optimizer is run.
+     *
+     * @return True if programs are optimized, false if not.
+     */
+    public boolean isPeephole() {
+        return peephole;
+    }
+
+    /**
+     * Sets whether unreachable code and unused labels are removed. When they are, the program is parsed into a
+     * Program and rewritten before encoding, whatever the mode. See DeadCodeEliminator for the assumptions
+     * this makes.
+     *
+     * @param _stripDeadCode True to remove dead code, false to keep every instruction.
+     */
+    public void setStripDeadCode(boolean _stripDeadCode) {
+        stripDeadCode = _stripDeadCode;
+    }
+
+    /**
+     * Gets whether unreachable code and unused labels are removed.
+     *
+     * @return True if dead code is removed, false if not.
+     */
+    public boolean isStripDeadCode() {
+        return stripDeadCode;
+    }
+
+    /**
+     * Sets the cache of assembled ROM images consulted before assembling.
+     *
+     * @param _cache The cache to use, or null to always assemble.
+     */
+    public void setCache(BuildCache _cache) {
+        cache = _cache;
+    }
+
+    /**
+     * Gets the cache of assembled ROM images.
+     *
+     * @return The cache in use, or null if there is none.
+     */
+    public BuildCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Sets the statistics object which timings and counters are recorded in. While statistics are being
+     * collected, the assembler must not be shared between threads.
+     *
+     * @param _stats The statistics to record into, or null to collect none.
+     */
+    public void setStats(AssemblyStats _stats) {
+        stats = _stats;
+    }
+
+    /**
+     * Gets the statistics object which timings and counters are recorded in.
+     *
+     * @return The statistics in use, or null if none are collected.
+     */
+    public AssemblyStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Assembles a file.
+     *
+     * @param _input The path of the .asm file to read.
+     * @return The assembled instruction words.
+     */
+    public int[] assemble(Path _input) throws IOException, AssemblyException {
+        if (stats != null) {
+            stats.begin(AssemblyStats.Phase.READ);
+        }
+        return assemble(Lexer.map(_input.toFile()));
+    }
+
+    /**
+     * Assembles the contents of a stream. The stream is read to its end but not closed.
+     *
+     * @param _input The stream to read assembly code from.
+     * @return The assembled instruction words.
+     */
+    public int[] assemble(InputStream _input) throws IOException, AssemblyException {
+        if (stats != null) {
+            stats.begin(AssemblyStats.Phase.READ);
+        }
+        return assemble(ByteBuffer.wrap(_input.readAllBytes()));
+    }
+
+    /**
+     * Assembles code held in memory.
+     *
+     * @param _input The assembly code.
+     * @return The assembled instruction words.
+     */
+    public int[] assemble(CharSequence _input) throws AssemblyException {
+        if (stats != null) {
+            stats.begin(AssemblyStats.Phase.READ);
+        }
+        return assemble(StandardCharsets.UTF_8.encode(CharBuffer.wrap(_input)));
+    }
+
+    /**
+     * Assembles raw input, reusing the cached ROM image if the same input has been assembled before.
+     *
+     * @param _input The bytes of the assembly code.
+     * @return The assembled instruction words.
+     */
+    private int[] assemble(ByteBuffer _input) throws AssemblyException {
+        if (cache == null) {
+            return assemble(new Lexer(_input));
+        }
+
+        String variant = VERSION + (peephole ? " --peephole" : "") + (stripDeadCode ? " --strip-dead-code" : "");
+        String key = BuildCache.key(_input, variant);
+        int[] words = cache.get(key);
+        if (words == null) {
+            words = assemble(new Lexer(_input));
+            cache.put(key, words);
+        }
+        return words;
+    }
+
+    /**
+     * Assembles a file, writing the result to a sink in the current format.
+     *
+     * @param _input The path of the .asm file to read.
+     * @param _output The stream to write to. It is not closed.
+     */
+    public void assemble(Path _input, OutputStream _output) throws IOException, AssemblyException {
+        int[] words = assemble(_input);
+        RomWriter.write(words, words.length, _output, format);
+    }
+
+    /**
+     * Assembles the contents of a stream, writing the result to a sink in the current format.
+     *
+     * @param _input The stream to read assembly code from. It is read to its end but not closed.
+     * @param _output The stream to write to. It is not closed.
+     */
+    public void assemble(InputStream _input, OutputStream _output) throws IOException, AssemblyException {
+        int[] words = assemble(_input);
+        RomWriter.write(words, words.length, _output, format);
+    }
+
+    /**
+     * Assembles code held in memory, writing the result to a sink in the current format.
+     *
+     * @param _input The assembly code.
+     * @param _output The stream to write to. It is not closed.
+     */
+    public void assemble(CharSequence _input, OutputStream _output) throws IOException, AssemblyException {
+        int[] words = assemble(_input);
+        RomWriter.write(words, words.length, _output, format);
+    }
+
+    /**
+     * Assembles already lexed code using the current algorithm.
+     *
+     * @param _lexer The lexed commands.
+     * @return The assembled instruction words.
+     */
+    public int[] assemble(Lexer _lexer) throws AssemblyException {
+        int[] words;
+        if (peephole || stripDeadCode) {
+            words = assembleOptimized(_lexer, stats);
+        }
+        else {
+            switch (mode) {
+                case SINGLE_PASS:
+                    words = assembleSinglePass(_lexer, stats);
+                    break;
+                case PARALLEL:
+                    words = ParallelAssembler.assemble(_lexer, ForkJoinPool.commonPool(), stats);
+                    break;
+                default:
+                    words = assembleTwoPass(_lexer, stats);
+                    break;
+            }
+        }
+
+        if (stats != null) {
+            stats.end();
+            stats.countCommands(_lexer);
+            stats.setInstructionCount(words.length);
+        }
+        return words;
+    }
+
+    /**
+     * Assembles a file by parsing it into a Program and running the enabled optimization passes over it.
+     *
+     * @param _lexer The lexed commands.
+     * @param _stats The statistics to record into, or null.
+     * @return The assembled instruction words.
+     */
+    private int[] assembleOptimized(Lexer _lexer, AssemblyStats _stats) throws AssemblyException {
+        if (_stats != null) {
+            _stats.begin(AssemblyStats.Phase.PASS_1);
+        }
+        Program program = Program.parse(_lexer);
+
+        //Removing dead code first also removes the labels which split blocks for the peephole optimizer
+        if (_stats != null) {
+            _stats.begin(AssemblyStats.Phase.OPTIMIZE);
+        }
+        if (stripDeadCode) {
+            DeadCodeEliminator.eliminate(program);
+        }
+        if (peephole) {
+            PeepholeOptimizer.optimize(program);
+        }
+
+        if (_stats != null) {
+            _stats.begin(AssemblyStats.Phase.PASS_2);
+            _stats.recordSymbols(program.symbols());
         }
+        return program.encode();
+    }
 
+    /**
+     * Assembles a file using the classic two-pass algorithm: the first pass collects jump labels,
+     * and the second pass translates each command. The file is only read and lexed once.
+     *
+     * @param _lexer The lexed commands.
+     * @param _stats The statistics to record into, or null.
+     * @return The assembled instruction words.
+     */
+    private static int[] assembleTwoPass(Lexer _lexer, AssemblyStats _stats) throws AssemblyException {
         //Pass 1: Populate symbol table with jump labels
+        if (_stats != null) {
+            _stats.begin(AssemblyStats.Phase.PASS_1);
+        }
         SymbolTable symbols = new SymbolTable();
-        Parser parser;
+        Parser parser = new Parser(_lexer, symbols);
         int commandLocation = -1;
-        try {
-            parser = new Parser(assemblyFile);
-            while (parser.hasMoreCommands()) {
-                parser.advance();
-                if (parser.commandType() == Parser.CommandType.L_COMMAND) {
-                    symbols.addEntry(parser.symbol(), commandLocation + 1);
-                }
-                else {
-                    commandLocation++;
-                }
+        while (parser.hasMoreCommands()) {
+            parser.advance();
+            if (parser.commandType() == Parser.CommandType.L_COMMAND) {
+                symbols.setAddress(parser.symbolId(), commandLocation + 1);
+            }
+            else {
+                commandLocation++;
             }
         }
-        catch (FileNotFoundException ignored) {} //Check for file existence is above
 
         //Pass 2: Translate file
-        try {
-            FileWriter writer = new FileWriter(hackFile);
-            int nextMemorySlot = 16;
-            try {
-                parser = new Parser(assemblyFile);
-                while (parser.hasMoreCommands()) {
-                    parser.advance();
-                    switch (parser.commandType()) {
-                        case A_COMMAND:
-                            int value;
-
-                            //Check for literal integer load
-                            try {
-                                value = Integer.parseInt(parser.symbol());
-                            }
+        if (_stats != null) {
+            _stats.begin(AssemblyStats.Phase.PASS_2);
+        }
+        int[] words = new int[commandLocation + 1];
+        int count = 0;
+        parser = new Parser(_lexer, symbols);
+        while (parser.hasMoreCommands()) {
+            parser.advance();
+            switch (parser.commandType()) {
+                case A_COMMAND:
+                    int value = parser.value();
 
-                            //Check against symbol table, add if needed
-                            catch (NumberFormatException e) {
-                                if (symbols.contains(parser.symbol())) {
-                                    value = symbols.getAddress(parser.symbol());
-                                }
-                                else {
-                                    symbols.addEntry(parser.symbol(), nextMemorySlot);
-                                    value = nextMemorySlot;
-                                    nextMemorySlot++;
+                    //Check user symbols against symbol table, add if needed
+                    if (parser.operandType() == Parser.OperandType.SYMBOL) {
+                        value = symbols.getOrAllocate(parser.symbolId());
+                    }
+
+                    words[count++] = load(parser, value);
+                    break;
+
+                case C_COMMAND:
+                    words[count++] = encodeC(parser);
+                    break;
+
+                case L_COMMAND:
+                    break;
+            }
+        }
+
+        if (_stats != null) {
+            _stats.recordSymbols(symbols);
+        }
+        return words;
+    }
+
+    /**
+     * Assembles a file in a single pass over its commands. Instructions are translated as they are read;
+     * references to symbols which are not yet known are recorded in a fixup list and patched when the
+     * matching label is defined. The fixup list for each symbol is threaded through the unfilled instruction
+     * slots themselves, each holding the index of the previous reference to the same symbol. Any references
+     * still unresolved at the end of input are variables, and are allocated RAM slots in order of first use,
+     * so the output is identical to that of the two-pass algorithm. References to a label which is defined more
+     * than once, or which reuses a predefined symbol, are first bound to the definition current at that point and
+     * then re-patched at the end of input to the last definition, as in the two-pass algorithm.
+     *
+     * @param _lexer The lexed commands.
+     * @param _stats The statistics to record into, or null. Translation is recorded as pass 1, and patching of
+     *               variable references as pass 2.
+     * @return The assembled instruction words.
+     */
+    private static int[] assembleSinglePass(Lexer _lexer, AssemblyStats _stats) throws AssemblyException {
+        if (_stats != null) {
+            _stats.begin(AssemblyStats.Phase.PASS_1);
+        }
+        SymbolTable symbols = new SymbolTable();
+        int[] words = new int[1024];
+        int count = 0;
+        //Index of the latest unresolved reference to each symbol id, or -1 if there are none
+        int[] fixups = new int[256];
+        Arrays.fill(fixups, -1);
+        //Symbol ids with unresolved references, in order of first use
+        int[] pending = new int[256];
+        int pendingCount = 0;
+        //Whether each symbol id was given a new address after references may have been bound to an earlier one
+        boolean[] redefined = new boolean[256];
+        boolean anyRedefined = false;
+
+        Parser parser = new Parser(_lexer, symbols);
+        while (parser.hasMoreCommands()) {
+            parser.advance();
+            if (count == words.length) {
+                words = Arrays.copyOf(words, count * 2);
+            }
+
+            switch (parser.commandType()) {
+                case A_COMMAND:
+                    int value = parser.value();
+
+                    //Check user symbols against symbol table, defer if not yet defined
+                    if (parser.operandType() == Parser.OperandType.SYMBOL) {
+                        int id = parser.symbolId();
+                        value = symbols.getAddress(id);
+                        if (value == -1) {
+                            if (id >= fixups.length) {
+                                int oldLength = fixups.length;
+                                fixups = Arrays.copyOf(fixups, Math.max(oldLength * 2, id + 1));
+                                Arrays.fill(fixups, oldLength, fixups.length, -1);
+                            }
+                            if (fixups[id] == -1) {
+                                if (pendingCount == pending.length) {
+                                    pending = Arrays.copyOf(pending, pendingCount * 2);
                                 }
+                                pending[pendingCount++] = id;
                             }
-
-                            //Translate load value to binary and write load command
-                            String binaryString = Integer.toString(value, 2);
-                            binaryString = "0".repeat(15 - binaryString.length()) + binaryString;
-                            writer.write("0" + binaryString + "\n");
+                            words[count] = fixups[id];
+                            fixups[id] = count++;
                             break;
+                        }
+                    }
 
-                        case C_COMMAND:
-                            String comp = Code.comp(parser.comp());
-                            String dest = Code.dest(parser.dest());
-                            String jump = Code.jump(parser.jump());
-                            writer.write("111" + comp + dest + jump + "\n");
-                            break;
+                    words[count++] = load(parser, value);
+                    break;
 
-                        case L_COMMAND:
-                            break;
+                case C_COMMAND:
+                    words[count++] = encodeC(parser);
+                    break;
+
+                case L_COMMAND:
+                    //Define label and patch any earlier forward references to it
+                    if (symbols.getAddress(parser.symbolId()) != -1) {
+                        if (parser.symbolId() >= redefined.length) {
+                            redefined = Arrays.copyOf(redefined, Math.max(redefined.length * 2, parser.symbolId() + 1));
+                        }
+                        redefined[parser.symbolId()] = true;
+                        anyRedefined = true;
+                    }
+                    symbols.setAddress(parser.symbolId(), count);
+                    if (parser.symbolId() < fixups.length && fixups[parser.symbolId()] != -1) {
+                        if (count > MAX_LOAD) {
+                            throw new AssemblyException(parser.lineNumber(), "Address " + count + " of label " + parser.symbol() + " is out of range.");
+                        }
+                        patch(words, fixups[parser.symbolId()], count);
+                        fixups[parser.symbolId()] = -1;
                     }
+                    break;
+            }
+        }
+
+        //Remaining unresolved symbols are variables
+        if (_stats != null) {
+            _stats.begin(AssemblyStats.Phase.PASS_2);
+        }
+        for (int i = 0; i < pendingCount; i++) {
+            int id = pending[i];
+            if (fixups[id] != -1) {
+                int address = symbols.getOrAllocate(id);
+                if (address > MAX_LOAD) {
+                    throw new AssemblyException("Address " + address + " of variable " + symbols.getSymbol(id) + " is out of range.");
                 }
+                patch(words, fixups[id], address);
+            }
+        }
 
-                writer.close();
+        //Bind every reference to a redefined label to its last definition
+        if (anyRedefined) {
+            int index = 0;
+            parser = new Parser(_lexer, symbols);
+            while (parser.hasMoreCommands()) {
+                parser.advance();
+                if (parser.commandType() == Parser.CommandType.A_COMMAND) {
+                    int id = parser.symbolId();
+                    if (id != -1 && id < redefined.length && redefined[id]) {
+                        words[index] = load(parser, symbols.getAddress(id));
+                    }
+                    index++;
+                }
+                else if (parser.commandType() == Parser.CommandType.C_COMMAND) {
+                    index++;
+                }
             }
-            catch (FileNotFoundException ignored) {} //Check for file existence is above
         }
-        catch (IOException e) {
-            System.err.println("IOException while trying to write .hack file.");
-            System.err.println(e.getMessage());
-            System.exit(1);
+
+        if (_stats != null) {
+            _stats.recordSymbols(symbols);
+        }
+        return Arrays.copyOf(words, count);
+    }
+
+    /**
+     * Resolves a chain of forward references to a symbol.
+     *
+     * @param _words The instruction words, with unresolved slots holding the index of the previous reference.
+     * @param _last The index of the latest reference in the chain, or -1 if there are none.
+     * @param _address The address to load at each reference.
+     */
+    private static void patch(int[] _words, int _last, int _address) {
+        int index = _last;
+        while (index != -1) {
+            int previous = _words[index];
+            _words[index] = Code.aInstruction(_address);
+            index = previous;
+        }
+    }
+
+    /**
+     * Builds the load instruction for the parser's current command, checking that the value is in range.
+     *
+     * @param _parser The parser, positioned on an A_COMMAND line.
+     * @param _value The resolved value to load.
+     * @return The instruction word.
+     */
+    static int load(Parser _parser, int _value) throws AssemblyException {
+        if (_value > MAX_LOAD) {
+            throw new AssemblyException(_parser.lineNumber(), "Address " + _value + " of symbol " + _parser.symbol() + " is out of range.");
+        }
+        return Code.aInstruction(_value);
+    }
+
+    /**
+     * Translates the parser's current general command to machine code.
+     *
+     * @param _parser The parser, positioned on a C_COMMAND line.
+     * @return The instruction word.
+     */
+    static int encodeC(Parser _parser) throws AssemblyException {
+        byte[] text = _parser.buffer();
+        int comp = Code.comp(text, _parser.compStart(), _parser.compLength());
+        if (comp == -1) {
+            throw new AssemblyException(_parser.lineNumber(), "Invalid computation " + _parser.comp());
+        }
+        int dest = Code.dest(text, _parser.destStart(), _parser.destLength());
+        if (dest == -1) {
+            throw new AssemblyException(_parser.lineNumber(), "Invalid destination " + _parser.dest());
+        }
+        int jump = Code.jump(text, _parser.jumpStart(), _parser.jumpLength());
+        if (jump == -1) {
+            throw new AssemblyException(_parser.lineNumber(), "Invalid jump " + _parser.jump());
         }
+        return Code.cInstruction(comp, dest, jump);
     }
 }
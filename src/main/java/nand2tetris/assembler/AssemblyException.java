@@ -0,0 +1,39 @@
+package nand2tetris.assembler;
+
+/**
+ * Custom exception for errors detected in assembly code.
+ */
+public class AssemblyException extends Exception {
+    /**Source line on which the error was found, or 0 if it is not tied to a line*/
+    private final int line;
+
+    /**
+     * Overloaded constructor - calls default exception constructor.
+     *
+     * @param errorMessage The error message to throw.
+     */
+    public AssemblyException(String errorMessage) {
+        super(errorMessage);
+        line = 0;
+    }
+
+    /**
+     * Constructs an exception for an error on a given source line.
+     *
+     * @param _line The 1-based source line number.
+     * @param errorMessage The error message to throw.
+     */
+    public AssemblyException(int _line, String errorMessage) {
+        super("Line " + _line + ": " + errorMessage);
+        line = _line;
+    }
+
+    /**
+     * Gets the source line on which the error was found.
+     *
+     * @return The 1-based line number, or 0 if the error is not tied to a line.
+     */
+    public int getLine() {
+        return line;
+    }
+}
@@ -0,0 +1,295 @@
+package nand2tetris.assembler;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class which collects timings and counters while assembling a single program. Wall time is measured with
+ * System.nanoTime(), and allocated bytes with the JVM's per-thread allocation counters. Only the thread assembling
+ * the program and the pool tasks wrapped with measure are counted, so allocation by unrelated threads is
+ * excluded. Time spent in a phase entered more than once is accumulated. Not thread safe apart from measured
+ * tasks; use one instance per program.
+ */
+public class AssemblyStats {
+    /**Thread bean used to read allocation counters, or null if they are not supported*/
+    private static final com.sun.management.ThreadMXBean THREADS = allocationBean();
+
+    /**Wall time spent in each phase, in nanoseconds*/
+    private final long[] nanos;
+    /**Bytes allocated in each phase, or -1 if allocation counters are not supported*/
+    private final long[] allocated;
+    /**Current phase, or null if none*/
+    private Phase phase;
+    /**Wall time at which the current phase was entered*/
+    private long phaseStartNanos;
+    /**Thread which entered the current phase*/
+    private volatile Thread owner;
+    /**Allocation counter of the owning thread when the current phase was entered*/
+    private long phaseStartBytes;
+    /**Bytes allocated by measured tasks on other threads*/
+    private final LongAdder taskBytes;
+    /**Value of taskBytes when the current phase was entered*/
+    private long phaseStartTaskBytes;
+    /**Number of load commands*/
+    private int aCommands;
+    /**Number of general commands*/
+    private int cCommands;
+    /**Number of label commands*/
+    private int lCommands;
+    /**Number of variables allocated RAM addresses*/
+    private int variables;
+    /**Largest number of symbols held by a symbol table, including predefined symbols*/
+    private int peakSymbols;
+    /**Number of instructions produced*/
+    private int instructions;
+
+    /**
+     * Enum for assembly phases
+     */
+    public enum Phase {
+        /**Reading and lexing the input*/
+        READ("read"),
+        /**Collecting labels, or translating in single-pass mode*/
+        PASS_1("pass 1"),
+        /**Translating, or patching references in single-pass mode*/
+        PASS_2("pass 2"),
+        /**Optional optimization passes*/
+        OPTIMIZE("optimize"),
+        /**Writing the output*/
+        WRITE("write");
+
+        /**Name used in reports*/
+        private final String label;
+
+        /**
+         * Constructs a phase constant.
+         *
+         * @param _label The name used in reports.
+         */
+        Phase(String _label) {
+            label = _label;
+        }
+    }
+
+    /**
+     * Constructs an empty set of statistics.
+     */
+    public AssemblyStats() {
+        nanos = new long[Phase.values().length];
+        allocated = new long[Phase.values().length];
+        taskBytes = new LongAdder();
+    }
+
+    /**
+     * Gets the HotSpot thread bean if it supports allocation counters, enabling them if needed.
+     *
+     * @return The bean, or null if allocation counters are not available.
+     */
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+
+    /**
+     * Reads the bytes allocated by the current thread since it started.
+     *
+     * @return The total, or -1 if allocation counters are not available.
+     */
+    private static long allocatedBytes() {
+        if (THREADS == null) {
+            return -1;
+        }
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Wraps a task run on a pool for the current program so that its allocations are counted in the phase
+     * which is current while it runs. Tasks which run on the thread which entered the phase are already counted
+     * and are not measured again.
+     *
+     * @param _task The task to wrap.
+     * @param <V> The result type of the task.
+     * @return The wrapped task.
+     */
+    public <V> Callable<V> measure(Callable<V> _task) {
+        if (THREADS == null) {
+            return _task;
+        }
+        return () -> {
+            if (Thread.currentThread() == owner) {
+                return _task.call();
+            }
+            long start = allocatedBytes();
+            try {
+                return _task.call();
+            }
+            finally {
+                taskBytes.add(allocatedBytes() - start);
+            }
+        };
+    }
+
+    /**
+     * Ends the current phase, if any, and enters another.
+     *
+     * @param _phase The phase being entered.
+     */
+    public void begin(Phase _phase) {
+        end();
+        phase = _phase;
+        owner = Thread.currentThread();
+        phaseStartBytes = allocatedBytes();
+        phaseStartTaskBytes = taskBytes.sum();
+        phaseStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Ends the current phase, if any, adding its time and allocations to the totals.
+     */
+    public void end() {
+        if (phase == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        long bytes = allocatedBytes();
+        nanos[phase.ordinal()] += now - phaseStartNanos;
+        if (bytes == -1 || phaseStartBytes == -1) {
+            allocated[phase.ordinal()] = -1;
+        }
+        else {
+            allocated[phase.ordinal()] += bytes - phaseStartBytes + taskBytes.sum() - phaseStartTaskBytes;
+        }
+        phase = null;
+    }
+
+    /**
+     * Counts the commands of each type in lexed code.
+     *
+     * @param _lexer The lexed commands.
+     */
+    public void countCommands(Lexer _lexer) {
+        byte[] text = _lexer.buffer();
+        for (int i = 0; i < _lexer.commandCount(); i++) {
+            switch (text[_lexer.start(i)]) {
+                case '@':
+                    aCommands++;
+                    break;
+                case '(':
+                    lCommands++;
+                    break;
+                default:
+                    cCommands++;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Records the size of a symbol table and the variables it allocated.
+     *
+     * @param _symbols The symbol table.
+     */
+    public void recordSymbols(SymbolTable _symbols) {
+        peakSymbols = Math.max(peakSymbols, _symbols.size());
+        variables = Math.max(variables, _symbols.variableCount());
+    }
+
+    /**
+     * Records the size of the output.
+     *
+     * @param _instructions The number of instructions produced.
+     */
+    public void setInstructionCount(int _instructions) {
+        instructions = _instructions;
+    }
+
+    /**
+     * Gets the wall time spent in a phase.
+     *
+     * @param _phase The phase.
+     * @return The time in nanoseconds.
+     */
+    public long getNanos(Phase _phase) {
+        return nanos[_phase.ordinal()];
+    }
+
+    /**
+     * Gets the bytes allocated in a phase.
+     *
+     * @param _phase The phase.
+     * @return The number of bytes, or -1 if allocation counters are not available.
+     */
+    public long getAllocatedBytes(Phase _phase) {
+        return allocated[_phase.ordinal()];
+    }
+
+    /**
+     * Formats the statistics as a human-readable table.
+     *
+     * @return The report, ending in a newline.
+     */
+    public String toText() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "%-10s %12s %16s%n", "Phase", "Time (ms)", "Allocated (KB)"));
+        long totalNanos = 0;
+        long totalBytes = 0;
+        for (Phase p: Phase.values()) {
+            totalNanos += nanos[p.ordinal()];
+            totalBytes = allocated[p.ordinal()] == -1 || totalBytes == -1 ? -1 : totalBytes + allocated[p.ordinal()];
+            report.append(formatRow(p.label, nanos[p.ordinal()], allocated[p.ordinal()]));
+        }
+        report.append(formatRow("total", totalNanos, totalBytes));
+        report.append(String.format(Locale.ROOT, "Commands: %d A, %d C, %d L%n", aCommands, cCommands, lCommands));
+        report.append(String.format(Locale.ROOT, "Instructions: %d%n", instructions));
+        report.append(String.format(Locale.ROOT, "Symbols: %d variables allocated, peak table size %d%n", variables, peakSymbols));
+        return report.toString();
+    }
+
+    /**
+     * Formats one row of the phase table.
+     *
+     * @param _label The row label.
+     * @param _nanos The time in nanoseconds.
+     * @param _bytes The bytes allocated, or -1 if unknown.
+     * @return The formatted row, ending in a newline.
+     */
+    private static String formatRow(String _label, long _nanos, long _bytes) {
+        String bytes = _bytes == -1 ? "n/a" : String.format(Locale.ROOT, "%.1f", _bytes / 1024.0);
+        return String.format(Locale.ROOT, "%-10s %12.3f %16s%n", _label, _nanos / 1e6, bytes);
+    }
+
+    /**
+     * Formats the statistics as a single line of JSON.
+     *
+     * @return The JSON object, without a trailing newline.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\"phases\":{");
+        for (Phase p: Phase.values()) {
+            if (p.ordinal() != 0) {
+                json.append(',');
+            }
+            json.append('"').append(p.name().toLowerCase(Locale.ROOT)).append("\":{\"nanos\":").append(nanos[p.ordinal()]);
+            json.append(",\"allocatedBytes\":").append(allocated[p.ordinal()]).append('}');
+        }
+        json.append("},\"commands\":{\"a\":").append(aCommands);
+        json.append(",\"c\":").append(cCommands);
+        json.append(",\"l\":").append(lCommands);
+        json.append("},\"instructions\":").append(instructions);
+        json.append(",\"variables\":").append(variables);
+        json.append(",\"peakSymbols\":").append(peakSymbols);
+        json.append('}');
+        return json.toString();
+    }
+}
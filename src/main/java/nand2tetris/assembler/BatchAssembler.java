@@ -0,0 +1,270 @@
+package nand2tetris.assembler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Class which assembles many .asm files concurrently on a bounded thread pool.
+ * Every file is assembled independently, with its own symbol table, and written next to its input.
+ * Results are reported in sorted path order regardless of completion order.
+ */
+public class BatchAssembler {
+    /**Assembler used for every file*/
+    private final Assembler assembler;
+    /**Number of worker threads*/
+    private final int threads;
+
+    /**
+     * Class holding the outcome of assembling one file.
+     */
+    public static class Result {
+        /**Input file*/
+        private final Path input;
+        /**Number of instructions produced, or -1 if assembly failed*/
+        private final int instructionCount;
+        /**Error message, or null if assembly succeeded*/
+        private final String error;
+
+        /**
+         * Constructs a new result.
+         *
+         * @param _input The input file.
+         * @param _instructionCount The number of instructions produced, or -1 if assembly failed.
+         * @param _error The error message, or null if assembly succeeded.
+         */
+        private Result(Path _input, int _instructionCount, String _error) {
+            input = _input;
+            instructionCount = _instructionCount;
+            error = _error;
+        }
+
+        /**
+         * Gets the input file.
+         *
+         * @return The path of the .asm file.
+         */
+        public Path getInput() {
+            return input;
+        }
+
+        /**
+         * Gets the number of instructions produced.
+         *
+         * @return The instruction count, or -1 if assembly failed.
+         */
+        public int getInstructionCount() {
+            return instructionCount;
+        }
+
+        /**
+         * Gets the error message for a failed file.
+         *
+         * @return The error message, or null if assembly succeeded.
+         */
+        public String getError() {
+            return error;
+        }
+    }
+
+    /**
+     * Constructs a batch assembler.
+     *
+     * @param _assembler The assembler whose settings are used for every file.
+     * @param _threads The number of files to assemble at once.
+     */
+    public BatchAssembler(Assembler _assembler, int _threads) {
+        assembler = _assembler;
+        threads = _threads;
+    }
+
+    /**
+     * Assembles all files matching the given arguments, printing per-file errors and a throughput summary.
+     *
+     * @param _assembler The assembler whose settings are used for every file.
+     * @param _arguments Files, directories and glob patterns to assemble.
+     * @param _threads The number of files to assemble at once.
+     * @return True if every file was assembled, false if any failed or any argument matched nothing.
+     */
+    public static boolean run(Assembler _assembler, List<String> _arguments, int _threads) {
+        InputFiles inputs = InputFiles.expand(_arguments, ".asm", BatchAssembler::findInputs);
+        if (inputs.getFiles().isEmpty()) {
+            return false;
+        }
+
+        long startTime = System.nanoTime();
+        List<Result> results;
+        try {
+            results = new BatchAssembler(_assembler, _threads).assembleAll(inputs.getFiles());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Interrupted while assembling.");
+            return false;
+        }
+        double seconds = Math.max(System.nanoTime() - startTime, 1) / 1e9;
+
+        //Report in input order
+        int failed = 0;
+        long instructions = 0;
+        for (Result result: results) {
+            if (result.getError() != null) {
+                failed++;
+                System.err.println(result.getInput() + ": Assembly error:");
+                System.err.println(result.getError());
+            }
+            else {
+                instructions += result.getInstructionCount();
+            }
+        }
+        System.out.printf("Assembled %d of %d files, %d instructions in %.3f s (%.1f files/s, %.0f instructions/s)%n",
+                results.size() - failed, results.size(), instructions, seconds,
+                results.size() / seconds, instructions / seconds);
+        return failed == 0 && inputs.getFailureCount() == 0;
+    }
+
+    /**
+     * Expands a command line argument into .asm files. Directories expand to the .asm files they contain,
+     * and arguments containing glob characters are matched against the files under their fixed prefix.
+     *
+     * @param _argument A file, directory or glob pattern.
+     * @return The matching files, in sorted order.
+     */
+    public static List<Path> findInputs(String _argument) throws IOException {
+        ArrayList<Path> inputs = new ArrayList<>();
+        int globIndex = indexOfGlob(_argument);
+
+        if (globIndex == -1) {
+            Path path = Paths.get(_argument);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.list(path)) {
+                    files.filter(BatchAssembler::isAssemblyFile).forEach(inputs::add);
+                }
+            }
+            else if (Files.exists(path)) {
+                inputs.add(path);
+            }
+        }
+        else {
+            //Walk from the last directory before the first glob character
+            int separator = _argument.lastIndexOf(File.separatorChar, globIndex);
+            if (separator == -1 && File.separatorChar != '/') {
+                separator = _argument.lastIndexOf('/', globIndex);
+            }
+            boolean relative = separator == -1;
+            Path root = Paths.get(relative ? "." : _argument.substring(0, separator + 1));
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + _argument);
+            if (Files.isDirectory(root)) {
+                try (Stream<Path> files = Files.walk(root)) {
+                    files.filter(BatchAssembler::isAssemblyFile)
+                            .filter(p -> matcher.matches(relative ? root.relativize(p) : p))
+                            .map(p -> relative ? root.relativize(p) : p)
+                            .forEach(inputs::add);
+                }
+            }
+        }
+
+        Collections.sort(inputs);
+        return inputs;
+    }
+
+    /**
+     * Assembles files concurrently, writing each output next to its input.
+     *
+     * @param _inputs The .asm files to assemble.
+     * @return One result per input, in the same order as the inputs.
+     */
+    public List<Result> assembleAll(List<Path> _inputs) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<Result>> futures = new ArrayList<>();
+        for (Path input: _inputs) {
+            futures.add(pool.submit(() -> assembleFile(input)));
+        }
+        pool.shutdown();
+
+        ArrayList<Result> results = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            }
+            catch (ExecutionException e) {
+                results.add(new Result(_inputs.get(i), -1, String.valueOf(e.getCause())));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Assembles a single file, capturing any error in the result.
+     *
+     * @param _input The .asm file to assemble.
+     * @return The result for this file.
+     */
+    private Result assembleFile(Path _input) {
+        String name = _input.toString();
+        if (!name.endsWith(".asm")) {
+            return new Result(_input, -1, "Assembler files should use the .asm extension.");
+        }
+
+        try {
+            int[] words = assembler.assemble(_input);
+            File output = new File(name.substring(0, name.length() - 3) + assembler.getFormat().extension());
+            RomWriter.write(words, words.length, output, assembler.getFormat());
+            return new Result(_input, words.length, null);
+        }
+        catch (AssemblyException e) {
+            return new Result(_input, -1, e.getMessage());
+        }
+        catch (IOException e) {
+            return new Result(_input, -1, "IOException: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Checks whether a path is a regular file with the .asm extension. The extension is case sensitive, as it is
+     * when assembling.
+     *
+     * @param _path The path to check.
+     * @return True if the path is an assembly file, false if not.
+     */
+    private static boolean isAssemblyFile(Path _path) {
+        return Files.isRegularFile(_path) && _path.getFileName().toString().endsWith(".asm");
+    }
+
+    /**
+     * Checks whether a command line argument is a glob pattern.
+     *
+     * @param _argument The argument to check.
+     * @return True if the argument contains glob characters, false if not.
+     */
+    public static boolean isGlob(String _argument) {
+        return indexOfGlob(_argument) != -1;
+    }
+
+    /**
+     * Finds the first glob metacharacter in a string.
+     *
+     * @param _argument The string to search.
+     * @return The index of the first glob character, or -1 if there are none.
+     */
+    private static int indexOfGlob(String _argument) {
+        for (int i = 0; i < _argument.length(); i++) {
+            if ("*?[{".indexOf(_argument.charAt(i)) != -1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,225 @@
+package nand2tetris.assembler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+
+/**
+ * Class which stores assembled ROM images on disk, keyed by a SHA-256 hash of the assembler version and the
+ * input bytes. Each entry is a packed big-endian image in its own file. Hits refresh the entry's modification
+ * time, and the least recently used entries are deleted once the cache grows past its size limit.
+ * Failures to read or write the cache are never fatal; they simply behave as misses.
+ */
+public class BuildCache {
+    /**Extension of cache entry files*/
+    private static final String EXTENSION = ".bin";
+    /**Default size limit in bytes*/
+    public static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Class holding the attributes of one entry file, read while measuring the cache.
+     */
+    private static class Entry {
+        /**Path of the entry file*/
+        private final Path path;
+        /**Last modification time in milliseconds*/
+        private final long time;
+        /**Size in bytes*/
+        private final long size;
+
+        /**
+         * Constructs a new entry.
+         *
+         * @param _path The path of the entry file.
+         * @param _time The last modification time in milliseconds.
+         * @param _size The size in bytes.
+         */
+        private Entry(Path _path, long _time, long _size) {
+            path = _path;
+            time = _time;
+            size = _size;
+        }
+    }
+
+    /**Directory holding the entries*/
+    private final Path directory;
+    /**Size limit in bytes*/
+    private final long maxSize;
+    /**Approximate total size of the entries, or -1 if not yet measured*/
+    private long size;
+
+    /**
+     * Constructs a cache in the given directory, creating it if needed.
+     *
+     * @param _directory The directory holding the entries.
+     * @param _maxSize The size limit in bytes.
+     */
+    public BuildCache(Path _directory, long _maxSize) throws IOException {
+        directory = _directory;
+        maxSize = _maxSize;
+        size = -1;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Gets the default cache directory, under the user's cache directory.
+     *
+     * @return The path of the default cache directory.
+     */
+    public static Path defaultDirectory() {
+        String base = System.getenv("XDG_CACHE_HOME");
+        if (base == null || base.isEmpty()) {
+            return Paths.get(System.getProperty("user.home"), ".cache", "nand2tetris", "assembler");
+        }
+        return Paths.get(base, "nand2tetris", "assembler");
+    }
+
+    /**
+     * Computes the cache key of an input.
+     *
+     * @param _input The input bytes, from the buffer's position to its limit. The position is not changed.
+     * @param _variant A string identifying the assembler version and any options which affect the output.
+     * @return The key, as a lowercase hexadecimal string.
+     */
+    public static String key(ByteBuffer _input, String _variant) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            //Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+        digest.update(_variant.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(_input.duplicate());
+
+        StringBuilder key = new StringBuilder();
+        for (byte b: digest.digest()) {
+            key.append(Character.forDigit((b >>> 4) & 0xF, 16));
+            key.append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Looks up a ROM image.
+     *
+     * @param _key The cache key of the input.
+     * @return The cached instruction words, or null if there is no entry for this key.
+     */
+    public int[] get(String _key) {
+        Path entry = directory.resolve(_key + EXTENSION);
+        byte[] image;
+        try {
+            image = Files.readAllBytes(entry);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        }
+        catch (IOException e) {
+            return null;
+        }
+
+        //Entries are written whole by rename, so an odd length can only mean outside tampering
+        if (image.length % 2 != 0) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(image).order(ByteOrder.BIG_ENDIAN);
+        int[] words = new int[image.length / 2];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = buffer.getShort() & 0xFFFF;
+        }
+        return words;
+    }
+
+    /**
+     * Stores a ROM image, evicting least recently used entries if the cache grows too large.
+     *
+     * @param _key The cache key of the input.
+     * @param _words The instruction words.
+     */
+    public void put(String _key, int[] _words) {
+        ByteBuffer buffer = ByteBuffer.allocate(2 * _words.length).order(ByteOrder.BIG_ENDIAN);
+        for (int word: _words) {
+            buffer.putShort((short) word);
+        }
+
+        //Write to a temporary file and rename it, so readers never see a partial entry
+        Path entry = directory.resolve(_key + EXTENSION);
+        try {
+            Path temporary = Files.createTempFile(directory, _key, ".tmp");
+            try {
+                Files.write(temporary, buffer.array());
+                Files.move(temporary, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (FileAlreadyExistsException e) {
+                //Another process stored the same entry first
+            }
+            finally {
+                Files.deleteIfExists(temporary);
+            }
+        }
+        catch (IOException e) {
+            return;
+        }
+
+        synchronized (this) {
+            if (size != -1) {
+                size += buffer.capacity();
+            }
+            if (size == -1 || size > maxSize) {
+                evict();
+            }
+        }
+    }
+
+    /**
+     * Measures the cache and deletes least recently used entries until it fits within its size limit.
+     */
+    private void evict() {
+        ArrayList<Entry> entries = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path path: stream) {
+                try {
+                    long time = Files.getLastModifiedTime(path).toMillis();
+                    long bytes = Files.size(path);
+                    entries.add(new Entry(path, time, bytes));
+                    total += bytes;
+                }
+                catch (NoSuchFileException e) {
+                    //Deleted by another process while listing
+                }
+            }
+        }
+        catch (IOException e) {
+            return;
+        }
+
+        //Delete oldest entries first
+        entries.sort(Comparator.comparingLong(e -> e.time));
+        for (int i = 0; i < entries.size() && total > maxSize; i++) {
+            Entry entry = entries.get(i);
+            try {
+                Files.deleteIfExists(entry.path);
+                total -= entry.size;
+            }
+            catch (IOException e) {
+                //Leave entries which cannot be deleted
+            }
+        }
+        size = total;
+    }
+}
@@ -1,34 +1,109 @@
 package nand2tetris.assembler;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 /**
  * Class containing static methods for translating assembly mnemonics to machine code.
+ * Instructions are built as 16-bit words in the low bits of an int; see RomWriter for output formatting.
  */
 public class Code {
+    /**Bits set on every C-instruction*/
+    private static final int C_PREFIX = 0b111 << 13;
+    /**Number of bits used to encode each character of a comp mnemonic*/
+    private static final int CHAR_BITS = 4;
+    /**Per-character codes used to index COMP_TABLE, 0 for characters which cannot appear in a comp mnemonic*/
+    private static final byte[] CHAR_CODES = new byte[128];
+    /**Comp field lookup table, indexed by packed character codes, -1 for invalid mnemonics*/
+    private static final short[] COMP_TABLE = new short[1 << (3 * CHAR_BITS)];
+
+    static {
+        String alphabet = "01-!DAM+&|";
+        for (int i = 0; i < alphabet.length(); i++) {
+            CHAR_CODES[alphabet.charAt(i)] = (byte) (i + 1);
+        }
+
+        Arrays.fill(COMP_TABLE, (short) -1);
+        String[][] mnemonics = {
+                {"0", "0101010"},
+                {"1", "0111111"},
+                {"-1", "0111010"},
+                {"D", "0001100"},
+                {"A", "0110000"},
+                {"M", "1110000"},
+                {"!D", "0001101"},
+                {"!A", "0110001"},
+                {"!M", "1110001"},
+                {"-D", "0001111"},
+                {"-A", "0110011"},
+                {"-M", "1110011"},
+                {"D+1", "0011111"},
+                {"1+D", "0011111"},
+                {"A+1", "0110111"},
+                {"1+A", "0110111"},
+                {"M+1", "1110111"},
+                {"1+M", "1110111"},
+                {"D-1", "0001110"},
+                {"A-1", "0110010"},
+                {"M-1", "1110010"},
+                {"D+A", "0000010"},
+                {"A+D", "0000010"},
+                {"D+M", "1000010"},
+                {"M+D", "1000010"},
+                {"D-A", "0010011"},
+                {"D-M", "1010011"},
+                {"A-D", "0000111"},
+                {"M-D", "1000111"},
+                {"D&A", "0000000"},
+                {"A&D", "0000000"},
+                {"D&M", "1000000"},
+                {"M&D", "1000000"},
+                {"D|A", "0010101"},
+                {"A|D", "0010101"},
+                {"D|M", "1010101"},
+                {"M|D", "1010101"}
+        };
+        for (String[] mnemonic: mnemonics) {
+            byte[] text = mnemonic[0].getBytes(StandardCharsets.US_ASCII);
+            COMP_TABLE[compKey(text, 0, text.length)] = (short) Integer.parseInt(mnemonic[1], 2);
+        }
+    }
+
     /**
      * Translates a destination mnemonic to machine code.
      *
      * @param _dest The destination mnemonic to translate
-     * @return The corresponding machine code segment, as a string containing 1 or 0 characters.
+     * @return The corresponding 3-bit machine code segment, or -1 if the mnemonic is not valid.
      */
-    public static String dest(String _dest) {
-        String ret = "";
-        if (_dest.contains("A")) {
-            ret += "1";
-        }
-        else {
-            ret += "0";
-        }
-        if (_dest.contains("D")) {
-            ret += "1";
-        }
-        else {
-            ret += "0";
-        }
-        if (_dest.contains("M")) {
-            ret += "1";
-        }
-        else {
-            ret += "0";
+    public static int dest(String _dest) {
+        byte[] text = _dest.getBytes(StandardCharsets.US_ASCII);
+        return dest(text, 0, text.length);
+    }
+
+    /**
+     * Translates a destination mnemonic held in a byte slice to machine code.
+     *
+     * @param _text The buffer holding the mnemonic
+     * @param _start The offset of the mnemonic within the buffer
+     * @param _length The length of the mnemonic
+     * @return The corresponding 3-bit machine code segment, or -1 if the mnemonic is not valid.
+     */
+    public static int dest(byte[] _text, int _start, int _length) {
+        int ret = 0;
+        for (int i = _start; i < _start + _length; i++) {
+            switch (_text[i]) {
+                case 'A':
+                    ret |= 0b100;
+                    break;
+                case 'D':
+                    ret |= 0b010;
+                    break;
+                case 'M':
+                    ret |= 0b001;
+                    break;
+                default:
+                    return -1;
+            }
         }
         return ret;
     }
@@ -37,104 +112,115 @@ public class Code {
      * Translates a comparison mnemonic to machine code.
      *
      * @param _comp The comparison mnemonic to translate
-     * @return The corresponding machine code segment, as a string containing 1 or 0 characters.
+     * @return The corresponding 7-bit machine code segment, or -1 if the mnemonic is not valid.
      */
-    public static String comp(String _comp) {
-        switch (_comp) {
-            case "0":
-                return "0101010";
-            case "1":
-                return "0111111";
-            case "-1":
-                return "0111010";
-            case "D":
-                return "0001100";
-            case "A":
-                return "0110000";
-            case "M":
-                return "1110000";
-            case "!D":
-                return "0001101";
-            case "!A":
-                return "0110001";
-            case "!M":
-                return "1110001";
-            case "-D":
-                return "0001111";
-            case "-A":
-                return "0110011";
-            case "-M":
-                return "1110011";
-            case "D+1":
-            case "1+D":
-                return "0011111";
-            case "A+1":
-            case "1+A":
-                return "0110111";
-            case "M+1":
-            case "1+M":
-                return "1110111";
-            case "D-1":
-                return "0001110";
-            case "A-1":
-                return "0110010";
-            case "M-1":
-                return "1110010";
-            case "D+A":
-            case "A+D":
-                return "0000010";
-            case "D+M":
-            case "M+D":
-                return "1000010";
-            case "D-A":
-                return "0010011";
-            case "D-M":
-                return "1010011";
-            case "A-D":
-                return "0000111";
-            case "M-D":
-                return "1000111";
-            case "D&A":
-            case "A&D":
-                return "0000000";
-            case "D&M":
-            case "M&D":
-                return "1000000";
-            case "D|A":
-            case "A|D":
-                return "0010101";
-            case "D|M":
-            case "M|D":
-                return "1010101";
-            default:
-                return null;
-        }
+    public static int comp(String _comp) {
+        byte[] text = _comp.getBytes(StandardCharsets.US_ASCII);
+        return comp(text, 0, text.length);
+    }
+
+    /**
+     * Translates a comparison mnemonic held in a byte slice to machine code.
+     *
+     * @param _text The buffer holding the mnemonic
+     * @param _start The offset of the mnemonic within the buffer
+     * @param _length The length of the mnemonic
+     * @return The corresponding 7-bit machine code segment, or -1 if the mnemonic is not valid.
+     */
+    public static int comp(byte[] _text, int _start, int _length) {
+        int key = compKey(_text, _start, _length);
+        return key == -1 ? -1 : COMP_TABLE[key];
     }
 
     /**
      * Translates a jump mnemonic to machine code.
      *
      * @param _jump The jump mnemonic to translate
-     * @return The corresponding machine code segment, as a string containing 1 or 0 characters.
+     * @return The corresponding 3-bit machine code segment, or -1 if the mnemonic is not valid.
      */
-    public static String jump(String _jump) {
-        switch (_jump) {
-            case "JGT":
-                return "001";
-            case "JEQ":
-                return "010";
-            case "JGE":
-                return "011";
-            case "JLT":
-                return "100";
-            case "JNE":
-                return "101";
-            case "JLE":
-                return "110";
-            case "JMP":
-                return "111";
+    public static int jump(String _jump) {
+        byte[] text = _jump.getBytes(StandardCharsets.US_ASCII);
+        return jump(text, 0, text.length);
+    }
+
+    /**
+     * Translates a jump mnemonic held in a byte slice to machine code.
+     *
+     * @param _text The buffer holding the mnemonic
+     * @param _start The offset of the mnemonic within the buffer
+     * @param _length The length of the mnemonic
+     * @return The corresponding 3-bit machine code segment, or -1 if the mnemonic is not valid.
+     */
+    public static int jump(byte[] _text, int _start, int _length) {
+        if (_length == 0) {
+            return 0b000;
+        }
+        if (_length != 3 || _text[_start] != 'J') {
+            return -1;
+        }
+        switch ((_text[_start + 1] << 8) | _text[_start + 2]) {
+            case ('G' << 8) | 'T':
+                return 0b001;
+            case ('E' << 8) | 'Q':
+                return 0b010;
+            case ('G' << 8) | 'E':
+                return 0b011;
+            case ('L' << 8) | 'T':
+                return 0b100;
+            case ('N' << 8) | 'E':
+                return 0b101;
+            case ('L' << 8) | 'E':
+                return 0b110;
+            case ('M' << 8) | 'P':
+                return 0b111;
             default:
-                return "000";
+                return -1;
+        }
+    }
+
+    /**
+     * Builds a load instruction.
+     *
+     * @param _value The value to be loaded. Only the low 15 bits are used.
+     * @return The instruction word.
+     */
+    public static int aInstruction(int _value) {
+        return _value & 0x7FFF;
+    }
+
+    /**
+     * Builds a general instruction from its translated fields.
+     *
+     * @param _comp The 7-bit comp field, as returned by comp().
+     * @param _dest The 3-bit dest field, as returned by dest().
+     * @param _jump The 3-bit jump field, as returned by jump().
+     * @return The instruction word.
+     */
+    public static int cInstruction(int _comp, int _dest, int _jump) {
+        return C_PREFIX | (_comp << 6) | (_dest << 3) | _jump;
+    }
+
+    /**
+     * Packs a comp mnemonic into an index for COMP_TABLE.
+     *
+     * @param _text The buffer holding the mnemonic
+     * @param _start The offset of the mnemonic within the buffer
+     * @param _length The length of the mnemonic
+     * @return The table index, or -1 if the mnemonic cannot be valid.
+     */
+    private static int compKey(byte[] _text, int _start, int _length) {
+        if (_length == 0 || _length > 3) {
+            return -1;
+        }
+        int key = 0;
+        for (int i = 0; i < _length; i++) {
+            byte b = _text[_start + i];
+            int code = b >= 0 ? CHAR_CODES[b] : 0;
+            if (code == 0) {
+                return -1;
+            }
+            key |= code << (i * CHAR_BITS);
         }
+        return key;
     }
 }
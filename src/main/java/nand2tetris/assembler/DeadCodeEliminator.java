@@ -0,0 +1,107 @@
+package nand2tetris.assembler;
+
+import java.util.Arrays;
+
+/**
+ * Class containing a control flow pass which removes unreachable code and unused labels from a parsed program.
+ * Code is explored from address 0, following fall-through from each instruction except those which always
+ * jump. Jump targets are not resolved individually: any label whose address is loaded by reachable code is
+ * treated as reachable, which also covers labels whose addresses are stored and jumped to later, such as
+ * return addresses. As with the peephole optimizer, jump targets are assumed to only ever be loaded through
+ * labels, never as numbers; programs which jump to numeric addresses are left unchanged.
+ */
+public class DeadCodeEliminator {
+    /**Comp field of the constant 0*/
+    private static final int ZERO = Code.comp("0");
+    /**Comp field of the constant 1*/
+    private static final int ONE = Code.comp("1");
+    /**Comp field of the constant -1*/
+    private static final int MINUS_ONE = Code.comp("-1");
+
+    /**
+     * Removes entries which cannot be reached from address 0, and labels which are never loaded, then compacts
+     * the program.
+     *
+     * @param _program The program to rewrite.
+     * @return The number of instructions removed.
+     */
+    public static int eliminate(Program _program) {
+        if (_program.hasNumericJumps()) {
+            return 0;
+        }
+        int before = _program.instructionCount();
+        int size = _program.size();
+
+        //Index of the definition each label id is bound to. Later definitions win, as when encoding
+        int[] definitions = new int[_program.symbols().size()];
+        for (int i = 0; i < size; i++) {
+            if (_program.kind(i) == Program.Kind.LABEL) {
+                definitions[_program.operand(i)] = i;
+            }
+        }
+
+        //Explore from address 0, scanning forward from each label as it is found to be loaded
+        boolean[] reachable = new boolean[size];
+        boolean[] loaded = new boolean[definitions.length];
+        int[] pending = new int[16];
+        int pendingCount = 0;
+        int start = 0;
+        while (true) {
+            for (int i = start; i < size && !reachable[i]; i++) {
+                Program.Kind kind = _program.kind(i);
+                if (kind == null) {
+                    continue;
+                }
+                reachable[i] = true;
+                if (kind == Program.Kind.LOAD_LABEL && !loaded[_program.operand(i)]) {
+                    loaded[_program.operand(i)] = true;
+                    if (pendingCount == pending.length) {
+                        pending = Arrays.copyOf(pending, pendingCount * 2);
+                    }
+                    pending[pendingCount++] = definitions[_program.operand(i)];
+                }
+                else if (kind == Program.Kind.COMPUTE && alwaysJumps(_program.operand(i))) {
+                    break;
+                }
+            }
+            if (pendingCount == 0) {
+                break;
+            }
+            start = pending[--pendingCount];
+        }
+
+        //Drop unreachable entries and labels which are never loaded
+        for (int i = 0; i < size; i++) {
+            Program.Kind kind = _program.kind(i);
+            if (kind != null && (!reachable[i] || kind == Program.Kind.LABEL && !loaded[_program.operand(i)])) {
+                _program.remove(i);
+            }
+        }
+        _program.compact();
+        return before - _program.instructionCount();
+    }
+
+    /**
+     * Checks whether a general instruction always jumps, either unconditionally or on a constant condition.
+     *
+     * @param _word The instruction word.
+     * @return True if the instruction never falls through, false if it might.
+     */
+    private static boolean alwaysJumps(int _word) {
+        int jump = _word & 0b111;
+        if (jump == 0b111) {
+            return true;
+        }
+        int comp = (_word >>> 6) & 0x7F;
+        if (comp == ZERO) {
+            return (jump & 0b010) != 0;
+        }
+        if (comp == ONE) {
+            return (jump & 0b001) != 0;
+        }
+        if (comp == MINUS_ONE) {
+            return (jump & 0b100) != 0;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,85 @@
+package nand2tetris.assembler;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Class holding the input files named by a list of command line arguments, for tools which accept files,
+ * directories and patterns. Each argument is expanded by a tool-specific finder, and arguments which match
+ * nothing or cannot be searched are reported and counted as failures.
+ */
+public class InputFiles {
+    /**
+     * Interface for expanding one command line argument into files.
+     */
+    public interface Finder {
+        /**
+         * Expands an argument.
+         *
+         * @param _argument A file, directory or pattern.
+         * @return The matching files.
+         */
+        List<Path> find(String _argument) throws IOException;
+    }
+
+    /**Matching files, without duplicates, in sorted order*/
+    private final TreeSet<Path> files;
+    /**Number of arguments which matched nothing or could not be searched*/
+    private int failureCount;
+
+    /**
+     * Constructs an empty set of input files.
+     */
+    private InputFiles() {
+        files = new TreeSet<>();
+    }
+
+    /**
+     * Expands command line arguments, printing an error for each argument which fails.
+     *
+     * @param _arguments The arguments to expand.
+     * @param _extension The extension of the files being found, used in error messages.
+     * @param _finder The finder used for each argument.
+     * @return The input files.
+     */
+    public static InputFiles expand(List<String> _arguments, String _extension, Finder _finder) {
+        InputFiles inputs = new InputFiles();
+        for (String argument: _arguments) {
+            try {
+                List<Path> matches = _finder.find(argument);
+                if (matches.isEmpty()) {
+                    inputs.failureCount++;
+                    System.err.println("Error: No " + _extension + " files match " + argument);
+                }
+                inputs.files.addAll(matches);
+            }
+            catch (IOException e) {
+                inputs.failureCount++;
+                System.err.println("IOException while searching " + argument);
+                System.err.println(e.getMessage());
+            }
+        }
+        return inputs;
+    }
+
+    /**
+     * Gets the matching files.
+     *
+     * @return The files, without duplicates, in sorted order.
+     */
+    public List<Path> getFiles() {
+        return new ArrayList<>(files);
+    }
+
+    /**
+     * Gets the number of arguments which failed.
+     *
+     * @return The number of arguments which matched nothing or could not be searched.
+     */
+    public int getFailureCount() {
+        return failureCount;
+    }
+}
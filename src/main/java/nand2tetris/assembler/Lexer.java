@@ -0,0 +1,163 @@
+package nand2tetris.assembler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Class which splits .asm input into commands at the byte level.
+ * Whitespace and comments are stripped in a single pass over the input, and the remaining text of each command
+ * is packed into one shared byte array, so that commands are handed out as offset/length slices rather than strings.
+ */
+public class Lexer {
+    /**Text of all commands, back to back*/
+    private final byte[] text;
+    /**Offset of each command within text, with one extra entry marking the end of the last command*/
+    private int[] starts;
+    /**Source line number of each command*/
+    private int[] lines;
+    /**Number of commands*/
+    private int count;
+
+    /**
+     * Lexes the given assembly file by memory-mapping it.
+     *
+     * @param _input The file to be read
+     */
+    public Lexer(File _input) throws IOException {
+        this(map(_input));
+    }
+
+    /**
+     * Lexes assembly code from a buffer of ASCII bytes.
+     *
+     * @param _input The bytes to be read, from the buffer's position to its limit
+     */
+    public Lexer(ByteBuffer _input) {
+        text = new byte[_input.remaining()];
+        starts = new int[1024];
+        lines = new int[1024];
+        count = 0;
+
+        int length = 0;
+        int line = 1;
+        boolean comment = false;
+        int end = _input.limit();
+        for (int i = _input.position(); i < end; i++) {
+            byte b = _input.get(i);
+            switch (b) {
+                case '\n':
+                case '\r':
+                    //End of line - keep it if it is not empty
+                    if (length != starts[count]) {
+                        lines[count] = line;
+                        count++;
+                        if (count == starts.length) {
+                            starts = Arrays.copyOf(starts, count * 2);
+                            lines = Arrays.copyOf(lines, count * 2);
+                        }
+                        starts[count] = length;
+                    }
+                    //Count \r\n as a single line break
+                    if (b == '\n' || i + 1 == end || _input.get(i + 1) != '\n') {
+                        line++;
+                    }
+                    comment = false;
+                    break;
+                case ' ':
+                case '\t':
+                    break;
+                case '/':
+                    //Whitespace is removed before comments are detected, so "/ /" also starts a comment
+                    if (!comment && length != starts[count] && text[length - 1] == '/') {
+                        length--;
+                        comment = true;
+                    }
+                    else if (!comment) {
+                        text[length++] = b;
+                    }
+                    break;
+                default:
+                    if (!comment) {
+                        text[length++] = b;
+                    }
+                    break;
+            }
+        }
+
+        //Keep final line if input does not end in a newline
+        if (length != starts[count]) {
+            lines[count] = line;
+            count++;
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count + 1);
+            }
+            starts[count] = length;
+        }
+    }
+
+    /**
+     * Memory-maps a file for reading.
+     *
+     * @param _input The file to be mapped.
+     * @return A read-only buffer over the file's contents.
+     */
+    static MappedByteBuffer map(File _input) throws IOException {
+        FileChannel channel = FileChannel.open(_input.toPath(), StandardOpenOption.READ);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        channel.close();
+        return buffer;
+    }
+
+    /**
+     * Gets the number of non-empty commands in the input.
+     *
+     * @return The number of commands.
+     */
+    public int commandCount() {
+        return count;
+    }
+
+    /**
+     * Gets the shared buffer holding the text of all commands.
+     *
+     * @return The text buffer. Must not be modified.
+     */
+    public byte[] buffer() {
+        return text;
+    }
+
+    /**
+     * Gets the offset of a command's text within the buffer.
+     *
+     * @param _command The index of the command.
+     * @return The offset of the command's first byte.
+     */
+    public int start(int _command) {
+        return starts[_command];
+    }
+
+    /**
+     * Gets the source line number of a command.
+     *
+     * @param _command The index of the command.
+     * @return The 1-based line number on which the command appears.
+     */
+    public int lineNumber(int _command) {
+        return lines[_command];
+    }
+
+    /**
+     * Gets the length of a command's text.
+     *
+     * @param _command The index of the command.
+     * @return The number of bytes in the command.
+     */
+    public int length(int _command) {
+        return starts[_command + 1] - starts[_command];
+    }
+}
@@ -0,0 +1,263 @@
+package nand2tetris.assembler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Class which assembles large files by splitting the lexed commands into chunks and processing them on a
+ * fork/join pool. Each chunk is parsed with its own symbol table. In the first phase, every chunk counts
+ * its instructions and collects its label definitions and symbol references. ROM addresses are then assigned
+ * by a prefix sum over the chunk sizes, and labels and variables are resolved sequentially in chunk order,
+ * so variables are allocated in the same first-use order as the sequential assembler. In the second phase,
+ * every chunk is encoded in parallel into its slice of the output.
+ */
+public class ParallelAssembler {
+    /**Minimum number of commands per chunk*/
+    private static final int MIN_CHUNK_SIZE = 4096;
+
+    /**
+     * Class holding the state of one chunk of commands.
+     */
+    private static class Chunk {
+        /**Index of the first command in the chunk*/
+        private final int first;
+        /**Index one past the last command in the chunk*/
+        private final int end;
+        /**Symbol table private to this chunk*/
+        private final SymbolTable symbols;
+        /**Number of instructions in the chunk*/
+        private int instructionCount;
+        /**Local ids of labels defined in the chunk*/
+        private int[] labelIds;
+        /**Offset of each label from the start of the chunk*/
+        private int[] labelOffsets;
+        /**Number of labels defined in the chunk*/
+        private int labelCount;
+        /**Local ids of symbols referenced by the chunk, including predefined symbols, in order of first use*/
+        private int[] references;
+        /**Number of user symbols referenced by the chunk*/
+        private int referenceCount;
+        /**ROM address of the chunk's first instruction*/
+        private int base;
+        /**Resolved address of each local symbol id*/
+        private int[] addresses;
+
+        /**
+         * Constructs a new chunk.
+         *
+         * @param _first The index of the first command in the chunk.
+         * @param _end The index one past the last command in the chunk.
+         */
+        private Chunk(int _first, int _end) {
+            first = _first;
+            end = _end;
+            symbols = new SymbolTable();
+            labelIds = new int[16];
+            labelOffsets = new int[16];
+            references = new int[64];
+        }
+
+        /**
+         * Phase 1: counts instructions and collects label definitions and first uses of symbols.
+         *
+         * @param _lexer The lexed commands.
+         */
+        private void scan(Lexer _lexer) throws AssemblyException {
+            Parser parser = new Parser(_lexer, symbols, first, end);
+            boolean[] seen = new boolean[64];
+            while (parser.hasMoreCommands()) {
+                parser.advance();
+                switch (parser.commandType()) {
+                    case A_COMMAND:
+                        //Predefined symbols are resolved globally too, as a label may reuse their names
+                        if (parser.operandType() != Parser.OperandType.NUMBER) {
+                            int id = parser.symbolId();
+                            if (id >= seen.length) {
+                                seen = Arrays.copyOf(seen, Math.max(seen.length * 2, id + 1));
+                            }
+                            if (!seen[id]) {
+                                seen[id] = true;
+                                if (referenceCount == references.length) {
+                                    references = Arrays.copyOf(references, referenceCount * 2);
+                                }
+                                references[referenceCount++] = id;
+                            }
+                        }
+                        instructionCount++;
+                        break;
+
+                    case C_COMMAND:
+                        instructionCount++;
+                        break;
+
+                    case L_COMMAND:
+                        if (labelCount == labelIds.length) {
+                            labelIds = Arrays.copyOf(labelIds, labelCount * 2);
+                            labelOffsets = Arrays.copyOf(labelOffsets, labelCount * 2);
+                        }
+                        labelIds[labelCount] = parser.symbolId();
+                        labelOffsets[labelCount] = instructionCount;
+                        labelCount++;
+                        break;
+                }
+            }
+        }
+
+        /**
+         * Phase 2: encodes the chunk's instructions into its slice of the output.
+         *
+         * @param _lexer The lexed commands.
+         * @param _words The output array for the whole program.
+         */
+        private void encode(Lexer _lexer, int[] _words) throws AssemblyException {
+            Parser parser = new Parser(_lexer, symbols, first, end);
+            int address = base;
+            while (parser.hasMoreCommands()) {
+                parser.advance();
+                switch (parser.commandType()) {
+                    case A_COMMAND:
+                        int value = parser.value();
+                        if (parser.operandType() != Parser.OperandType.NUMBER) {
+                            value = addresses[parser.symbolId()];
+                        }
+                        _words[address++] = Assembler.load(parser, value);
+                        break;
+
+                    case C_COMMAND:
+                        _words[address++] = Assembler.encodeC(parser);
+                        break;
+
+                    case L_COMMAND:
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Assembles already lexed commands on the given pool.
+     *
+     * @param _lexer The lexed commands.
+     * @param _pool The pool to run chunks on.
+     * @return The assembled instruction words.
+     */
+    public static int[] assemble(Lexer _lexer, ForkJoinPool _pool) throws AssemblyException {
+        return assemble(_lexer, _pool, null);
+    }
+
+    /**
+     * Assembles already lexed commands on the given pool, recording statistics. Phase 1 and label resolution
+     * are recorded as pass 1, and phase 2 as pass 2.
+     *
+     * @param _lexer The lexed commands.
+     * @param _pool The pool to run chunks on.
+     * @param _stats The statistics to record into, or null.
+     * @return The assembled instruction words.
+     */
+    public static int[] assemble(Lexer _lexer, ForkJoinPool _pool, AssemblyStats _stats) throws AssemblyException {
+        if (_stats != null) {
+            _stats.begin(AssemblyStats.Phase.PASS_1);
+        }
+
+        //Split commands into a few chunks per thread
+        int commandCount = _lexer.commandCount();
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, commandCount / (_pool.getParallelism() * 4) + 1);
+        ArrayList<Chunk> chunks = new ArrayList<>();
+        for (int first = 0; first < commandCount; first += chunkSize) {
+            chunks.add(new Chunk(first, Math.min(first + chunkSize, commandCount)));
+        }
+
+        //Phase 1: Scan chunks in parallel
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        for (Chunk chunk: chunks) {
+            tasks.add(() -> {
+                chunk.scan(_lexer);
+                return null;
+            });
+        }
+        invokeAll(_pool, tasks, _stats);
+
+        //Assign chunk base addresses and define labels in program order
+        SymbolTable symbols = new SymbolTable();
+        int instructionCount = 0;
+        for (Chunk chunk: chunks) {
+            chunk.base = instructionCount;
+            instructionCount += chunk.instructionCount;
+            for (int i = 0; i < chunk.labelCount; i++) {
+                int id = symbols.intern(chunk.symbols, chunk.labelIds[i]);
+                symbols.setAddress(id, chunk.base + chunk.labelOffsets[i]);
+            }
+        }
+
+        //Resolve references in program order, allocating variables by first use
+        for (Chunk chunk: chunks) {
+            chunk.addresses = new int[chunk.symbols.size()];
+            for (int i = 0; i < chunk.referenceCount; i++) {
+                int localId = chunk.references[i];
+                chunk.addresses[localId] = symbols.getOrAllocate(symbols.intern(chunk.symbols, localId));
+            }
+        }
+
+        //Phase 2: Encode chunks in parallel
+        if (_stats != null) {
+            _stats.begin(AssemblyStats.Phase.PASS_2);
+            for (Chunk chunk: chunks) {
+                _stats.recordSymbols(chunk.symbols);
+            }
+            _stats.recordSymbols(symbols);
+        }
+        int[] words = new int[instructionCount];
+        tasks.clear();
+        for (Chunk chunk: chunks) {
+            tasks.add(() -> {
+                chunk.encode(_lexer, words);
+                return null;
+            });
+        }
+        invokeAll(_pool, tasks, _stats);
+
+        return words;
+    }
+
+    /**
+     * Runs tasks on a pool and waits for all of them, rethrowing the failure of the earliest failed task.
+     *
+     * @param _pool The pool to run tasks on.
+     * @param _tasks The tasks to run.
+     * @param _stats The statistics to count the tasks' allocations in, or null.
+     */
+    private static void invokeAll(ForkJoinPool _pool, ArrayList<Callable<Void>> _tasks, AssemblyStats _stats) throws AssemblyException {
+        ArrayList<Callable<Void>> tasks = _tasks;
+        if (_stats != null) {
+            tasks = new ArrayList<>();
+            for (Callable<Void> task: _tasks) {
+                tasks.add(_stats.measure(task));
+            }
+        }
+        for (Future<Void> future: _pool.invokeAll(tasks)) {
+            try {
+                future.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while assembling", e);
+            }
+            catch (ExecutionException e) {
+                //The pool may wrap checked exceptions thrown by tasks
+                for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                    if (cause instanceof AssemblyException) {
+                        throw (AssemblyException) cause;
+                    }
+                }
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException("Error while assembling", e.getCause());
+            }
+        }
+    }
+}
@@ -1,27 +1,46 @@
 package nand2tetris.assembler;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.ArrayList;
-import java.util.Scanner;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Class which parses .asm files into machine code
  */
 public class Parser {
-    /**Array of lines in the file*/
-    private ArrayList<String> lines;
+    /**Lexed commands of the file*/
+    private final Lexer lexer;
+    /**Shared text buffer of the lexer*/
+    private final byte[] text;
     /**Line currently being parsed*/
     private int currentLine;
+    /**Index one past the last line to be parsed*/
+    private final int endLine;
     /**Command type of the last parsed line*/
     private CommandType commandType;
-    /**Destination of the last parsed line*/
-    private String dest;
-    /**Computation of the last parsed line*/
-    private String comp;
-    /**Jump instruction of the last parsed line*/
-    private String jump;
-    /**Symbol used on the last parsed line*/
-    private String symbol;
+    /**Start of the symbol on the last parsed line*/
+    private int symbolStart;
+    /**Length of the symbol on the last parsed line*/
+    private int symbolLength;
+    /**Start of the destination on the last parsed line*/
+    private int destStart;
+    /**Length of the destination on the last parsed line*/
+    private int destLength;
+    /**Start of the computation on the last parsed line*/
+    private int compStart;
+    /**Length of the computation on the last parsed line*/
+    private int compLength;
+    /**Start of the jump instruction on the last parsed line*/
+    private int jumpStart;
+    /**Length of the jump instruction on the last parsed line*/
+    private int jumpLength;
+    /**Operand type of the last parsed A_COMMAND*/
+    private OperandType operandType;
+    /**Numeric value of the last parsed A_COMMAND, if known*/
+    private int value;
+    /**Symbol id of the last parsed A_COMMAND or L_COMMAND*/
+    private int symbolId;
+    /**Symbol table used to intern symbols*/
+    private final SymbolTable symbols;
 
     /**
      * Enum for command types
@@ -35,34 +54,52 @@ public class Parser {
         L_COMMAND
     }
 
+    /**
+     * Enum for load command operand types
+     */
+    enum OperandType {
+        /**Literal integer*/
+        NUMBER,
+        /**Predefined symbol such as SP or R13*/
+        PREDEFINED,
+        /**User-defined label or variable*/
+        SYMBOL
+    }
+
     /**
      * Initializes parser for the given assembly file.
      *
      * @param _input The file to be read
+     * @param _symbols The symbol table used to intern symbols on A_COMMAND and L_COMMAND lines
      */
-    public Parser(File _input) throws FileNotFoundException {
-        currentLine = -1;
-        lines = new ArrayList<>();
-
-        //Read in all lines, trimming excess whitespace and comments
-        Scanner scanner = new Scanner(_input);
-        while (scanner.hasNextLine()) {
-            String line = scanner.nextLine();
-
-            //Remove whitespace
-            line = line.replaceAll("[ \t]+", "");
+    public Parser(File _input, SymbolTable _symbols) throws IOException {
+        this(new Lexer(_input), _symbols);
+    }
 
-            //Remove comments if present
-            int trimIndex = line.indexOf("//");
-            if (trimIndex != -1) {
-                line = line.substring(0, trimIndex);
-            }
+    /**
+     * Initializes parser over already lexed assembly code. Several parsers may share one lexer.
+     *
+     * @param _lexer The lexed commands to be parsed
+     * @param _symbols The symbol table used to intern symbols on A_COMMAND and L_COMMAND lines
+     */
+    public Parser(Lexer _lexer, SymbolTable _symbols) {
+        this(_lexer, _symbols, 0, _lexer.commandCount());
+    }
 
-            if (!line.equals("")) {
-                lines.add(line);
-            }
-        }
-        scanner.close();
+    /**
+     * Initializes parser over a range of already lexed assembly code.
+     *
+     * @param _lexer The lexed commands to be parsed
+     * @param _symbols The symbol table used to intern symbols on A_COMMAND and L_COMMAND lines
+     * @param _first The index of the first command to parse
+     * @param _end The index one past the last command to parse
+     */
+    public Parser(Lexer _lexer, SymbolTable _symbols, int _first, int _end) {
+        lexer = _lexer;
+        text = _lexer.buffer();
+        symbols = _symbols;
+        currentLine = _first - 1;
+        endLine = _end;
     }
 
     /**
@@ -70,56 +107,112 @@ public class Parser {
      * @return True if there are more commands left, false if not.
      */
     public boolean hasMoreCommands() {
-        return currentLine < lines.size() - 1;
+        return currentLine < endLine - 1;
     }
 
     /**
      * Advances parser to the next line of the assembly file and parses it.
      */
-    public void advance() {
+    public void advance() throws AssemblyException {
         currentLine++;
-        String line = lines.get(currentLine);
+        int start = lexer.start(currentLine);
+        int length = lexer.length(currentLine);
+        destLength = 0;
+        compLength = 0;
+        jumpLength = 0;
 
         //Determine command type and parse variables as needed
-        if (line.startsWith("@")) {
+        if (text[start] == '@') {
             commandType = CommandType.A_COMMAND;
-            symbol = line.substring(1);
-            dest = "";
-            comp = "";
-            jump = "";
+            symbolStart = start + 1;
+            symbolLength = length - 1;
+            if (symbolLength == 0) {
+                throw new AssemblyException(lineNumber(), "Missing operand of load command.");
+            }
+            classifyOperand();
         }
-        else if (line.startsWith("(")) {
+        else if (text[start] == '(') {
             commandType = CommandType.L_COMMAND;
-            symbol = line.substring(1, line.length() - 1);
-            dest = "";
-            comp = "";
-            jump = "";
+            symbolStart = start + 1;
+            symbolLength = length - 2;
+            if (symbolLength <= 0 || text[start + length - 1] != ')') {
+                throw new AssemblyException(lineNumber(), "Malformed label declaration " + slice(start, length));
+            }
+            symbolId = symbols.intern(text, symbolStart, symbolLength);
         }
         else {
             commandType = CommandType.C_COMMAND;
-            symbol = "";
-            int equalsIndex = line.indexOf("=");
-            int semicolonIndex = line.indexOf(";");
+            symbolLength = 0;
+            int end = start + length;
+            int equalsIndex = -1;
+            int semicolonIndex = -1;
+            for (int i = start; i < end; i++) {
+                if (text[i] == '=' && equalsIndex == -1) {
+                    equalsIndex = i;
+                }
+                else if (text[i] == ';' && semicolonIndex == -1) {
+                    semicolonIndex = i;
+                }
+            }
 
             //Parse dest
-            if (equalsIndex == -1) {
-                dest = "";
+            if (equalsIndex != -1) {
+                destStart = start;
+                destLength = equalsIndex - start;
+                compStart = equalsIndex + 1;
             }
             else {
-                dest = line.substring(0, equalsIndex);
+                compStart = start;
             }
 
             //Parse jump
-            if (semicolonIndex == -1) {
-                jump = "";
-                semicolonIndex = line.length();
-            }
-            else {
-                jump = line.substring(semicolonIndex + 1);
+            if (semicolonIndex != -1) {
+                jumpStart = semicolonIndex + 1;
+                jumpLength = end - jumpStart;
+                end = semicolonIndex;
             }
 
             //Parse comp
-            comp = line.substring(equalsIndex + 1, semicolonIndex);
+            compLength = Math.max(end - compStart, 0);
+        }
+    }
+
+    /**
+     * Classifies the operand of the current load command, parsing literal integers and interning symbols.
+     */
+    private void classifyOperand() throws AssemblyException {
+        //Check for literal integer
+        boolean numeric = true;
+        int parsed = 0;
+        for (int i = symbolStart; i < symbolStart + symbolLength && numeric; i++) {
+            byte b = text[i];
+            if (b < '0' || b > '9') {
+                numeric = false;
+            }
+            //Stop accumulating once out of range, so that long literals do not overflow
+            else if (parsed <= 32767) {
+                parsed = parsed * 10 + (b - '0');
+            }
+        }
+
+        if (numeric) {
+            if (parsed > 32767) {
+                throw new AssemblyException(lineNumber(), "Constant " + symbol() + " is out of range.");
+            }
+            operandType = OperandType.NUMBER;
+            value = parsed;
+            symbolId = -1;
+        }
+        else {
+            symbolId = symbols.intern(text, symbolStart, symbolLength);
+            if (symbols.isPredefined(symbolId)) {
+                operandType = OperandType.PREDEFINED;
+                value = symbols.getAddress(symbolId);
+            }
+            else {
+                operandType = OperandType.SYMBOL;
+                value = -1;
+            }
         }
     }
 
@@ -132,6 +225,24 @@ public class Parser {
         return commandType;
     }
 
+    /**
+     * Gets the source line number of the current command.
+     *
+     * @return The 1-based line number.
+     */
+    public int lineNumber() {
+        return lexer.lineNumber(currentLine);
+    }
+
+    /**
+     * Gets the shared text buffer which the start offsets returned by this parser refer to.
+     *
+     * @return The text buffer. Must not be modified.
+     */
+    public byte[] buffer() {
+        return text;
+    }
+
     /**
      * Gets the symbol on the current line.
      * Should only be called for A_COMMAND or L_COMMAND lines.
@@ -139,7 +250,55 @@ public class Parser {
      * @return The symbol used on the current line.
      */
     public String symbol() {
-        return symbol;
+        return slice(symbolStart, symbolLength);
+    }
+
+    /**
+     * Gets the offset of the symbol on the current line within buffer().
+     *
+     * @return The offset of the symbol.
+     */
+    public int symbolStart() {
+        return symbolStart;
+    }
+
+    /**
+     * Gets the length of the symbol on the current line.
+     *
+     * @return The length of the symbol, in bytes.
+     */
+    public int symbolLength() {
+        return symbolLength;
+    }
+
+    /**
+     * Gets the operand type of the current line.
+     * Should only be called for A_COMMAND lines.
+     *
+     * @return An OperandType enum corresponding to the current operand's type.
+     */
+    public OperandType operandType() {
+        return operandType;
+    }
+
+    /**
+     * Gets the numeric value loaded by the current line.
+     * Should only be called for A_COMMAND lines.
+     *
+     * @return The literal value or predefined symbol's address, or -1 for user-defined symbols.
+     */
+    public int value() {
+        return value;
+    }
+
+    /**
+     * Gets the id of the symbol on the current line, as assigned by the parser's symbol table.
+     * Should only be called for A_COMMAND or L_COMMAND lines.
+     *
+     * @return The symbol id, or -1 if the current line loads a literal integer.
+     */
+    public int symbolId() {
+        return symbolId;
     }
 
     /**
@@ -149,7 +308,25 @@ public class Parser {
      * @return The destination mnemonic of the current line.
      */
     public String dest() {
-        return dest;
+        return slice(destStart, destLength);
+    }
+
+    /**
+     * Gets the offset of the destination mnemonic on the current line within buffer().
+     *
+     * @return The offset of the destination mnemonic.
+     */
+    public int destStart() {
+        return destStart;
+    }
+
+    /**
+     * Gets the length of the destination mnemonic on the current line.
+     *
+     * @return The length of the destination mnemonic, in bytes.
+     */
+    public int destLength() {
+        return destLength;
     }
 
     /**
@@ -159,7 +336,25 @@ public class Parser {
      * @return The comparison mnemonic of the current line.
      */
     public String comp() {
-        return comp;
+        return slice(compStart, compLength);
+    }
+
+    /**
+     * Gets the offset of the comparison mnemonic on the current line within buffer().
+     *
+     * @return The offset of the comparison mnemonic.
+     */
+    public int compStart() {
+        return compStart;
+    }
+
+    /**
+     * Gets the length of the comparison mnemonic on the current line.
+     *
+     * @return The length of the comparison mnemonic, in bytes.
+     */
+    public int compLength() {
+        return compLength;
     }
 
     /**
@@ -169,6 +364,35 @@ public class Parser {
      * @return The jump mnemonic of the current line.
      */
     public String jump() {
-        return jump;
+        return slice(jumpStart, jumpLength);
+    }
+
+    /**
+     * Gets the offset of the jump mnemonic on the current line within buffer().
+     *
+     * @return The offset of the jump mnemonic.
+     */
+    public int jumpStart() {
+        return jumpStart;
+    }
+
+    /**
+     * Gets the length of the jump mnemonic on the current line.
+     *
+     * @return The length of the jump mnemonic, in bytes.
+     */
+    public int jumpLength() {
+        return jumpLength;
+    }
+
+    /**
+     * Builds a string from a slice of the text buffer.
+     *
+     * @param _start The offset of the slice.
+     * @param _length The length of the slice.
+     * @return The slice, as a string.
+     */
+    private String slice(int _start, int _length) {
+        return new String(text, _start, _length, StandardCharsets.UTF_8);
     }
 }
@@ -0,0 +1,378 @@
+package nand2tetris.assembler;
+
+/**
+ * Class containing a peephole optimization pass over a parsed program. Each basic block of straight-line code,
+ * ending at a label or jump, is scanned while tracking what is known about the A register and which register
+ * writes have not yet been read. The following rewrites are applied until none apply:
+ * <ul>
+ *     <li>Loads of a value the A register already holds are removed, as is a load and recomputation such as
+ *     {@code @SP A=M-1} when A already holds that result and the memory it was computed from is unchanged.</li>
+ *     <li>Increments immediately followed by decrements of the same register, such as {@code M=M+1 AM=M-1},
+ *     are folded into a copy or removed.</li>
+ *     <li>Writes to A or D which are overwritten before being read are dropped, as are instructions which
+ *     are left with no effect.</li>
+ * </ul>
+ * Registers are assumed to be live at the end of every block. Since removing instructions moves code, the pass
+ * assumes jump targets are only ever loaded through labels, never as numbers; programs which jump to numeric
+ * addresses are left unchanged.
+ */
+public class PeepholeOptimizer {
+    /**Dest bit for the A register*/
+    private static final int DEST_A = 0b100;
+    /**Dest bit for the D register*/
+    private static final int DEST_D = 0b010;
+    /**Dest bit for memory*/
+    private static final int DEST_M = 0b001;
+    /**Dest bits of the registers handled by increment folding, in the order A, D, M*/
+    private static final int[] REGISTERS = {DEST_A, DEST_D, DEST_M};
+    /**Comp fields copying each register*/
+    private static final int[] COPY = {Code.comp("A"), Code.comp("D"), Code.comp("M")};
+    /**Comp fields incrementing each register*/
+    private static final int[] INCREMENT = {Code.comp("A+1"), Code.comp("D+1"), Code.comp("M+1")};
+    /**Comp fields decrementing each register*/
+    private static final int[] DECREMENT = {Code.comp("A-1"), Code.comp("D-1"), Code.comp("M-1")};
+
+    /**What is known about the A register*/
+    private enum AState {
+        /**Nothing is known*/
+        UNKNOWN,
+        /**A holds a known value or label address*/
+        LOADED,
+        /**A holds a comp of the memory at a known value or label address, and that memory is unchanged since*/
+        DERIVED
+    }
+
+    /**Program being optimized*/
+    private final Program program;
+    /**Whether any rewrite was applied during the current pass*/
+    private boolean changed;
+    /**What is known about the A register*/
+    private AState aState;
+    /**Kind of the load which A holds, or which A was derived from*/
+    private Program.Kind aKind;
+    /**Operand of the load which A holds, or which A was derived from*/
+    private int aOperand;
+    /**Comp field which A was derived with*/
+    private int aComp;
+    /**Index of the latest write to A in this block, or -1 if none*/
+    private int lastA;
+    /**Whether A has been read since lastA*/
+    private boolean aRead;
+    /**Index of the latest write to D in this block, or -1 if none*/
+    private int lastD;
+    /**Whether D has been read since lastD*/
+    private boolean dRead;
+    /**Index of the previous remaining instruction in this block, or -1 if none*/
+    private int previous;
+
+    /**
+     * Constructs an optimizer for a program.
+     *
+     * @param _program The program to rewrite.
+     */
+    private PeepholeOptimizer(Program _program) {
+        program = _program;
+    }
+
+    /**
+     * Applies peephole rewrites to a program until none apply, then compacts it.
+     *
+     * @param _program The program to rewrite.
+     * @return The number of instructions removed.
+     */
+    public static int optimize(Program _program) {
+        if (_program.hasNumericJumps()) {
+            return 0;
+        }
+        int before = _program.instructionCount();
+        PeepholeOptimizer optimizer = new PeepholeOptimizer(_program);
+        do {
+            optimizer.changed = false;
+            optimizer.pass();
+        } while (optimizer.changed);
+        _program.compact();
+        return before - _program.instructionCount();
+    }
+
+    /**
+     * Makes one pass over the program, applying rewrites.
+     */
+    private void pass() {
+        startBlock();
+        for (int i = 0; i < program.size(); i++) {
+            Program.Kind kind = program.kind(i);
+            if (kind == null) {
+                continue;
+            }
+            switch (kind) {
+                case LABEL:
+                    startBlock();
+                    break;
+                case LOAD:
+                case LOAD_LABEL:
+                    visitLoad(i, kind);
+                    break;
+                case COMPUTE:
+                    visitCompute(i);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Forgets everything known at the start of a basic block.
+     */
+    private void startBlock() {
+        aState = AState.UNKNOWN;
+        lastA = -1;
+        lastD = -1;
+        previous = -1;
+    }
+
+    /**
+     * Visits a load instruction.
+     *
+     * @param _index The index of the instruction.
+     * @param _kind The kind of load.
+     */
+    private void visitLoad(int _index, Program.Kind _kind) {
+        int operand = program.operand(_index);
+        boolean sameBase = aKind == _kind && aOperand == operand;
+
+        //A already holds this value
+        if (aState == AState.LOADED && sameBase) {
+            program.remove(_index);
+            changed = true;
+            return;
+        }
+
+        //A already holds the result of this load and the following recomputation
+        if (aState == AState.DERIVED && sameBase) {
+            int next = next(_index);
+            if (next != -1 && program.kind(next) == Program.Kind.COMPUTE
+                    && program.operand(next) == Code.cInstruction(aComp, DEST_A, 0)) {
+                program.remove(_index);
+                program.remove(next);
+                changed = true;
+                return;
+            }
+        }
+
+        if (lastA != -1 && !aRead) {
+            dropWrite(lastA, DEST_A);
+        }
+        aState = AState.LOADED;
+        aKind = _kind;
+        aOperand = operand;
+        lastA = _index;
+        aRead = false;
+        previous = _index;
+    }
+
+    /**
+     * Visits a general instruction.
+     *
+     * @param _index The index of the instruction.
+     */
+    private void visitCompute(int _index) {
+        if (previous != -1 && program.kind(previous) == Program.Kind.COMPUTE && fold(previous, _index)) {
+            if (lastA == previous) {
+                lastA = -1;
+            }
+            if (lastD == previous) {
+                lastD = -1;
+            }
+            previous = -1;
+            if (program.kind(_index) == null) {
+                return;
+            }
+        }
+
+        int word = program.operand(_index);
+        int comp = comp(word);
+        int dest = dest(word);
+        int jump = word & 0b111;
+
+        //Instructions with no effect
+        if (dest == 0 && jump == 0) {
+            program.remove(_index);
+            changed = true;
+            return;
+        }
+
+        //Reads happen before writes, so an instruction may read and overwrite the same register
+        if (readsD(comp)) {
+            dRead = true;
+        }
+        if (readsA(comp) || readsM(comp) || (dest & DEST_M) != 0 || jump != 0) {
+            aRead = true;
+        }
+        if ((dest & DEST_D) != 0 && lastD != -1 && !dRead) {
+            dropWrite(lastD, DEST_D);
+        }
+        if ((dest & DEST_A) != 0 && lastA != -1 && !aRead) {
+            dropWrite(lastA, DEST_A);
+        }
+
+        //Track the new contents of A
+        boolean fromMemory = readsM(comp) && !readsD(comp);
+        boolean known = aState == AState.LOADED;
+        if ((dest & DEST_A) != 0) {
+            if (known && fromMemory && (dest & DEST_M) != 0) {
+                //The same value is written to A and to the memory it was read from
+                aState = AState.DERIVED;
+                aComp = COPY[2];
+            }
+            else if (known && fromMemory) {
+                aState = AState.DERIVED;
+                aComp = comp;
+            }
+            else {
+                aState = AState.UNKNOWN;
+            }
+            lastA = _index;
+            aRead = false;
+        }
+        else if ((dest & DEST_M) != 0 && aState == AState.DERIVED) {
+            //The write could be to the memory A was derived from
+            aState = AState.UNKNOWN;
+        }
+        if ((dest & DEST_D) != 0) {
+            lastD = _index;
+            dRead = false;
+        }
+        previous = _index;
+
+        if (jump != 0) {
+            startBlock();
+        }
+    }
+
+    /**
+     * Folds an increment or decrement of a register followed by the opposite operation on the same register.
+     *
+     * @param _first The index of the first instruction.
+     * @param _second The index of the second instruction.
+     * @return True if the instructions were rewritten, false if not.
+     */
+    private boolean fold(int _first, int _second) {
+        int first = program.operand(_first);
+        int second = program.operand(_second);
+        if ((first & 0b111) != 0) {
+            return false;
+        }
+
+        for (int r = 0; r < REGISTERS.length; r++) {
+            int register = REGISTERS[r];
+            boolean opposite = comp(first) == INCREMENT[r] && comp(second) == DECREMENT[r]
+                    || comp(first) == DECREMENT[r] && comp(second) == INCREMENT[r];
+            if (dest(first) != register || !opposite || (dest(second) & register) == 0) {
+                continue;
+            }
+            //Changing A would move the second instruction's memory write or jump target
+            if (register == DEST_A && ((dest(second) & DEST_M) != 0 || (second & 0b111) != 0)) {
+                return false;
+            }
+
+            program.remove(_first);
+            int dest = dest(second) & ~register;
+            if (dest == 0 && (second & 0b111) == 0) {
+                program.remove(_second);
+            }
+            else {
+                program.setInstruction(_second, Code.cInstruction(COPY[r], dest, second & 0b111));
+            }
+            changed = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Drops a dead register write, removing the instruction if it is left with no effect.
+     *
+     * @param _index The index of the instruction.
+     * @param _register The dest bit of the register whose write is dead.
+     */
+    private void dropWrite(int _index, int _register) {
+        if (program.kind(_index) == Program.Kind.COMPUTE) {
+            int word = program.operand(_index);
+            int dest = dest(word) & ~_register;
+            if (dest != 0 || (word & 0b111) != 0) {
+                program.setInstruction(_index, Code.cInstruction(comp(word), dest, word & 0b111));
+                changed = true;
+                return;
+            }
+        }
+        program.remove(_index);
+        if (previous == _index) {
+            previous = -1;
+        }
+        changed = true;
+    }
+
+    /**
+     * Finds the next remaining entry.
+     *
+     * @param _index The index to search after.
+     * @return The index of the next entry which has not been removed, or -1 if there is none.
+     */
+    private int next(int _index) {
+        for (int i = _index + 1; i < program.size(); i++) {
+            if (program.kind(i) != null) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Extracts the comp field of an instruction.
+     *
+     * @param _word The instruction word.
+     * @return The 7-bit comp field.
+     */
+    private static int comp(int _word) {
+        return (_word >>> 6) & 0x7F;
+    }
+
+    /**
+     * Extracts the dest field of an instruction.
+     *
+     * @param _word The instruction word.
+     * @return The 3-bit dest field.
+     */
+    private static int dest(int _word) {
+        return (_word >>> 3) & 0b111;
+    }
+
+    /**
+     * Checks whether a comp field reads the D register. The ALU ignores D when its zx bit is set.
+     *
+     * @param _comp The comp field.
+     * @return True if D is read, false if not.
+     */
+    private static boolean readsD(int _comp) {
+        return (_comp & 0b0100000) == 0;
+    }
+
+    /**
+     * Checks whether a comp field reads the A register as an operand. The ALU ignores A/M when its zy bit is set.
+     *
+     * @param _comp The comp field.
+     * @return True if A is read, false if not.
+     */
+    private static boolean readsA(int _comp) {
+        return (_comp & 0b0001000) == 0 && (_comp & 0b1000000) == 0;
+    }
+
+    /**
+     * Checks whether a comp field reads memory.
+     *
+     * @param _comp The comp field.
+     * @return True if M is read, false if not.
+     */
+    private static boolean readsM(int _comp) {
+        return (_comp & 0b0001000) == 0 && (_comp & 0b1000000) != 0;
+    }
+}
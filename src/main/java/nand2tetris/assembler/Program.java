@@ -0,0 +1,328 @@
+package nand2tetris.assembler;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class holding a parsed program as an editable list of instructions and labels, so that optimization passes
+ * can rewrite it before it is encoded. Loads of numbers, predefined symbols and variables are resolved while
+ * parsing, with variables allocated in the same order as the two-pass algorithm. Loads of labels keep the
+ * label's symbol id until encoding, since removing instructions moves labels.
+ */
+public class Program {
+    /**Kind of each entry, or null if the entry has been removed*/
+    private Kind[] kinds;
+    /**Operand of each entry: the value of a LOAD, the symbol id of a LOAD_LABEL or LABEL, or the instruction word of a COMPUTE*/
+    private int[] operands;
+    /**Source line number of each entry*/
+    private int[] lines;
+    /**Number of entries*/
+    private int size;
+    /**Symbol table holding the program's labels*/
+    private final SymbolTable symbols;
+
+    /**
+     * Enum for program entries
+     */
+    public enum Kind {
+        /**Load of a known value*/
+        LOAD,
+        /**Load of a label's address*/
+        LOAD_LABEL,
+        /**General instruction*/
+        COMPUTE,
+        /**Label definition*/
+        LABEL
+    }
+
+    /**
+     * Constructs an empty program.
+     *
+     * @param _symbols The symbol table holding the program's labels.
+     * @param _capacity The initial number of entries to allocate space for.
+     */
+    private Program(SymbolTable _symbols, int _capacity) {
+        symbols = _symbols;
+        kinds = new Kind[Math.max(_capacity, 16)];
+        operands = new int[kinds.length];
+        lines = new int[kinds.length];
+    }
+
+    /**
+     * Parses already lexed code into a program.
+     *
+     * @param _lexer The lexed commands.
+     * @return The parsed program.
+     */
+    public static Program parse(Lexer _lexer) throws AssemblyException {
+        //Pass 1: Collect jump labels, which may reuse predefined symbol names
+        SymbolTable symbols = new SymbolTable();
+        Parser parser = new Parser(_lexer, symbols);
+        boolean[] labels = new boolean[64];
+        while (parser.hasMoreCommands()) {
+            parser.advance();
+            if (parser.commandType() == Parser.CommandType.L_COMMAND) {
+                int id = parser.symbolId();
+                if (id >= labels.length) {
+                    labels = Arrays.copyOf(labels, Math.max(labels.length * 2, id + 1));
+                }
+                labels[id] = true;
+            }
+        }
+
+        //Pass 2: Build entries, allocating variables by first use
+        Program program = new Program(symbols, _lexer.commandCount());
+        parser = new Parser(_lexer, symbols);
+        while (parser.hasMoreCommands()) {
+            parser.advance();
+            switch (parser.commandType()) {
+                case A_COMMAND:
+                    int id = parser.symbolId();
+                    if (id != -1 && id < labels.length && labels[id]) {
+                        program.add(Kind.LOAD_LABEL, id, parser.lineNumber());
+                    }
+                    else if (parser.operandType() == Parser.OperandType.SYMBOL) {
+                        int value = symbols.getOrAllocate(id);
+                        program.add(Kind.LOAD, Assembler.load(parser, value), parser.lineNumber());
+                    }
+                    else {
+                        program.add(Kind.LOAD, Assembler.load(parser, parser.value()), parser.lineNumber());
+                    }
+                    break;
+
+                case C_COMMAND:
+                    program.add(Kind.COMPUTE, Assembler.encodeC(parser), parser.lineNumber());
+                    break;
+
+                case L_COMMAND:
+                    program.add(Kind.LABEL, parser.symbolId(), parser.lineNumber());
+                    break;
+            }
+        }
+        return program;
+    }
+
+    /**
+     * Appends an entry.
+     *
+     * @param _kind The kind of entry.
+     * @param _operand The entry's operand.
+     * @param _line The source line number.
+     */
+    private void add(Kind _kind, int _operand, int _line) {
+        if (size == kinds.length) {
+            kinds = Arrays.copyOf(kinds, size * 2);
+            operands = Arrays.copyOf(operands, size * 2);
+            lines = Arrays.copyOf(lines, size * 2);
+        }
+        kinds[size] = _kind;
+        operands[size] = _operand;
+        lines[size] = _line;
+        size++;
+    }
+
+    /**
+     * Gets the number of entries, including removed entries which have not yet been compacted away.
+     *
+     * @return The number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the kind of an entry.
+     *
+     * @param _index The index of the entry.
+     * @return The entry's kind, or null if it has been removed.
+     */
+    public Kind kind(int _index) {
+        return kinds[_index];
+    }
+
+    /**
+     * Gets the operand of an entry.
+     *
+     * @param _index The index of the entry.
+     * @return The value of a LOAD, the symbol id of a LOAD_LABEL or LABEL, or the instruction word of a COMPUTE.
+     */
+    public int operand(int _index) {
+        return operands[_index];
+    }
+
+    /**
+     * Gets the source line number of an entry.
+     *
+     * @param _index The index of the entry.
+     * @return The 1-based line number of the command the entry was parsed from.
+     */
+    public int lineNumber(int _index) {
+        return lines[_index];
+    }
+
+    /**
+     * Gets the symbol table holding the program's labels.
+     *
+     * @return The symbol table.
+     */
+    public SymbolTable symbols() {
+        return symbols;
+    }
+
+    /**
+     * Replaces the instruction word of a COMPUTE entry.
+     *
+     * @param _index The index of the entry.
+     * @param _word The new instruction word.
+     */
+    public void setInstruction(int _index, int _word) {
+        operands[_index] = _word;
+    }
+
+    /**
+     * Removes an entry. Indices of other entries are unchanged until the program is compacted.
+     *
+     * @param _index The index of the entry.
+     */
+    public void remove(int _index) {
+        kinds[_index] = null;
+    }
+
+    /**
+     * Drops removed entries, renumbering the remaining entries.
+     */
+    public void compact() {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (kinds[i] != null) {
+                kinds[count] = kinds[i];
+                operands[count] = operands[i];
+                lines[count] = lines[i];
+                count++;
+            }
+        }
+        Arrays.fill(kinds, count, size, null);
+        size = count;
+    }
+
+    /**
+     * Counts the instructions in the program.
+     *
+     * @return The number of LOAD, LOAD_LABEL and COMPUTE entries.
+     */
+    public int instructionCount() {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (kinds[i] != null && kinds[i] != Kind.LABEL) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Checks whether the program jumps to any address loaded as a number rather than through a label. Such
+     * programs, like the output of the reference toolchain, depend on the address of every instruction, so
+     * passes which move code must leave them unchanged.
+     *
+     * @return True if some jump's target is a number loaded earlier in the same basic block, false if not.
+     */
+    public boolean hasNumericJumps() {
+        //Kind of the load A holds, or null if A holds a computed value
+        Kind aKind = null;
+        for (int i = 0; i < size; i++) {
+            if (kinds[i] == null) {
+                continue;
+            }
+            switch (kinds[i]) {
+                case LOAD:
+                case LOAD_LABEL:
+                    aKind = kinds[i];
+                    break;
+
+                case COMPUTE:
+                    if ((operands[i] & 0b111) != 0 && aKind == Kind.LOAD) {
+                        return true;
+                    }
+                    if ((operands[i] & (0b100 << 3)) != 0) {
+                        aKind = null;
+                    }
+                    break;
+
+                case LABEL:
+                    aKind = null;
+                    break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the addresses the program's labels will have once encoded. As when encoding, a label defined more than
+     * once has the address of its last definition.
+     *
+     * @return The address of each label, in order of definition.
+     */
+    public Map<String, Integer> labels() {
+        LinkedHashMap<String, Integer> labels = new LinkedHashMap<>();
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (kinds[i] == Kind.LABEL) {
+                labels.put(symbols.getSymbol(operands[i]), count);
+            }
+            else if (kinds[i] != null) {
+                count++;
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * Assigns addresses to labels and encodes the program. If a label is defined more than once, all
+     * references are bound to its last definition, as with the two-pass algorithm.
+     *
+     * @return The assembled instruction words.
+     */
+    public int[] encode() throws AssemblyException {
+        int[] labelAddresses = new int[symbols.size()];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (kinds[i] == Kind.LABEL) {
+                labelAddresses[operands[i]] = count;
+            }
+            else if (kinds[i] != null) {
+                count++;
+            }
+        }
+
+        int[] words = new int[count];
+        count = 0;
+        for (int i = 0; i < size; i++) {
+            if (kinds[i] == null) {
+                continue;
+            }
+            switch (kinds[i]) {
+                case LOAD:
+                    words[count++] = Code.aInstruction(operands[i]);
+                    break;
+
+                case LOAD_LABEL:
+                    int address = labelAddresses[operands[i]];
+                    if (address > Assembler.MAX_LOAD) {
+                        throw new AssemblyException(lines[i], "Address " + address + " of symbol " + symbols.getSymbol(operands[i]) + " is out of range.");
+                    }
+                    words[count++] = Code.aInstruction(address);
+                    break;
+
+                case COMPUTE:
+                    words[count++] = operands[i];
+                    break;
+
+                case LABEL:
+                    break;
+            }
+        }
+        return words;
+    }
+}
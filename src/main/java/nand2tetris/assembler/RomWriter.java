@@ -0,0 +1,276 @@
+package nand2tetris.assembler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Class containing static methods for writing assembled instruction words to output files.
+ */
+public class RomWriter {
+    /**Characters per line of a .hack file*/
+    private static final int LINE_LENGTH = 17;
+    /**Lines formatted before each write to the output stream*/
+    private static final int LINES_PER_BLOCK = 4096;
+    /**Data bytes per Intel HEX data record*/
+    private static final int HEX_RECORD_BYTES = 16;
+    /**Hexadecimal digits used when formatting Intel HEX records*/
+    private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Enum for output formats
+     */
+    public enum Format {
+        /**Text file with one 16-character binary string per instruction*/
+        TEXT("hack"),
+        /**Packed big-endian ROM image, two bytes per instruction*/
+        BINARY("bin"),
+        /**Packed big-endian ROM image encoded as Intel HEX records*/
+        INTEL_HEX("hex");
+
+        /**File extension used for this format*/
+        private final String extension;
+
+        /**
+         * Constructs a format constant.
+         *
+         * @param _extension The file extension used for this format, without the dot.
+         */
+        Format(String _extension) {
+            extension = _extension;
+        }
+
+        /**
+         * Gets the file extension used for this format.
+         *
+         * @return The extension, without the dot.
+         */
+        public String extension() {
+            return extension;
+        }
+    }
+
+    /**
+     * Writes instructions to a file in the given format.
+     *
+     * @param _words The instruction words to write.
+     * @param _count The number of instructions in the array to write.
+     * @param _output The file to write.
+     * @param _format The output format.
+     */
+    public static void write(int[] _words, int _count, File _output, Format _format) throws IOException {
+        switch (_format) {
+            case TEXT:
+                writeText(_words, _count, _output);
+                break;
+            case BINARY:
+                writeBinary(_words, _count, _output);
+                break;
+            case INTEL_HEX:
+                writeIntelHex(_words, _count, _output);
+                break;
+        }
+    }
+
+    /**
+     * Writes instructions to a stream in the given format.
+     *
+     * @param _words The instruction words to write.
+     * @param _count The number of instructions in the array to write.
+     * @param _output The stream to write to. It is not closed.
+     * @param _format The output format.
+     */
+    public static void write(int[] _words, int _count, OutputStream _output, Format _format) throws IOException {
+        switch (_format) {
+            case TEXT:
+                writeText(_words, _count, _output);
+                break;
+            case BINARY:
+                writeBinary(_words, _count, _output);
+                break;
+            case INTEL_HEX:
+                writeIntelHex(_words, _count, _output);
+                break;
+        }
+    }
+
+    /**
+     * Writes instructions as a .hack text file, one 16-character binary string per line.
+     *
+     * @param _words The instruction words to write.
+     * @param _count The number of instructions in the array to write.
+     * @param _output The file to write.
+     */
+    public static void writeText(int[] _words, int _count, File _output) throws IOException {
+        OutputStream stream = new FileOutputStream(_output);
+        writeText(_words, _count, stream);
+        stream.close();
+    }
+
+    /**
+     * Writes instructions in .hack text format to a stream.
+     *
+     * @param _words The instruction words to write.
+     * @param _count The number of instructions in the array to write.
+     * @param _output The stream to write to. It is not closed.
+     */
+    public static void writeText(int[] _words, int _count, OutputStream _output) throws IOException {
+        byte[] block = new byte[LINES_PER_BLOCK * LINE_LENGTH];
+        int position = 0;
+        for (int i = 0; i < _count; i++) {
+            int word = _words[i];
+            for (int bit = 15; bit >= 0; bit--) {
+                block[position++] = (byte) ('0' + ((word >>> bit) & 1));
+            }
+            block[position++] = '\n';
+
+            if (position == block.length) {
+                _output.write(block, 0, position);
+                position = 0;
+            }
+        }
+        _output.write(block, 0, position);
+    }
+
+    /**
+     * Writes instructions as a packed big-endian binary ROM image. The output file is memory-mapped at its
+     * final size, two bytes per instruction, and filled in place.
+     *
+     * @param _words The instruction words to write.
+     * @param _count The number of instructions in the array to write.
+     * @param _output The file to write.
+     */
+    public static void writeBinary(int[] _words, int _count, File _output) throws IOException {
+        FileChannel channel = FileChannel.open(_output.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, 2L * _count);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        for (int i = 0; i < _count; i++) {
+            buffer.putShort((short) _words[i]);
+        }
+        buffer.force();
+        channel.close();
+    }
+
+    /**
+     * Writes instructions in packed big-endian binary format to a stream.
+     *
+     * @param _words The instruction words to write.
+     * @param _count The number of instructions in the array to write.
+     * @param _output The stream to write to. It is not closed.
+     */
+    public static void writeBinary(int[] _words, int _count, OutputStream _output) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(2 * _count).order(ByteOrder.BIG_ENDIAN);
+        for (int i = 0; i < _count; i++) {
+            buffer.putShort((short) _words[i]);
+        }
+        _output.write(buffer.array(), 0, buffer.position());
+    }
+
+    /**
+     * Writes instructions as an Intel HEX file of the packed big-endian ROM image.
+     *
+     * @param _words The instruction words to write.
+     * @param _count The number of instructions in the array to write.
+     * @param _output The file to write.
+     */
+    public static void writeIntelHex(int[] _words, int _count, File _output) throws IOException {
+        FileChannel channel = FileChannel.open(_output.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer buffer = formatIntelHex(_words, _count);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.close();
+    }
+
+    /**
+     * Writes instructions in Intel HEX format to a stream.
+     *
+     * @param _words The instruction words to write.
+     * @param _count The number of instructions in the array to write.
+     * @param _output The stream to write to. It is not closed.
+     */
+    public static void writeIntelHex(int[] _words, int _count, OutputStream _output) throws IOException {
+        ByteBuffer buffer = formatIntelHex(_words, _count);
+        _output.write(buffer.array(), 0, buffer.limit());
+    }
+
+    /**
+     * Formats instructions as Intel HEX records: data records of up to 16 bytes, extended linear address
+     * records whenever the byte address crosses a 64K boundary, and an end of file record.
+     *
+     * @param _words The instruction words to format.
+     * @param _count The number of instructions in the array to format.
+     * @return A buffer holding the ASCII text of the records, ready to be read.
+     */
+    private static ByteBuffer formatIntelHex(int[] _words, int _count) {
+        int byteCount = 2 * _count;
+        int records = (byteCount + HEX_RECORD_BYTES - 1) / HEX_RECORD_BYTES;
+        //Each record is at most 11 characters of framing plus two per data byte, plus a newline
+        ByteBuffer buffer = ByteBuffer.allocate((records + byteCount / 0x10000 + 2) * (12 + 2 * HEX_RECORD_BYTES));
+        byte[] data = new byte[HEX_RECORD_BYTES];
+
+        for (int address = 0; address < byteCount; address += HEX_RECORD_BYTES) {
+            //Upper 16 bits of the address change - emit extended linear address record
+            if (address != 0 && (address & 0xFFFF) == 0) {
+                data[0] = (byte) (address >>> 24);
+                data[1] = (byte) (address >>> 16);
+                putHexRecord(buffer, 0, 0x04, data, 2);
+            }
+
+            int length = Math.min(HEX_RECORD_BYTES, byteCount - address);
+            for (int i = 0; i < length; i++) {
+                int word = _words[(address + i) / 2];
+                data[i] = (byte) ((address + i) % 2 == 0 ? word >>> 8 : word);
+            }
+            putHexRecord(buffer, address & 0xFFFF, 0x00, data, length);
+        }
+        putHexRecord(buffer, 0, 0x01, data, 0);
+
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Appends one Intel HEX record to a buffer.
+     *
+     * @param _buffer The buffer to append to.
+     * @param _address The 16-bit address field.
+     * @param _type The record type.
+     * @param _data The record's data bytes.
+     * @param _length The number of data bytes to use.
+     */
+    private static void putHexRecord(ByteBuffer _buffer, int _address, int _type, byte[] _data, int _length) {
+        _buffer.put((byte) ':');
+        int checksum = _length + (_address >>> 8) + _address + _type;
+        putHexByte(_buffer, _length);
+        putHexByte(_buffer, _address >>> 8);
+        putHexByte(_buffer, _address);
+        putHexByte(_buffer, _type);
+        for (int i = 0; i < _length; i++) {
+            putHexByte(_buffer, _data[i]);
+            checksum += _data[i];
+        }
+        putHexByte(_buffer, -checksum);
+        _buffer.put((byte) '\n');
+    }
+
+    /**
+     * Appends the low byte of a value to a buffer as two hexadecimal digits.
+     *
+     * @param _buffer The buffer to append to.
+     * @param _value The value to format.
+     */
+    private static void putHexByte(ByteBuffer _buffer, int _value) {
+        _buffer.put(HEX_DIGITS[(_value >>> 4) & 0xF]);
+        _buffer.put(HEX_DIGITS[_value & 0xF]);
+    }
+}
@@ -1,29 +1,236 @@
 package nand2tetris.assembler;
 
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * Class which maintains the symbol table for an assembly file.
+ * Each distinct symbol is interned to a small integer id, so that repeated references can be resolved
+ * with an array lookup instead of a hash lookup. Symbols are stored in an open-addressing hash table keyed
+ * directly on the lexer's byte slices, so looking up a symbol never requires building a string.
  */
 public class SymbolTable {
-    /**Storage for symbol mappings*/
-    private HashMap<String, Integer> map;
+    /**Number of predefined symbols, which always occupy the lowest ids*/
+    public static final int PREDEFINED_COUNT = 23;
+    /**First RAM address used for variables*/
+    public static final int FIRST_VARIABLE = 16;
+
+    /**Hash table of symbol ids plus one, with 0 marking an empty slot. The length is always a power of two*/
+    private int[] slots;
+    /**Bytes of all interned symbols, back to back*/
+    private byte[] keys;
+    /**Number of bytes in use in keys*/
+    private int keysLength;
+    /**Offset of each symbol id's bytes within keys*/
+    private int[] keyStarts;
+    /**Length of each symbol id's bytes*/
+    private int[] keyLengths;
+    /**Hash of each symbol id*/
+    private int[] hashes;
+    /**Address assigned to each symbol id, or -1 if none has been assigned yet*/
+    private int[] addresses;
+    /**Number of ids in use*/
+    private int size;
+    /**Next RAM address to assign to a variable*/
+    private int nextVariable;
 
     /**
      * Creates a new symbol table populated with default symbols.
      */
     public SymbolTable() {
-        map = new HashMap<>();
-        map.put("SP", 0);
-        map.put("LCL", 1);
-        map.put("ARG", 2);
-        map.put("THIS", 3);
-        map.put("THAT", 4);
-        map.put("SCREEN", 16384);
-        map.put("KBD", 24576);
+        slots = new int[128];
+        keys = new byte[1024];
+        keyStarts = new int[64];
+        keyLengths = new int[64];
+        hashes = new int[64];
+        addresses = new int[64];
+        nextVariable = FIRST_VARIABLE;
+        addEntry("SP", 0);
+        addEntry("LCL", 1);
+        addEntry("ARG", 2);
+        addEntry("THIS", 3);
+        addEntry("THAT", 4);
+        addEntry("SCREEN", 16384);
+        addEntry("KBD", 24576);
         for (int i = 0; i < 16; i++) {
-            map.put("R" + i, i);
+            addEntry("R" + i, i);
+        }
+    }
+
+    /**
+     * Gets the id of a symbol, assigning a new id without an address if the symbol has not been seen before.
+     *
+     * @param _symbol The symbol to intern.
+     * @return The symbol's id.
+     */
+    public int intern(String _symbol) {
+        byte[] text = _symbol.getBytes(StandardCharsets.UTF_8);
+        return intern(text, 0, text.length);
+    }
+
+    /**
+     * Gets the id of a symbol held in a byte slice, assigning a new id without an address if the symbol
+     * has not been seen before.
+     *
+     * @param _text The buffer holding the symbol.
+     * @param _start The offset of the symbol within the buffer.
+     * @param _length The length of the symbol.
+     * @return The symbol's id.
+     */
+    public int intern(byte[] _text, int _start, int _length) {
+        int hash = hash(_text, _start, _length);
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && matches(id, _text, _start, _length)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        //Not found - add new symbol in the empty slot
+        if (size == addresses.length) {
+            int capacity = size * 2;
+            keyStarts = Arrays.copyOf(keyStarts, capacity);
+            keyLengths = Arrays.copyOf(keyLengths, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            addresses = Arrays.copyOf(addresses, capacity);
+        }
+        if (keysLength + _length > keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(keys.length * 2, keysLength + _length));
+        }
+        System.arraycopy(_text, _start, keys, keysLength, _length);
+        keyStarts[size] = keysLength;
+        keyLengths[size] = _length;
+        keysLength += _length;
+        hashes[size] = hash;
+        addresses[size] = -1;
+        slots[slot] = size + 1;
+        size++;
+
+        //Keep load factor at or below one half
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    /**
+     * Gets the id in this table of a symbol interned in another table, interning it if needed.
+     *
+     * @param _other The table holding the symbol.
+     * @param _id The symbol's id in the other table.
+     * @return The symbol's id in this table.
+     */
+    public int intern(SymbolTable _other, int _id) {
+        return intern(_other.keys, _other.keyStarts[_id], _other.keyLengths[_id]);
+    }
+
+    /**
+     * Gets the id of a symbol held in a byte slice without interning it.
+     *
+     * @param _text The buffer holding the symbol.
+     * @param _start The offset of the symbol within the buffer.
+     * @param _length The length of the symbol.
+     * @return The symbol's id, or -1 if the symbol has not been interned.
+     */
+    public int find(byte[] _text, int _start, int _length) {
+        int hash = hash(_text, _start, _length);
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && matches(id, _text, _start, _length)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the address of a symbol id, allocating the next free variable address if it has none.
+     *
+     * @param _id The symbol id.
+     * @return The address assigned to this symbol.
+     */
+    public int getOrAllocate(int _id) {
+        int address = addresses[_id];
+        if (address == -1) {
+            address = nextVariable++;
+            addresses[_id] = address;
         }
+        return address;
+    }
+
+    /**
+     * Gets the address of a symbol held in a byte slice, interning it and allocating the next free variable
+     * address if needed.
+     *
+     * @param _text The buffer holding the symbol.
+     * @param _start The offset of the symbol within the buffer.
+     * @param _length The length of the symbol.
+     * @return The address assigned to this symbol.
+     */
+    public int getOrAllocate(byte[] _text, int _start, int _length) {
+        return getOrAllocate(intern(_text, _start, _length));
+    }
+
+    /**
+     * Checks whether a symbol id belongs to one of the predefined symbols.
+     *
+     * @param _id The symbol id to check.
+     * @return True if the symbol is predefined, false if not.
+     */
+    public boolean isPredefined(int _id) {
+        return _id < PREDEFINED_COUNT;
+    }
+
+    /**
+     * Gets the number of interned symbols.
+     *
+     * @return The number of symbol ids in use.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of variables which have been allocated RAM addresses.
+     *
+     * @return The number of variables.
+     */
+    public int variableCount() {
+        return nextVariable - FIRST_VARIABLE;
+    }
+
+    /**
+     * Assigns an address to a symbol id.
+     *
+     * @param _id The symbol id.
+     * @param _address The address to assign to this symbol.
+     */
+    public void setAddress(int _id, int _address) {
+        addresses[_id] = _address;
+    }
+
+    /**
+     * Gets the address assigned to a symbol id.
+     *
+     * @param _id The symbol id.
+     * @return The address assigned to this symbol, or -1 if it is not in use.
+     */
+    public int getAddress(int _id) {
+        return addresses[_id];
+    }
+
+    /**
+     * Gets the name of a symbol id.
+     *
+     * @param _id The symbol id.
+     * @return The symbol, as a string.
+     */
+    public String getSymbol(int _id) {
+        return new String(keys, keyStarts[_id], keyLengths[_id], StandardCharsets.UTF_8);
     }
 
     /**
@@ -33,7 +240,7 @@ public class SymbolTable {
      * @param _address The address to assign to this symbol.
      */
     public void addEntry(String _symbol, int _address) {
-        map.put(_symbol, _address);
+        setAddress(intern(_symbol), _address);
     }
 
     /**
@@ -43,7 +250,7 @@ public class SymbolTable {
      * @return True if the table contains this symbol, false if not.
      */
     public boolean contains(String _symbol) {
-        return map.containsKey(_symbol);
+        return getAddress(_symbol) != -1;
     }
 
     /**
@@ -53,11 +260,60 @@ public class SymbolTable {
      * @return The address assigned to this symbol, or -1 if it is not in use.
      */
     public int getAddress(String _symbol) {
-        if (map.containsKey(_symbol)) {
-            return map.get(_symbol);
+        byte[] text = _symbol.getBytes(StandardCharsets.UTF_8);
+        int id = find(text, 0, text.length);
+        if (id != -1) {
+            return addresses[id];
         }
         else {
             return -1;
         }
     }
+
+    /**
+     * Checks whether a symbol id's bytes match a byte slice.
+     *
+     * @param _id The symbol id.
+     * @param _text The buffer holding the slice.
+     * @param _start The offset of the slice.
+     * @param _length The length of the slice.
+     * @return True if the bytes are equal, false if not.
+     */
+    private boolean matches(int _id, byte[] _text, int _start, int _length) {
+        int keyStart = keyStarts[_id];
+        return keyLengths[_id] == _length
+                && Arrays.equals(keys, keyStart, keyStart + _length, _text, _start, _start + _length);
+    }
+
+    /**
+     * Doubles the size of the hash table and reinserts all symbols.
+     */
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+
+    /**
+     * Hashes a byte slice.
+     *
+     * @param _text The buffer holding the slice.
+     * @param _start The offset of the slice.
+     * @param _length The length of the slice.
+     * @return The hash code.
+     */
+    private static int hash(byte[] _text, int _start, int _length) {
+        int hash = 0;
+        for (int i = _start; i < _start + _length; i++) {
+            hash = 31 * hash + _text[i];
+        }
+        //Spread high bits into the low bits used for indexing
+        return hash ^ (hash >>> 16);
+    }
 }
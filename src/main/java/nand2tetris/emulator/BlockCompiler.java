@@ -0,0 +1,569 @@
+package nand2tetris.emulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+
+/**
+ * Class which compiles basic blocks of decoded Hack instructions into hidden JVM classes implementing
+ * CompiledBlock, so that HotSpot can optimize a whole block at once rather than dispatching per instruction.
+ * Class files are written directly by a minimal writer. The generated code keeps A, D and the last ALU output in
+ * locals, and computes the final jump's target arithmetically, so it contains no branches and needs no stack map
+ * frames.
+ */
+class BlockCompiler {
+    /**Class file major version written, Java 8*/
+    private static final int CLASS_VERSION = 52;
+    /**Largest number of instructions compiled into one block, keeping methods small enough for HotSpot to compile*/
+    static final int MAX_BLOCK_LENGTH = 128;
+
+    //Constant pool indices of the fixed constant pool written by writeClass
+    private static final int CP_THIS_CLASS = 2;
+    private static final int CP_OBJECT = 4;
+    private static final int CP_INTERFACE = 6;
+    private static final int CP_INIT_NAME = 7;
+    private static final int CP_INIT_TYPE = 8;
+    private static final int CP_OBJECT_INIT = 10;
+    private static final int CP_EXECUTE_NAME = 11;
+    private static final int CP_EXECUTE_TYPE = 12;
+    private static final int CP_CODE = 13;
+    private static final int CP_COUNT = 14;
+
+    //Local variable slots of the execute method
+    private static final int LOCAL_RAM = 1;
+    private static final int LOCAL_REGISTERS = 2;
+    private static final int LOCAL_A = 3;
+    private static final int LOCAL_D = 4;
+    private static final int LOCAL_OUT = 5;
+    private static final int LOCAL_TARGET = 6;
+    private static final int LOCAL_COUNT = 7;
+
+    //JVM opcodes used by the generated code
+    private static final int ICONST_M1 = 0x02;
+    private static final int ICONST_0 = 0x03;
+    private static final int ICONST_1 = 0x04;
+    private static final int ICONST_3 = 0x06;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int ILOAD = 0x15;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ALOAD_2 = 0x2c;
+    private static final int IALOAD = 0x2e;
+    private static final int SALOAD = 0x35;
+    private static final int ISTORE = 0x36;
+    private static final int IASTORE = 0x4f;
+    private static final int SASTORE = 0x56;
+    private static final int IADD = 0x60;
+    private static final int ISUB = 0x64;
+    private static final int IMUL = 0x68;
+    private static final int INEG = 0x74;
+    private static final int ISHL = 0x78;
+    private static final int ISHR = 0x7a;
+    private static final int IUSHR = 0x7c;
+    private static final int IAND = 0x7e;
+    private static final int IOR = 0x80;
+    private static final int IXOR = 0x82;
+    private static final int I2S = 0x93;
+    private static final int IRETURN = 0xac;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+
+    /**Lookup used to define hidden classes in this package*/
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    /**Bytecode of the method being generated*/
+    private final ByteArrayOutputStream code;
+
+    /**
+     * Constructs a compiler for one block.
+     */
+    private BlockCompiler() {
+        code = new ByteArrayOutputStream();
+    }
+
+    /**
+     * Finds the length of the basic block starting at an address: up to and including the first instruction
+     * with a jump field, capped at MAX_BLOCK_LENGTH and at the end of ROM.
+     *
+     * @param _program The decoded ROM.
+     * @param _start The address of the block's first instruction.
+     * @return The number of instructions in the block.
+     */
+    static int blockLength(int[] _program, int _start) {
+        int end = Math.min(_start + MAX_BLOCK_LENGTH, _program.length);
+        for (int pc = _start; pc < end; pc++) {
+            if ((_program[pc] & Cpu.OP_MASK) != Cpu.OP_LOAD && (_program[pc] >>> Cpu.JUMP_SHIFT & 0b111) != 0) {
+                return pc - _start + 1;
+            }
+        }
+        return end - _start;
+    }
+
+    /**
+     * Compiles a basic block.
+     *
+     * @param _program The decoded ROM.
+     * @param _start The address of the block's first instruction.
+     * @param _length The number of instructions in the block, as returned by blockLength.
+     * @return The compiled block, or null if the block cannot be compiled: if it uses a nonstandard computation,
+     * or ends in the halting idiom, which only the interpreter detects.
+     */
+    static CompiledBlock compile(int[] _program, int _start, int _length) {
+        int last = _program[_start + _length - 1];
+        int lastJump = last >>> Cpu.JUMP_SHIFT & 0b111;
+        int lastAddress = _start + _length - 1;
+        if (lastJump == 0b111 && lastAddress > 0
+                && _program[lastAddress - 1] == (Cpu.OP_LOAD | (lastAddress - 1) << Cpu.OPERAND_SHIFT)) {
+            return null;
+        }
+
+        BlockCompiler compiler = new BlockCompiler();
+        if (!compiler.writeBlock(_program, _start, _length)) {
+            return null;
+        }
+        try {
+            Class<?> block = LOOKUP.defineHiddenClass(compiler.writeClass(), true).lookupClass();
+            return (CompiledBlock) block.getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | IOException e) {
+            throw new IllegalStateException("Error compiling block at " + _start, e);
+        }
+    }
+
+    /**
+     * Generates the body of the execute method for a block.
+     *
+     * @param _program The decoded ROM.
+     * @param _start The address of the block's first instruction.
+     * @param _length The number of instructions in the block.
+     * @return True if the block was generated, false if it uses a nonstandard computation.
+     */
+    private boolean writeBlock(int[] _program, int _start, int _length) {
+        //Load registers into locals
+        op(ALOAD_2);
+        op(ICONST_0);
+        op(IALOAD);
+        op(ISTORE, LOCAL_A);
+        op(ALOAD_2);
+        op(ICONST_1);
+        op(IALOAD);
+        op(ISTORE, LOCAL_D);
+
+        //Address of the next instruction if the block does not end in a taken jump
+        int next = (_start + _length) & 0x7FFF;
+        boolean jumps = false;
+
+        for (int pc = _start; pc < _start + _length; pc++) {
+            int instruction = _program[pc];
+            int opcode = instruction & Cpu.OP_MASK;
+            if (opcode == Cpu.OP_LOAD) {
+                push(instruction >>> Cpu.OPERAND_SHIFT);
+                op(ISTORE, LOCAL_A);
+                continue;
+            }
+            if (!writeComp(opcode)) {
+                return false;
+            }
+            op(ISTORE, LOCAL_OUT);
+
+            //Memory is addressed by A as it was before this instruction
+            int dest = instruction >>> Cpu.DEST_SHIFT & 0b111;
+            int jump = instruction >>> Cpu.JUMP_SHIFT & 0b111;
+            if ((dest & Cpu.DEST_M) != 0) {
+                op(ALOAD_1);
+                writeAddress();
+                op(ILOAD, LOCAL_OUT);
+                op(SASTORE);
+            }
+            if (jump != 0) {
+                writeAddress();
+                op(ISTORE, LOCAL_TARGET);
+            }
+            if ((dest & Cpu.DEST_A) != 0) {
+                op(ILOAD, LOCAL_OUT);
+                op(ISTORE, LOCAL_A);
+            }
+            if ((dest & Cpu.DEST_D) != 0) {
+                op(ILOAD, LOCAL_OUT);
+                op(ISTORE, LOCAL_D);
+            }
+            if (jump != 0) {
+                writeJump(jump, next);
+                jumps = true;
+            }
+        }
+
+        //Store registers and return the next address
+        op(ALOAD_2);
+        op(ICONST_0);
+        op(ILOAD, LOCAL_A);
+        op(IASTORE);
+        op(ALOAD_2);
+        op(ICONST_1);
+        op(ILOAD, LOCAL_D);
+        op(IASTORE);
+        if (jumps) {
+            op(ILOAD, LOCAL_TARGET);
+        }
+        else {
+            push(next);
+        }
+        op(IRETURN);
+        return true;
+    }
+
+    /**
+     * Generates code pushing the result of a computation.
+     *
+     * @param _opcode The emulator opcode of the computation.
+     * @return True if code was generated, false if the computation is nonstandard.
+     */
+    private boolean writeComp(int _opcode) {
+        switch (_opcode) {
+            case Cpu.OP_ZERO:
+                op(ICONST_0);
+                return true;
+            case Cpu.OP_ONE:
+                op(ICONST_1);
+                return true;
+            case Cpu.OP_MINUS_ONE:
+                op(ICONST_M1);
+                return true;
+            case Cpu.OP_D:
+                op(ILOAD, LOCAL_D);
+                return true;
+            case Cpu.OP_A:
+                op(ILOAD, LOCAL_A);
+                return true;
+            case Cpu.OP_M:
+                writeMemory();
+                return true;
+            case Cpu.OP_NOT_D:
+                op(ILOAD, LOCAL_D);
+                writeNot();
+                return true;
+            case Cpu.OP_NOT_A:
+                op(ILOAD, LOCAL_A);
+                writeNot();
+                return true;
+            case Cpu.OP_NOT_M:
+                writeMemory();
+                writeNot();
+                return true;
+            case Cpu.OP_NEG_D:
+                op(ILOAD, LOCAL_D);
+                op(INEG);
+                op(I2S);
+                return true;
+            case Cpu.OP_NEG_A:
+                op(ILOAD, LOCAL_A);
+                op(INEG);
+                op(I2S);
+                return true;
+            case Cpu.OP_NEG_M:
+                writeMemory();
+                op(INEG);
+                op(I2S);
+                return true;
+            case Cpu.OP_D_PLUS_ONE:
+                op(ILOAD, LOCAL_D);
+                writeArithmetic(ICONST_1, IADD);
+                return true;
+            case Cpu.OP_A_PLUS_ONE:
+                op(ILOAD, LOCAL_A);
+                writeArithmetic(ICONST_1, IADD);
+                return true;
+            case Cpu.OP_M_PLUS_ONE:
+                writeMemory();
+                writeArithmetic(ICONST_1, IADD);
+                return true;
+            case Cpu.OP_D_MINUS_ONE:
+                op(ILOAD, LOCAL_D);
+                writeArithmetic(ICONST_1, ISUB);
+                return true;
+            case Cpu.OP_A_MINUS_ONE:
+                op(ILOAD, LOCAL_A);
+                writeArithmetic(ICONST_1, ISUB);
+                return true;
+            case Cpu.OP_M_MINUS_ONE:
+                writeMemory();
+                writeArithmetic(ICONST_1, ISUB);
+                return true;
+            case Cpu.OP_D_PLUS_A:
+                op(ILOAD, LOCAL_D);
+                op(ILOAD, LOCAL_A);
+                op(IADD);
+                op(I2S);
+                return true;
+            case Cpu.OP_D_PLUS_M:
+                op(ILOAD, LOCAL_D);
+                writeMemory();
+                op(IADD);
+                op(I2S);
+                return true;
+            case Cpu.OP_D_MINUS_A:
+                op(ILOAD, LOCAL_D);
+                op(ILOAD, LOCAL_A);
+                op(ISUB);
+                op(I2S);
+                return true;
+            case Cpu.OP_D_MINUS_M:
+                op(ILOAD, LOCAL_D);
+                writeMemory();
+                op(ISUB);
+                op(I2S);
+                return true;
+            case Cpu.OP_A_MINUS_D:
+                op(ILOAD, LOCAL_A);
+                op(ILOAD, LOCAL_D);
+                op(ISUB);
+                op(I2S);
+                return true;
+            case Cpu.OP_M_MINUS_D:
+                writeMemory();
+                op(ILOAD, LOCAL_D);
+                op(ISUB);
+                op(I2S);
+                return true;
+            case Cpu.OP_D_AND_A:
+                op(ILOAD, LOCAL_D);
+                op(ILOAD, LOCAL_A);
+                op(IAND);
+                return true;
+            case Cpu.OP_D_AND_M:
+                op(ILOAD, LOCAL_D);
+                writeMemory();
+                op(IAND);
+                return true;
+            case Cpu.OP_D_OR_A:
+                op(ILOAD, LOCAL_D);
+                op(ILOAD, LOCAL_A);
+                op(IOR);
+                return true;
+            case Cpu.OP_D_OR_M:
+                op(ILOAD, LOCAL_D);
+                writeMemory();
+                op(IOR);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Generates code pushing the memory word addressed by A.
+     */
+    private void writeMemory() {
+        op(ALOAD_1);
+        writeAddress();
+        op(SALOAD);
+    }
+
+    /**
+     * Generates code pushing the low 15 bits of A.
+     */
+    private void writeAddress() {
+        op(ILOAD, LOCAL_A);
+        push(0x7FFF);
+        op(IAND);
+    }
+
+    /**
+     * Generates code replacing the value on top of the stack with its bitwise complement.
+     */
+    private void writeNot() {
+        op(ICONST_M1);
+        op(IXOR);
+    }
+
+    /**
+     * Generates code applying an operation with a constant operand to the value on top of the stack,
+     * wrapping the result to 16 bits.
+     *
+     * @param _constant The opcode pushing the constant.
+     * @param _operation The arithmetic opcode.
+     */
+    private void writeArithmetic(int _constant, int _operation) {
+        op(_constant);
+        op(_operation);
+        op(I2S);
+    }
+
+    /**
+     * Generates code leaving the address of the next instruction in the target local, which holds the jump
+     * target on entry. Conditional jumps select between the target and the fall-through address without
+     * branching: the sign of the output selects a condition bit, which is masked by the jump field and
+     * scaled into a 0 or 1 weight for the target.
+     *
+     * @param _jump The jump field.
+     * @param _next The fall-through address.
+     */
+    private void writeJump(int _jump, int _next) {
+        if (_jump == 0b111) {
+            return;
+        }
+
+        //signum(out) = (out >> 31) | (-out >>> 31)
+        op(ICONST_1);
+        op(ICONST_1);
+        op(ILOAD, LOCAL_OUT);
+        op(BIPUSH, 31);
+        op(ISHR);
+        op(ILOAD, LOCAL_OUT);
+        op(INEG);
+        op(BIPUSH, 31);
+        op(IUSHR);
+        op(IOR);
+
+        //Condition bit 1 << (1 - signum): 0b100 if negative, 0b010 if zero, 0b001 if positive
+        op(ISUB);
+        op(ISHL);
+
+        //Taken = ((condition & jump) + 7) >> 3
+        op(BIPUSH, _jump);
+        op(IAND);
+        op(BIPUSH, 7);
+        op(IADD);
+        op(ICONST_3);
+        op(ISHR);
+
+        //Next = fall-through + taken * (target - fall-through)
+        op(ILOAD, LOCAL_TARGET);
+        push(_next);
+        op(ISUB);
+        op(IMUL);
+        push(_next);
+        op(IADD);
+        op(ISTORE, LOCAL_TARGET);
+    }
+
+    /**
+     * Generates code pushing a constant which fits in 16 signed bits.
+     *
+     * @param _value The constant.
+     */
+    private void push(int _value) {
+        op(SIPUSH);
+        code.write(_value >>> 8);
+        code.write(_value);
+    }
+
+    /**
+     * Appends an opcode without operands.
+     *
+     * @param _opcode The opcode.
+     */
+    private void op(int _opcode) {
+        code.write(_opcode);
+    }
+
+    /**
+     * Appends an opcode with a one-byte operand.
+     *
+     * @param _opcode The opcode.
+     * @param _operand The operand.
+     */
+    private void op(int _opcode, int _operand) {
+        code.write(_opcode);
+        code.write(_operand);
+    }
+
+    /**
+     * Writes a class file implementing CompiledBlock with the generated execute method.
+     *
+     * @return The class file bytes.
+     */
+    private byte[] writeClass() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(CLASS_VERSION);
+
+        //Constant pool
+        out.writeShort(CP_COUNT);
+        writeUtf8(out, BlockCompiler.class.getPackageName().replace('.', '/') + "/Block");
+        writeClassEntry(out, 1);
+        writeUtf8(out, "java/lang/Object");
+        writeClassEntry(out, 3);
+        writeUtf8(out, CompiledBlock.class.getName().replace('.', '/'));
+        writeClassEntry(out, 5);
+        writeUtf8(out, "<init>");
+        writeUtf8(out, "()V");
+        out.writeByte(12);
+        out.writeShort(CP_INIT_NAME);
+        out.writeShort(CP_INIT_TYPE);
+        out.writeByte(10);
+        out.writeShort(CP_OBJECT);
+        out.writeShort(9);
+        writeUtf8(out, "execute");
+        writeUtf8(out, "([S[I)I");
+        writeUtf8(out, "Code");
+
+        //Final class extending Object and implementing CompiledBlock
+        out.writeShort(0x0030);
+        out.writeShort(CP_THIS_CLASS);
+        out.writeShort(CP_OBJECT);
+        out.writeShort(1);
+        out.writeShort(CP_INTERFACE);
+        out.writeShort(0);
+
+        //Constructor and execute method
+        out.writeShort(2);
+        byte[] init = {(byte) ALOAD_0, (byte) INVOKESPECIAL, 0, (byte) CP_OBJECT_INIT, (byte) RETURN};
+        writeMethod(out, CP_INIT_NAME, CP_INIT_TYPE, 1, 1, init);
+        writeMethod(out, CP_EXECUTE_NAME, CP_EXECUTE_TYPE, 8, LOCAL_COUNT, code.toByteArray());
+
+        out.writeShort(0);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes a public method with a Code attribute.
+     *
+     * @param _out The class file being written.
+     * @param _name The constant pool index of the method name.
+     * @param _type The constant pool index of the method descriptor.
+     * @param _maxStack The maximum operand stack depth.
+     * @param _maxLocals The number of local variable slots.
+     * @param _code The bytecode.
+     */
+    private static void writeMethod(DataOutputStream _out, int _name, int _type, int _maxStack, int _maxLocals, byte[] _code) throws IOException {
+        _out.writeShort(0x0001);
+        _out.writeShort(_name);
+        _out.writeShort(_type);
+        _out.writeShort(1);
+        _out.writeShort(CP_CODE);
+        _out.writeInt(12 + _code.length);
+        _out.writeShort(_maxStack);
+        _out.writeShort(_maxLocals);
+        _out.writeInt(_code.length);
+        _out.write(_code);
+        _out.writeShort(0);
+        _out.writeShort(0);
+    }
+
+    /**
+     * Writes a CONSTANT_Utf8 entry. Only ASCII strings are used.
+     *
+     * @param _out The class file being written.
+     * @param _text The string.
+     */
+    private static void writeUtf8(DataOutputStream _out, String _text) throws IOException {
+        _out.writeByte(1);
+        _out.writeUTF(_text);
+    }
+
+    /**
+     * Writes a CONSTANT_Class entry.
+     *
+     * @param _out The class file being written.
+     * @param _name The constant pool index of the class name.
+     */
+    private static void writeClassEntry(DataOutputStream _out, int _name) throws IOException {
+        _out.writeByte(7);
+        _out.writeShort(_name);
+    }
+}
@@ -0,0 +1,15 @@
+package nand2tetris.emulator;
+
+/**
+ * Interface implemented by basic blocks of Hack code compiled to JVM bytecode by BlockCompiler.
+ */
+interface CompiledBlock {
+    /**
+     * Executes every instruction of the block.
+     *
+     * @param _ram The CPU's RAM.
+     * @param _registers The A and D registers, at indices 0 and 1, which are read on entry and written on exit.
+     * @return The address of the next instruction to execute.
+     */
+    int execute(short[] _ram, int[] _registers);
+}
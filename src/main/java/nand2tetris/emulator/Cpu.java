@@ -0,0 +1,795 @@
+package nand2tetris.emulator;
+
+import nand2tetris.assembler.Code;
+
+import java.util.Arrays;
+
+/**
+ * Class which emulates the Hack CPU with its ROM and RAM. Each ROM word is decoded once, when the ROM is loaded,
+ * into an int holding an opcode for its computation, its dest and jump masks, and the value of a load. The run
+ * loop then dispatches on the opcode with a single switch per instruction. Registers and memory hold signed
+ * 16-bit values, and addresses use the low 15 bits of A, as on the real hardware. ROM beyond the end of the
+ * program holds zeros, which are loads of 0.
+ * <p>
+ * In tiered mode, the CPU counts how often each basic block is entered, and once a block becomes hot it is
+ * compiled to JVM bytecode by BlockCompiler and executed as a whole from then on. With superinstructions enabled,
+ * the instruction sequences the VM translator emits for push, pop, call and return are recognized when enabling
+ * them and each executed in one step. Both modes give the same results and cycle counts as interpreting.
+ * In profiling mode, every instruction is interpreted and the number of times each ROM address is executed is
+ * counted.
+ * <p>
+ * The state can be captured as a Snapshot and later restored, or forked into new Cpus. The CPU keeps track of
+ * which RAM pages have been written since it was last snapshotted or restored, so both only copy those pages.
+ */
+public class Cpu {
+    /**Number of words of RAM and of ROM*/
+    public static final int MEMORY_SIZE = 32768;
+    /**Base address of the screen memory map*/
+    public static final int SCREEN = 16384;
+    /**Address of the keyboard memory map*/
+    public static final int KEYBOARD = 24576;
+
+    /**Mask of the opcode in a decoded instruction*/
+    static final int OP_MASK = 0x3F;
+    /**Position of the dest mask in a decoded instruction*/
+    static final int DEST_SHIFT = 6;
+    /**Position of the jump mask in a decoded instruction*/
+    static final int JUMP_SHIFT = 9;
+    /**Position of the operand in a decoded instruction: the value of a load, or the comp field of OP_GENERIC*/
+    static final int OPERAND_SHIFT = 16;
+    /**Dest bit for the A register*/
+    static final int DEST_A = 0b100;
+    /**Dest bit for the D register*/
+    static final int DEST_D = 0b010;
+    /**Dest bit for memory*/
+    static final int DEST_M = 0b001;
+
+    //Opcodes: one per load or standard computation, plus one for nonstandard comp fields
+    static final int OP_LOAD = 0;
+    static final int OP_ZERO = 1;
+    static final int OP_ONE = 2;
+    static final int OP_MINUS_ONE = 3;
+    static final int OP_D = 4;
+    static final int OP_A = 5;
+    static final int OP_NOT_D = 6;
+    static final int OP_NOT_A = 7;
+    static final int OP_NEG_D = 8;
+    static final int OP_NEG_A = 9;
+    static final int OP_D_PLUS_ONE = 10;
+    static final int OP_A_PLUS_ONE = 11;
+    static final int OP_D_MINUS_ONE = 12;
+    static final int OP_A_MINUS_ONE = 13;
+    static final int OP_D_PLUS_A = 14;
+    static final int OP_D_MINUS_A = 15;
+    static final int OP_A_MINUS_D = 16;
+    static final int OP_D_AND_A = 17;
+    static final int OP_D_OR_A = 18;
+    static final int OP_M = 19;
+    static final int OP_NOT_M = 20;
+    static final int OP_NEG_M = 21;
+    static final int OP_M_PLUS_ONE = 22;
+    static final int OP_M_MINUS_ONE = 23;
+    static final int OP_D_PLUS_M = 24;
+    static final int OP_D_MINUS_M = 25;
+    static final int OP_M_MINUS_D = 26;
+    static final int OP_D_AND_M = 27;
+    static final int OP_D_OR_M = 28;
+    static final int OP_GENERIC = 29;
+
+    /**Number of entries after which a basic block is compiled in tiered mode*/
+    static final int COMPILE_THRESHOLD = 1000;
+
+    /**Opcode of each 7-bit comp field*/
+    private static final byte[] COMP_OPS = new byte[128];
+
+    static {
+        Arrays.fill(COMP_OPS, (byte) OP_GENERIC);
+        String[] mnemonics = {"0", "1", "-1", "D", "A", "!D", "!A", "-D", "-A", "D+1", "A+1", "D-1", "A-1",
+                "D+A", "D-A", "A-D", "D&A", "D|A", "M", "!M", "-M", "M+1", "M-1", "D+M", "D-M", "M-D", "D&M", "D|M"};
+        for (int i = 0; i < mnemonics.length; i++) {
+            COMP_OPS[Code.comp(mnemonics[i])] = (byte) (OP_ZERO + i);
+        }
+    }
+
+    /**Decoded ROM*/
+    private final int[] program;
+    /**Number of words loaded into ROM*/
+    private final int programLength;
+    /**RAM, including the screen and keyboard memory maps*/
+    private final short[] ram;
+    /**A register*/
+    private int a;
+    /**D register*/
+    private int d;
+    /**Program counter*/
+    private int pc;
+    /**Number of instructions executed since reset*/
+    private long cycles;
+    /**Whether the program has reached a jump to itself*/
+    private boolean halted;
+    /**Whether hot basic blocks are compiled*/
+    private boolean tiered;
+    /**Compiled block starting at each ROM address, or null*/
+    private CompiledBlock[] blocks;
+    /**Length of the basic block starting at each ROM address, or 0 if not yet known*/
+    private int[] blockLengths;
+    /**Number of entries into the block starting at each ROM address, or -1 if it cannot be compiled*/
+    private int[] entries;
+    /**Number of blocks compiled*/
+    private int compiledBlocks;
+    /**Whether recognized instruction sequences are executed as superinstructions*/
+    private boolean superinstructions;
+    /**Superinstruction kind starting at each ROM address*/
+    private byte[] superinstructionKinds;
+    /**Number of instructions from each ROM address to the next jump or superinstruction, inclusive of a jump*/
+    private int[] runLengths;
+    /**Number of times each ROM address has been executed, or null if not profiling*/
+    private long[] profile;
+    /**Snapshot RAM matched when last snapshotted or restored, or null*/
+    private Snapshot base;
+    /**Whether each RAM page has been written since it last matched the base snapshot*/
+    private final boolean[] dirty;
+
+    /**
+     * Constructs a CPU with the given program in ROM and cleared RAM.
+     *
+     * @param _rom The instruction words. Only the low 16 bits of each are used.
+     */
+    public Cpu(int[] _rom) {
+        if (_rom.length > MEMORY_SIZE) {
+            throw new IllegalArgumentException("Program of " + _rom.length + " instructions does not fit in ROM.");
+        }
+        program = new int[MEMORY_SIZE];
+        for (int i = 0; i < _rom.length; i++) {
+            program[i] = decode(_rom[i]);
+        }
+        programLength = _rom.length;
+        ram = new short[MEMORY_SIZE];
+        dirty = new boolean[Snapshot.PAGE_COUNT];
+    }
+
+    /**
+     * Constructs a CPU sharing the decoded ROM of a snapshot, with cleared RAM.
+     *
+     * @param _snapshot The snapshot whose ROM to use.
+     */
+    Cpu(Snapshot _snapshot) {
+        program = _snapshot.program;
+        programLength = _snapshot.programLength;
+        ram = new short[MEMORY_SIZE];
+        dirty = new boolean[Snapshot.PAGE_COUNT];
+    }
+
+    /**
+     * Decodes an instruction word.
+     *
+     * @param _word The instruction word.
+     * @return The decoded instruction.
+     */
+    static int decode(int _word) {
+        if ((_word & 0x8000) == 0) {
+            return OP_LOAD | (_word & 0x7FFF) << OPERAND_SHIFT;
+        }
+        int comp = (_word >>> 6) & 0x7F;
+        int dest = (_word >>> 3) & 0b111;
+        int jump = _word & 0b111;
+        return COMP_OPS[comp] | dest << DEST_SHIFT | jump << JUMP_SHIFT | comp << OPERAND_SHIFT;
+    }
+
+    /**
+     * Runs the program until it halts or the budget is used up. The program is considered halted when it
+     * executes an unconditional jump to a load of the jump's own target immediately before it, as in
+     * {@code (END) @END 0;JMP}.
+     *
+     * @param _budget The largest number of instructions to execute.
+     * @return The number of instructions executed.
+     */
+    public long run(long _budget) {
+        if (profile != null) {
+            return interpret(_budget);
+        }
+        long executed;
+        if (tiered) {
+            executed = runTiered(_budget);
+        }
+        else if (superinstructions) {
+            executed = runSuperinstructions(_budget);
+        }
+        else {
+            return interpret(_budget);
+        }
+
+        //Compiled blocks and superinstructions do not track the pages they write
+        if (executed != 0) {
+            Arrays.fill(dirty, true);
+        }
+        return executed;
+    }
+
+    /**
+     * Runs the program executing recognized sequences as superinstructions and interpreting the rest. Code
+     * between superinstructions is interpreted up to the next jump, so it cannot run into a superinstruction.
+     * A superinstruction is only used when it fits in the remaining budget, so the cycle count is the same as
+     * when interpreting.
+     *
+     * @param _budget The largest number of instructions to execute.
+     * @return The number of instructions executed.
+     */
+    private long runSuperinstructions(long _budget) {
+        int[] registers = new int[2];
+        long executed = 0;
+        while (executed < _budget && !halted) {
+            long remaining = _budget - executed;
+            int kind = superinstructionKinds[pc];
+            if (kind != Superinstructions.NONE) {
+                int length = Superinstructions.length(kind);
+                if (length <= remaining) {
+                    pc = Superinstructions.execute(kind, program, pc, ram, registers);
+                    a = registers[0];
+                    d = registers[1];
+                    cycles += length;
+                    executed += length;
+                }
+                else {
+                    executed += interpret(remaining);
+                }
+            }
+            else {
+                executed += interpret(Math.min(runLengths[pc], remaining));
+            }
+        }
+        return executed;
+    }
+
+    /**
+     * Runs the program a basic block at a time, executing compiled blocks where available and interpreting the
+     * rest. A compiled block is only used when the whole block fits in the remaining budget, so the cycle count
+     * is the same as when interpreting.
+     *
+     * @param _budget The largest number of instructions to execute.
+     * @return The number of instructions executed.
+     */
+    private long runTiered(long _budget) {
+        int[] registers = new int[2];
+        long executed = 0;
+        while (executed < _budget && !halted) {
+            int length = blockLengths[pc];
+            if (length == 0) {
+                length = BlockCompiler.blockLength(program, pc);
+                blockLengths[pc] = length;
+            }
+
+            long remaining = _budget - executed;
+            CompiledBlock block = blocks[pc];
+            if (block == null && entries[pc] >= 0 && ++entries[pc] >= COMPILE_THRESHOLD) {
+                block = BlockCompiler.compile(program, pc, length);
+                if (block == null) {
+                    entries[pc] = -1;
+                }
+                else {
+                    blocks[pc] = block;
+                    compiledBlocks++;
+                }
+            }
+
+            if (block != null && length <= remaining) {
+                registers[0] = a;
+                registers[1] = d;
+                pc = block.execute(ram, registers);
+                a = registers[0];
+                d = registers[1];
+                cycles += length;
+                executed += length;
+            }
+            else {
+                executed += interpret(Math.min(length, remaining));
+            }
+        }
+        return executed;
+    }
+
+    /**
+     * Runs the program one instruction at a time until it halts or the budget is used up.
+     *
+     * @param _budget The largest number of instructions to execute.
+     * @return The number of instructions executed.
+     */
+    private long interpret(long _budget) {
+        int[] program = this.program;
+        short[] ram = this.ram;
+        int a = this.a;
+        int d = this.d;
+        int pc = this.pc;
+        long[] profile = this.profile;
+        boolean[] dirty = this.dirty;
+        long executed = 0;
+
+        while (executed < _budget && !halted) {
+            int instruction = program[pc];
+            executed++;
+            if (profile != null) {
+                profile[pc]++;
+            }
+
+            int out;
+            switch (instruction & OP_MASK) {
+                case OP_LOAD:
+                    a = instruction >>> OPERAND_SHIFT;
+                    pc = (pc + 1) & 0x7FFF;
+                    continue;
+                case OP_ZERO:
+                    out = 0;
+                    break;
+                case OP_ONE:
+                    out = 1;
+                    break;
+                case OP_MINUS_ONE:
+                    out = -1;
+                    break;
+                case OP_D:
+                    out = d;
+                    break;
+                case OP_A:
+                    out = a;
+                    break;
+                case OP_NOT_D:
+                    out = ~d;
+                    break;
+                case OP_NOT_A:
+                    out = ~a;
+                    break;
+                case OP_NEG_D:
+                    out = (short) -d;
+                    break;
+                case OP_NEG_A:
+                    out = (short) -a;
+                    break;
+                case OP_D_PLUS_ONE:
+                    out = (short) (d + 1);
+                    break;
+                case OP_A_PLUS_ONE:
+                    out = (short) (a + 1);
+                    break;
+                case OP_D_MINUS_ONE:
+                    out = (short) (d - 1);
+                    break;
+                case OP_A_MINUS_ONE:
+                    out = (short) (a - 1);
+                    break;
+                case OP_D_PLUS_A:
+                    out = (short) (d + a);
+                    break;
+                case OP_D_MINUS_A:
+                    out = (short) (d - a);
+                    break;
+                case OP_A_MINUS_D:
+                    out = (short) (a - d);
+                    break;
+                case OP_D_AND_A:
+                    out = d & a;
+                    break;
+                case OP_D_OR_A:
+                    out = d | a;
+                    break;
+                case OP_M:
+                    out = ram[a & 0x7FFF];
+                    break;
+                case OP_NOT_M:
+                    out = ~ram[a & 0x7FFF];
+                    break;
+                case OP_NEG_M:
+                    out = (short) -ram[a & 0x7FFF];
+                    break;
+                case OP_M_PLUS_ONE:
+                    out = (short) (ram[a & 0x7FFF] + 1);
+                    break;
+                case OP_M_MINUS_ONE:
+                    out = (short) (ram[a & 0x7FFF] - 1);
+                    break;
+                case OP_D_PLUS_M:
+                    out = (short) (d + ram[a & 0x7FFF]);
+                    break;
+                case OP_D_MINUS_M:
+                    out = (short) (d - ram[a & 0x7FFF]);
+                    break;
+                case OP_M_MINUS_D:
+                    out = (short) (ram[a & 0x7FFF] - d);
+                    break;
+                case OP_D_AND_M:
+                    out = d & ram[a & 0x7FFF];
+                    break;
+                case OP_D_OR_M:
+                    out = d | ram[a & 0x7FFF];
+                    break;
+                default:
+                    out = alu(instruction >>> OPERAND_SHIFT, d, a, ram[a & 0x7FFF]);
+                    break;
+            }
+
+            //Memory is addressed by A as it was before this instruction
+            int target = a & 0x7FFF;
+            if ((instruction & DEST_M << DEST_SHIFT) != 0) {
+                ram[target] = (short) out;
+                dirty[target >>> Snapshot.PAGE_SHIFT] = true;
+            }
+            if ((instruction & DEST_A << DEST_SHIFT) != 0) {
+                a = out;
+            }
+            if ((instruction & DEST_D << DEST_SHIFT) != 0) {
+                d = out;
+            }
+
+            int condition = out < 0 ? 0b100 : out == 0 ? 0b010 : 0b001;
+            if ((instruction >>> JUMP_SHIFT & condition) != 0) {
+                if (target == pc - 1 && (instruction >>> JUMP_SHIFT & 0b111) == 0b111
+                        && program[target] == (OP_LOAD | target << OPERAND_SHIFT)) {
+                    halted = true;
+                }
+                pc = target;
+            }
+            else {
+                pc = (pc + 1) & 0x7FFF;
+            }
+        }
+
+        this.a = a;
+        this.d = d;
+        this.pc = pc;
+        cycles += executed;
+        return executed;
+    }
+
+    /**
+     * Computes the output of the ALU for any comp field, following the Hack ALU's control bits.
+     *
+     * @param _comp The 7-bit comp field.
+     * @param _d The D register.
+     * @param _a The A register.
+     * @param _m The memory word addressed by A.
+     * @return The ALU output, as a signed 16-bit value.
+     */
+    static int alu(int _comp, int _d, int _a, int _m) {
+        int x = _d;
+        int y = (_comp & 0b1000000) != 0 ? _m : _a;
+        if ((_comp & 0b0100000) != 0) {
+            x = 0;
+        }
+        if ((_comp & 0b0010000) != 0) {
+            x = ~x;
+        }
+        if ((_comp & 0b0001000) != 0) {
+            y = 0;
+        }
+        if ((_comp & 0b0000100) != 0) {
+            y = ~y;
+        }
+        int out = (_comp & 0b0000010) != 0 ? x + y : x & y;
+        if ((_comp & 0b0000001) != 0) {
+            out = ~out;
+        }
+        return (short) out;
+    }
+
+    /**
+     * Enables or disables tiered execution, in which hot basic blocks are compiled to JVM bytecode. Blocks
+     * compiled before disabling it are kept.
+     *
+     * @param _tiered True to compile hot blocks, false to only interpret.
+     */
+    public void setTiered(boolean _tiered) {
+        tiered = _tiered;
+        if (tiered && blocks == null) {
+            blocks = new CompiledBlock[MEMORY_SIZE];
+            blockLengths = new int[MEMORY_SIZE];
+            entries = new int[MEMORY_SIZE];
+        }
+    }
+
+    /**
+     * Checks whether tiered execution is enabled.
+     *
+     * @return True if hot blocks are compiled, false if not.
+     */
+    public boolean isTiered() {
+        return tiered;
+    }
+
+    /**
+     * Gets the number of basic blocks compiled in tiered mode.
+     *
+     * @return The number of compiled blocks.
+     */
+    public int getCompiledBlocks() {
+        return compiledBlocks;
+    }
+
+    /**
+     * Enables or disables superinstructions, recognizing the instruction sequences the VM translator emits the
+     * first time they are enabled. Tiered execution takes precedence when both are enabled.
+     *
+     * @param _superinstructions True to execute recognized sequences as superinstructions, false to interpret them.
+     */
+    public void setSuperinstructions(boolean _superinstructions) {
+        superinstructions = _superinstructions;
+        if (superinstructions && superinstructionKinds == null) {
+            superinstructionKinds = Superinstructions.match(program, programLength);
+            runLengths = new int[MEMORY_SIZE];
+            for (int address = MEMORY_SIZE - 1; address >= 0; address--) {
+                if (isJump(address) || address == MEMORY_SIZE - 1 || superinstructionKinds[address + 1] != Superinstructions.NONE) {
+                    runLengths[address] = 1;
+                }
+                else {
+                    runLengths[address] = runLengths[address + 1] + 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether superinstructions are enabled.
+     *
+     * @return True if recognized sequences are executed as superinstructions, false if not.
+     */
+    public boolean isSuperinstructions() {
+        return superinstructions;
+    }
+
+    /**
+     * Gets the number of ROM addresses at which a superinstruction was recognized.
+     *
+     * @return The number of superinstructions, or 0 if they have not been enabled.
+     */
+    public int getSuperinstructionCount() {
+        int count = 0;
+        if (superinstructionKinds != null) {
+            for (byte kind: superinstructionKinds) {
+                if (kind != Superinstructions.NONE) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Enables or disables profiling. While profiling, tiered execution and superinstructions are suspended so
+     * that every instruction is counted. Counts are kept until profiling is disabled.
+     *
+     * @param _profiling True to count executions of each ROM address, false to stop counting.
+     */
+    public void setProfiling(boolean _profiling) {
+        if (!_profiling) {
+            profile = null;
+        }
+        else if (profile == null) {
+            profile = new long[MEMORY_SIZE];
+        }
+    }
+
+    /**
+     * Checks whether profiling is enabled.
+     *
+     * @return True if executions of each ROM address are counted, false if not.
+     */
+    public boolean isProfiling() {
+        return profile != null;
+    }
+
+    /**
+     * Gets the number of times a ROM address has been executed while profiling.
+     *
+     * @param _address The ROM address, from 0 to 32767.
+     * @return The execution count, or 0 if not profiling.
+     */
+    public long getProfileCount(int _address) {
+        return profile != null ? profile[_address] : 0;
+    }
+
+    /**
+     * Checks whether the instruction at a ROM address may jump.
+     *
+     * @param _address The ROM address, from 0 to 32767.
+     * @return True if the instruction has a jump condition, false if not.
+     */
+    boolean isJump(int _address) {
+        return (program[_address] & OP_MASK) != OP_LOAD && (program[_address] >>> JUMP_SHIFT & 0b111) != 0;
+    }
+
+    /**
+     * Captures the registers, program counter, cycle counter and RAM. Pages which have not been written since
+     * the last snapshot or restore are shared with that snapshot instead of being copied.
+     *
+     * @return The snapshot.
+     */
+    public Snapshot snapshot() {
+        short[][] pages = new short[Snapshot.PAGE_COUNT][];
+        for (int page = 0; page < Snapshot.PAGE_COUNT; page++) {
+            short[] previous = base != null ? base.pages[page] : null;
+            int start = page << Snapshot.PAGE_SHIFT;
+            if (base != null && !dirty[page]) {
+                pages[page] = previous;
+            }
+            else if (previous != null && Arrays.equals(ram, start, start + Snapshot.PAGE_SIZE, previous, 0, Snapshot.PAGE_SIZE)) {
+                pages[page] = previous;
+            }
+            else if (!isZero(start)) {
+                pages[page] = Arrays.copyOfRange(ram, start, start + Snapshot.PAGE_SIZE);
+            }
+        }
+        base = new Snapshot(program, programLength, pages, a, d, pc, cycles, halted);
+        Arrays.fill(dirty, false);
+        return base;
+    }
+
+    /**
+     * Checks whether a page of RAM holds only zeros.
+     *
+     * @param _start The address of the first word of the page.
+     * @return True if every word of the page is 0, false if not.
+     */
+    private boolean isZero(int _start) {
+        for (int address = _start; address < _start + Snapshot.PAGE_SIZE; address++) {
+            if (ram[address] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Restores the registers, program counter, cycle counter and RAM from a snapshot. Only pages written since
+     * the last snapshot or restore, or which differ between that snapshot and this one, are copied. Compiled
+     * blocks, superinstructions and profile counts are kept, since they depend only on the ROM.
+     *
+     * @param _snapshot The snapshot to restore, taken from a CPU with the same ROM.
+     */
+    public void restore(Snapshot _snapshot) {
+        if (_snapshot.program != program && !Arrays.equals(_snapshot.program, program)) {
+            throw new IllegalArgumentException("Snapshot was taken from a different program.");
+        }
+        for (int page = 0; page < Snapshot.PAGE_COUNT; page++) {
+            short[] source = _snapshot.pages[page];
+            if (base != null && !dirty[page] && base.pages[page] == source) {
+                continue;
+            }
+            int start = page << Snapshot.PAGE_SHIFT;
+            if (source != null) {
+                System.arraycopy(source, 0, ram, start, Snapshot.PAGE_SIZE);
+            }
+            else {
+                Arrays.fill(ram, start, start + Snapshot.PAGE_SIZE, (short) 0);
+            }
+        }
+        a = _snapshot.a;
+        d = _snapshot.d;
+        pc = _snapshot.pc;
+        cycles = _snapshot.cycles;
+        halted = _snapshot.halted;
+        base = _snapshot;
+        Arrays.fill(dirty, false);
+    }
+
+    /**
+     * Resets the registers, program counter and cycle counter. RAM is left as it is, as on the real hardware.
+     */
+    public void reset() {
+        a = 0;
+        d = 0;
+        pc = 0;
+        cycles = 0;
+        halted = false;
+    }
+
+    /**
+     * Gets a word of RAM.
+     *
+     * @param _address The address, from 0 to 32767.
+     * @return The signed 16-bit value at that address.
+     */
+    public int getRam(int _address) {
+        return ram[_address];
+    }
+
+    /**
+     * Sets a word of RAM.
+     *
+     * @param _address The address, from 0 to 32767.
+     * @param _value The value to store. Only the low 16 bits are used.
+     */
+    public void setRam(int _address, int _value) {
+        ram[_address] = (short) _value;
+        dirty[_address >>> Snapshot.PAGE_SHIFT] = true;
+    }
+
+    /**
+     * Sets the key code read from the keyboard memory map.
+     *
+     * @param _key The key code, or 0 if no key is pressed.
+     */
+    public void setKeyboard(int _key) {
+        ram[KEYBOARD] = (short) _key;
+        dirty[KEYBOARD >>> Snapshot.PAGE_SHIFT] = true;
+    }
+
+    /**
+     * Gets the A register.
+     *
+     * @return The signed 16-bit value of A.
+     */
+    public int getA() {
+        return a;
+    }
+
+    /**
+     * Sets the A register.
+     *
+     * @param _a The value to store. Only the low 16 bits are used.
+     */
+    public void setA(int _a) {
+        a = (short) _a;
+    }
+
+    /**
+     * Gets the D register.
+     *
+     * @return The signed 16-bit value of D.
+     */
+    public int getD() {
+        return d;
+    }
+
+    /**
+     * Sets the D register.
+     *
+     * @param _d The value to store. Only the low 16 bits are used.
+     */
+    public void setD(int _d) {
+        d = (short) _d;
+    }
+
+    /**
+     * Gets the program counter.
+     *
+     * @return The ROM address of the next instruction.
+     */
+    public int getPC() {
+        return pc;
+    }
+
+    /**
+     * Sets the program counter, clearing the halted state.
+     *
+     * @param _pc The ROM address of the next instruction. Only the low 15 bits are used.
+     */
+    public void setPC(int _pc) {
+        pc = _pc & 0x7FFF;
+        halted = false;
+    }
+
+    /**
+     * Gets the number of instructions executed since reset.
+     *
+     * @return The cycle count.
+     */
+    public long getCycles() {
+        return cycles;
+    }
+
+    /**
+     * Gets the number of instructions loaded into ROM.
+     *
+     * @return The program length.
+     */
+    public int getProgramLength() {
+        return programLength;
+    }
+
+    /**
+     * Checks whether the program has halted by jumping to itself.
+     *
+     * @return True if the program has halted, false if not.
+     */
+    public boolean isHalted() {
+        return halted;
+    }
+}
@@ -0,0 +1,161 @@
+package nand2tetris.emulator;
+
+import nand2tetris.assembler.AssemblyException;
+import nand2tetris.assembler.Lexer;
+import nand2tetris.assembler.Program;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Primary emulator class. Runs the .hack or .bin ROM image specified on the command line headlessly until it
+ * halts or its instruction budget is used up, then reports the cycle count and any requested RAM words. Given the
+ * .asm source the ROM was assembled from, it can also profile the run by label and VM function.
+ */
+public class Emulator {
+    /**Instruction budget used when none is given*/
+    private static final long DEFAULT_BUDGET = 100_000_000L;
+
+    public static void main(String[] args) {
+        //Parse options
+        String romFilename = null;
+        long budget = DEFAULT_BUDGET;
+        ArrayList<int[]> presets = new ArrayList<>();
+        ArrayList<int[]> dumps = new ArrayList<>();
+        boolean tiered = false;
+        boolean superinstructions = false;
+        String sourceFilename = null;
+        String collapsedFilename = null;
+        boolean valid = true;
+        try {
+            for (String arg: args) {
+                if (arg.equals("--tiered")) {
+                    tiered = true;
+                }
+                else if (arg.equals("--superinstructions")) {
+                    superinstructions = true;
+                }
+                else if (arg.startsWith("--profile=")) {
+                    sourceFilename = arg.substring("--profile=".length());
+                }
+                else if (arg.startsWith("--collapsed=")) {
+                    collapsedFilename = arg.substring("--collapsed=".length());
+                }
+                else if (arg.startsWith("--cycles=")) {
+                    budget = Long.parseLong(arg.substring("--cycles=".length()));
+                }
+                else if (arg.startsWith("--set=")) {
+                    String[] parts = arg.substring("--set=".length()).split("=");
+                    presets.add(new int[] {parseAddress(parts[0]), Integer.parseInt(parts[1])});
+                }
+                else if (arg.startsWith("--dump=")) {
+                    String[] parts = arg.substring("--dump=".length()).split("-");
+                    int from = parseAddress(parts[0]);
+                    dumps.add(new int[] {from, parts.length > 1 ? parseAddress(parts[1]) : from});
+                }
+                else if (romFilename == null && !arg.startsWith("--")) {
+                    romFilename = arg;
+                }
+                else {
+                    valid = false;
+                }
+            }
+        }
+        catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            valid = false;
+        }
+
+        if (!valid || romFilename == null || (collapsedFilename != null && sourceFilename == null)) {
+            System.err.println("Usage: Emulator.jar [--tiered] [--superinstructions] [--profile=SOURCE.asm [--collapsed=FILE]] [--cycles=N] [--set=ADDRESS=VALUE]... [--dump=FROM[-TO]]... [filename]");
+            System.exit(1);
+        }
+
+        File romFile = new File(romFilename);
+        if (!romFile.exists()) {
+            System.err.println("Error: No such file " + romFilename);
+            System.exit(1);
+        }
+
+        Cpu cpu = null;
+        try {
+            cpu = new Cpu(RomReader.read(romFile.toPath()));
+        }
+        catch (IOException | IllegalArgumentException e) {
+            System.err.println("Error reading ROM image " + romFilename);
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+
+        Profiler profiler = null;
+        if (sourceFilename != null) {
+            try {
+                Map<String, Integer> labels = Program.parse(new Lexer(new File(sourceFilename))).labels();
+                profiler = new Profiler(cpu, labels);
+            }
+            catch (IOException e) {
+                System.err.println("IOException while reading " + sourceFilename);
+                System.err.println(e.getMessage());
+                System.exit(1);
+            }
+            catch (AssemblyException e) {
+                System.err.println("Error reading labels from " + sourceFilename);
+                System.err.println(e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        cpu.setTiered(tiered);
+        cpu.setSuperinstructions(superinstructions);
+        for (int[] preset: presets) {
+            cpu.setRam(preset[0], preset[1]);
+        }
+        long start = System.nanoTime();
+        long executed = profiler != null ? profiler.run(budget) : cpu.run(budget);
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+
+        System.out.printf("%s after %d instructions in %.3f s (%.1f million instructions/s)%n",
+                cpu.isHalted() ? "Halted" : "Stopped", executed, seconds, executed / seconds / 1e6);
+        if (tiered) {
+            System.out.println("Compiled " + cpu.getCompiledBlocks() + " blocks");
+        }
+        else if (superinstructions) {
+            System.out.println("Recognized " + cpu.getSuperinstructionCount() + " superinstructions");
+        }
+        if (profiler != null) {
+            System.out.println();
+            profiler.writeReport(System.out);
+            if (collapsedFilename != null) {
+                try (PrintStream collapsed = new PrintStream(new FileOutputStream(collapsedFilename))) {
+                    profiler.writeCollapsed(collapsed);
+                }
+                catch (IOException e) {
+                    System.err.println("IOException while writing " + collapsedFilename);
+                    System.err.println(e.getMessage());
+                }
+            }
+        }
+        for (int[] dump: dumps) {
+            for (int address = dump[0]; address <= dump[1]; address++) {
+                System.out.println("RAM[" + address + "] = " + cpu.getRam(address));
+            }
+        }
+    }
+
+    /**
+     * Parses a RAM address.
+     *
+     * @param _address The address, in decimal.
+     * @return The address.
+     */
+    private static int parseAddress(String _address) {
+        int address = Integer.parseInt(_address);
+        if (address < 0 || address >= Cpu.MEMORY_SIZE) {
+            throw new NumberFormatException("Address out of range: " + _address);
+        }
+        return address;
+    }
+}
@@ -0,0 +1,361 @@
+package nand2tetris.emulator;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class which profiles a program running on a Cpu, attributing cycles to the labels and VM functions of the
+ * assembly code it was built from. The Cpu counts executions of each ROM address, and those counts are folded
+ * into the label or function each address falls under to give exclusive cycles. Labels containing a dot and no
+ * dollar sign, as in {@code (Main.fibonacci)}, are function entries; any other label, such as
+ * {@code (Main.fibonacci$IF_TRUE)} or {@code (return7)}, belongs to the function before it. Shared routines,
+ * labelled {@code ($$call)} and {@code ($$return)}, are attributed to themselves. Code before the first function
+ * label is attributed to the start of the program.
+ * <p>
+ * For inclusive cycles and call counts, the program is run from one jump to the next while a call stack is
+ * tracked: running a jump just before a {@code (returnN)} label starts a call, which is complete on reaching a
+ * function entry, and arriving at a {@code (returnN)} label is a return.
+ * Loops which jump back to a function's first instruction are therefore not mistaken for calls.
+ */
+public class Profiler {
+    /**Name given to code before the first function label*/
+    public static final String START = "<start>";
+
+    /**Emulated CPU*/
+    private final Cpu cpu;
+    /**Names of the functions, with START first*/
+    private final ArrayList<String> functions;
+    /**Function each ROM address falls under*/
+    private final int[] functionOf;
+    /**Whether each ROM address is a function entry*/
+    private final boolean[] entries;
+    /**Whether each ROM address is a return address*/
+    private final boolean[] returns;
+    /**Label each ROM address falls under, or null before the first label*/
+    private final String[] labelOf;
+    /**Number of instructions from each ROM address to the next jump, inclusive*/
+    private final int[] runLengths;
+    /**Number of calls to each function*/
+    private final long[] calls;
+    /**Cycles spent in each function and its callees, excluding activations still on the stack*/
+    private final long[] inclusive;
+    /**Number of activations of each function on the stack*/
+    private final int[] active;
+    /**Cycle count when the outermost activation of each function on the stack began*/
+    private final long[] entered;
+    /**Functions on the call stack, innermost last*/
+    private int[] stack;
+    /**Cycle counters of the stacks on the call stack, innermost last*/
+    private long[][] stackCounters;
+    /**Number of functions on the call stack*/
+    private int depth;
+    /**Cycles spent in each distinct call stack, keyed by its frames separated by semicolons*/
+    private final HashMap<String, long[]> collapsed;
+    /**Keys of the stacks on the call stack, innermost last*/
+    private String[] stackKeys;
+    /**Number of cycles profiled*/
+    private long cycles;
+    /**Whether a call has been made but its function not yet reached*/
+    private boolean calling;
+
+    /**
+     * Constructs a profiler, enabling profiling on the CPU.
+     *
+     * @param _cpu The CPU running the program.
+     * @param _labels The address of each label in the program, as given by the assembler.
+     */
+    public Profiler(Cpu _cpu, Map<String, Integer> _labels) {
+        cpu = _cpu;
+        cpu.setProfiling(true);
+
+        //Sort labels by address, keeping definition order between labels at the same address
+        TreeMap<Integer, ArrayList<String>> byAddress = new TreeMap<>();
+        for (Map.Entry<String, Integer> label: _labels.entrySet()) {
+            byAddress.computeIfAbsent(label.getValue(), k -> new ArrayList<>()).add(label.getKey());
+        }
+
+        functions = new ArrayList<>();
+        functions.add(START);
+        functionOf = new int[Cpu.MEMORY_SIZE];
+        int[] entryOf = new int[Cpu.MEMORY_SIZE];
+        entries = new boolean[Cpu.MEMORY_SIZE];
+        returns = new boolean[Cpu.MEMORY_SIZE];
+        labelOf = new String[Cpu.MEMORY_SIZE];
+        Arrays.fill(entryOf, -1);
+        for (Map.Entry<Integer, ArrayList<String>> entry: byAddress.entrySet()) {
+            int address = entry.getKey();
+            if (address >= Cpu.MEMORY_SIZE) {
+                continue;
+            }
+            for (String label: entry.getValue()) {
+                if (isFunction(label) || label.startsWith("$$")) {
+                    entries[address] |= isFunction(label);
+                    entryOf[address] = functions.size();
+                    functions.add(label);
+                }
+                else if (isReturn(label)) {
+                    returns[address] = true;
+                }
+                labelOf[address] = label;
+            }
+        }
+        for (int address = 0; address < Cpu.MEMORY_SIZE; address++) {
+            if (entryOf[address] != -1) {
+                functionOf[address] = entryOf[address];
+            }
+            else if (address > 0) {
+                functionOf[address] = functionOf[address - 1];
+                if (labelOf[address] == null) {
+                    labelOf[address] = labelOf[address - 1];
+                }
+            }
+        }
+
+        runLengths = new int[Cpu.MEMORY_SIZE];
+        for (int address = Cpu.MEMORY_SIZE - 1; address >= 0; address--) {
+            if (cpu.isJump(address) || address == Cpu.MEMORY_SIZE - 1) {
+                runLengths[address] = 1;
+            }
+            else {
+                runLengths[address] = runLengths[address + 1] + 1;
+            }
+        }
+
+        int count = functions.size();
+        calls = new long[count];
+        inclusive = new long[count];
+        active = new int[count];
+        entered = new long[count];
+        stack = new int[16];
+        stackCounters = new long[16][];
+        stackKeys = new String[16];
+        collapsed = new HashMap<>();
+        push(functionOf[cpu.getPC()]);
+    }
+
+    /**
+     * Checks whether a label is a VM function entry.
+     *
+     * @param _label The label.
+     * @return True if the label names a function, false if not.
+     */
+    private static boolean isFunction(String _label) {
+        return _label.indexOf('.') != -1 && _label.indexOf('$') == -1;
+    }
+
+    /**
+     * Checks whether a label is a return address emitted by the VM translator.
+     *
+     * @param _label The label.
+     * @return True if the label is of the form returnN, false if not.
+     */
+    private static boolean isReturn(String _label) {
+        if (!_label.startsWith("return") || _label.length() == "return".length()) {
+            return false;
+        }
+        for (int i = "return".length(); i < _label.length(); i++) {
+            if (!Character.isDigit(_label.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs the program under the profiler until it halts or the budget is used up.
+     *
+     * @param _budget The largest number of instructions to execute.
+     * @return The number of instructions executed.
+     */
+    public long run(long _budget) {
+        long executed = 0;
+        while (executed < _budget && !cpu.isHalted()) {
+            int length = runLengths[cpu.getPC()];
+            int last = cpu.getPC() + length - 1;
+            long count = cpu.run(Math.min(length, _budget - executed));
+            executed += count;
+            cycles += count;
+            stackCounters[depth - 1][0] += count;
+
+            //A call ends with a jump just before its return address, which may also be the function called
+            int pc = cpu.getPC();
+            if (count == length && last < Cpu.MEMORY_SIZE - 1 && returns[last + 1]) {
+                calling = true;
+            }
+            else if (returns[pc] && depth > 1) {
+                pop();
+            }
+            if (calling && entries[pc]) {
+                calling = false;
+                calls[functionOf[pc]]++;
+                push(functionOf[pc]);
+            }
+        }
+        return executed;
+    }
+
+    /**
+     * Pushes a function onto the call stack.
+     *
+     * @param _function The function being called.
+     */
+    private void push(int _function) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+            stackCounters = Arrays.copyOf(stackCounters, depth * 2);
+            stackKeys = Arrays.copyOf(stackKeys, depth * 2);
+        }
+        String key = depth == 0 ? functions.get(_function) : stackKeys[depth - 1] + ";" + functions.get(_function);
+        stack[depth] = _function;
+        stackKeys[depth] = key;
+        stackCounters[depth] = collapsed.computeIfAbsent(key, k -> new long[1]);
+        depth++;
+
+        if (active[_function]++ == 0) {
+            entered[_function] = cycles;
+        }
+    }
+
+    /**
+     * Pops the innermost function off the call stack.
+     */
+    private void pop() {
+        depth--;
+        int function = stack[depth];
+        if (--active[function] == 0) {
+            inclusive[function] += cycles - entered[function];
+        }
+    }
+
+    /**
+     * Gets the number of cycles profiled.
+     *
+     * @return The number of instructions executed under the profiler.
+     */
+    public long getCycles() {
+        return cycles;
+    }
+
+    /**
+     * Gets the number of times a function was called.
+     *
+     * @param _function The function name, as in its label.
+     * @return The call count, or 0 if there is no such function.
+     */
+    public long getCalls(String _function) {
+        int function = functions.indexOf(_function);
+        return function != -1 ? calls[function] : 0;
+    }
+
+    /**
+     * Gets the cycles spent in a function, excluding its callees.
+     *
+     * @param _function The function name, as in its label.
+     * @return The exclusive cycle count, or 0 if there is no such function.
+     */
+    public long getExclusive(String _function) {
+        int function = functions.indexOf(_function);
+        return function != -1 ? exclusive()[function] : 0;
+    }
+
+    /**
+     * Gets the cycles spent in a function, including its callees. Recursive activations are only counted once.
+     *
+     * @param _function The function name, as in its label.
+     * @return The inclusive cycle count, or 0 if there is no such function.
+     */
+    public long getInclusive(String _function) {
+        int function = functions.indexOf(_function);
+        return function != -1 ? inclusive(function) : 0;
+    }
+
+    /**
+     * Computes the inclusive cycles of a function, counting an activation still on the stack up to now.
+     *
+     * @param _function The function index.
+     * @return The inclusive cycle count.
+     */
+    private long inclusive(int _function) {
+        return inclusive[_function] + (active[_function] > 0 ? cycles - entered[_function] : 0);
+    }
+
+    /**
+     * Folds the per-address execution counts into functions.
+     *
+     * @return The exclusive cycles of each function.
+     */
+    private long[] exclusive() {
+        long[] exclusive = new long[functions.size()];
+        for (int address = 0; address < Cpu.MEMORY_SIZE; address++) {
+            exclusive[functionOf[address]] += cpu.getProfileCount(address);
+        }
+        return exclusive;
+    }
+
+    /**
+     * Folds the per-address execution counts into labels.
+     *
+     * @return The cycles spent under each label, in order of address.
+     */
+    public Map<String, Long> getLabelCycles() {
+        LinkedHashMap<String, Long> labels = new LinkedHashMap<>();
+        for (int address = 0; address < Cpu.MEMORY_SIZE; address++) {
+            long count = cpu.getProfileCount(address);
+            if (count != 0) {
+                labels.merge(labelOf[address] != null ? labelOf[address] : START, count, Long::sum);
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * Writes a flat report of the functions, then the labels, which used any cycles, busiest first.
+     *
+     * @param _output The stream to write to.
+     */
+    public void writeReport(PrintStream _output) {
+        long[] exclusive = exclusive();
+        ArrayList<Integer> order = new ArrayList<>();
+        for (int function = 0; function < functions.size(); function++) {
+            if (exclusive[function] != 0 || calls[function] != 0) {
+                order.add(function);
+            }
+        }
+        order.sort((x, y) -> Long.compare(exclusive[y], exclusive[x]));
+
+        double total = Math.max(cycles, 1) / 100.0;
+        _output.printf("%-40s %10s %14s %7s %14s %7s%n", "Function", "Calls", "Inclusive", "%", "Exclusive", "%");
+        for (int function: order) {
+            long cumulative = inclusive(function);
+            _output.printf("%-40s %10d %14d %6.2f%% %14d %6.2f%%%n", functions.get(function), calls[function],
+                    cumulative, cumulative / total, exclusive[function], exclusive[function] / total);
+        }
+
+        ArrayList<Map.Entry<String, Long>> labels = new ArrayList<>(getLabelCycles().entrySet());
+        labels.sort((x, y) -> Long.compare(y.getValue(), x.getValue()));
+        _output.println();
+        _output.printf("%-40s %10s %14s %7s%n", "Label", "", "Cycles", "%");
+        for (Map.Entry<String, Long> label: labels) {
+            _output.printf("%-40s %10s %14d %6.2f%%%n", label.getKey(), "", label.getValue(), label.getValue() / total);
+        }
+    }
+
+    /**
+     * Writes the cycles spent in each call stack in the collapsed format read by flame graph tools: one line per
+     * stack, holding its frames from outermost to innermost separated by semicolons, a space and the cycle count.
+     *
+     * @param _output The stream to write to.
+     */
+    public void writeCollapsed(PrintStream _output) {
+        for (Map.Entry<String, long[]> stack: new TreeMap<>(collapsed).entrySet()) {
+            if (stack.getValue()[0] != 0) {
+                _output.println(stack.getKey() + " " + stack.getValue()[0]);
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package nand2tetris.emulator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Class containing static methods for reading ROM images written by the assembler.
+ */
+public class RomReader {
+    /**
+     * Reads a ROM image, choosing the format by file extension: packed big-endian words for .bin files, and
+     * one 16-character binary string per line otherwise.
+     *
+     * @param _input The file to read.
+     * @return The instruction words.
+     */
+    public static int[] read(Path _input) throws IOException {
+        byte[] bytes = Files.readAllBytes(_input);
+        if (_input.getFileName().toString().toLowerCase().endsWith(".bin")) {
+            return readBinary(bytes);
+        }
+        return readText(bytes);
+    }
+
+    /**
+     * Decodes a packed big-endian ROM image.
+     *
+     * @param _bytes The image, two bytes per instruction.
+     * @return The instruction words.
+     */
+    public static int[] readBinary(byte[] _bytes) throws IOException {
+        if (_bytes.length % 2 != 0) {
+            throw new IOException("Binary ROM image has an odd number of bytes.");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(_bytes).order(ByteOrder.BIG_ENDIAN);
+        int[] words = new int[_bytes.length / 2];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = buffer.getShort() & 0xFFFF;
+        }
+        return words;
+    }
+
+    /**
+     * Decodes a .hack text file. Blank lines are ignored.
+     *
+     * @param _bytes The ASCII text of the file.
+     * @return The instruction words.
+     */
+    public static int[] readText(byte[] _bytes) throws IOException {
+        int[] words = new int[_bytes.length / 17 + 1];
+        int count = 0;
+        int word = 0;
+        int digits = 0;
+        int line = 1;
+        for (byte b: _bytes) {
+            switch (b) {
+                case '0':
+                case '1':
+                    word = (word << 1) | (b - '0');
+                    digits++;
+                    break;
+                case '\n':
+                    if (digits != 0) {
+                        if (digits != 16) {
+                            throw new IOException("Line " + line + ": Instruction should have 16 binary digits.");
+                        }
+                        if (count == words.length) {
+                            words = Arrays.copyOf(words, count * 2);
+                        }
+                        words[count++] = word;
+                    }
+                    word = 0;
+                    digits = 0;
+                    line++;
+                    break;
+                case '\r':
+                case ' ':
+                case '\t':
+                    break;
+                default:
+                    throw new IOException("Line " + line + ": Unexpected character '" + (char) b + "'.");
+            }
+        }
+
+        //Keep final line if input does not end in a newline
+        if (digits != 0) {
+            if (digits != 16) {
+                throw new IOException("Line " + line + ": Instruction should have 16 binary digits.");
+            }
+            if (count == words.length) {
+                words = Arrays.copyOf(words, count + 1);
+            }
+            words[count++] = word;
+        }
+        return Arrays.copyOf(words, count);
+    }
+}
@@ -0,0 +1,614 @@
+package nand2tetris.emulator;
+
+import nand2tetris.assembler.Assembler;
+import nand2tetris.assembler.AssemblyException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class which runs a CPU emulator test script (.tst) headlessly. The script is parsed in full before it runs,
+ * then executed against an in-process Cpu. Output lines are written to the output file as they are produced
+ * and compared against the compare file one at a time, so a run stops at the first mismatch.
+ * <p>
+ * Supported commands are load, output-file, compare-to, output-list, output, set, tick, tock, ticktock,
+ * repeat and while, with echo, clear-echo, breakpoint and clear-breakpoints accepted and ignored. Variables
+ * are RAM[i], A, D, PC and time, the number of ticktocks run so far, not counting any after the program halted.
+ */
+public class Script {
+    /**
+     * Class holding a parsed command, along with the body of a repeat or while loop.
+     */
+    private static class Command {
+        /**Script line of the command*/
+        private final int line;
+        /**Command name*/
+        private final String name;
+        /**Arguments following the name*/
+        private final List<String> arguments;
+        /**Commands in the loop body, or null if the command is not a loop*/
+        private List<Command> body;
+
+        /**
+         * Constructs a new command.
+         *
+         * @param _line The script line of the command.
+         * @param _name The command name.
+         */
+        private Command(int _line, String _name) {
+            line = _line;
+            name = _name;
+            arguments = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Class holding one column of the output list.
+     */
+    private static class Column {
+        /**Variable name*/
+        private final String variable;
+        /**Format character: B, X or D*/
+        private final char format;
+        /**Spaces before the value*/
+        private final int padLeft;
+        /**Width of the value*/
+        private final int length;
+        /**Spaces after the value*/
+        private final int padRight;
+
+        /**
+         * Constructs a new column.
+         *
+         * @param _variable The variable name.
+         * @param _format The format character.
+         * @param _padLeft The number of spaces before the value.
+         * @param _length The width of the value.
+         * @param _padRight The number of spaces after the value.
+         */
+        private Column(String _variable, char _format, int _padLeft, int _length, int _padRight) {
+            variable = _variable;
+            format = _format;
+            padLeft = _padLeft;
+            length = _length;
+            padRight = _padRight;
+        }
+    }
+
+    /**Script file*/
+    private final Path script;
+    /**Parsed commands*/
+    private final List<Command> commands;
+    /**Tokens of the script, with the line of each in the parallel list, used while parsing*/
+    private final List<String> tokens;
+    /**Line of each token*/
+    private final List<Integer> tokenLines;
+    /**Index of the next token to parse*/
+    private int position;
+
+    /**CPU running the loaded program*/
+    private Cpu cpu;
+    /**Number of ticktocks run*/
+    private long time;
+    /**Current output list*/
+    private List<Column> outputList;
+    /**Output file writer, or null if the script has no output file*/
+    private BufferedWriter output;
+    /**Compare file reader, or null if the script has no compare file*/
+    private BufferedReader compare;
+    /**Number of output lines written*/
+    private int outputLines;
+
+    /**
+     * Parses a test script.
+     *
+     * @param _script The .tst file.
+     */
+    public Script(Path _script) throws IOException, ScriptException {
+        script = _script;
+        tokens = new ArrayList<>();
+        tokenLines = new ArrayList<>();
+        tokenize(new String(Files.readAllBytes(_script), StandardCharsets.UTF_8));
+        commands = parseCommands(false);
+        cpu = new Cpu(new int[0]);
+    }
+
+    /**
+     * Runs the script. Files named by the script are resolved against its directory.
+     *
+     * @return The number of output lines produced.
+     */
+    public int run() throws IOException, ScriptException {
+        try {
+            execute(commands);
+        }
+        finally {
+            if (output != null) {
+                output.close();
+            }
+            if (compare != null) {
+                compare.close();
+            }
+        }
+        return outputLines;
+    }
+
+    /**
+     * Splits the script into tokens, dropping comments. Commas, semicolons and braces are tokens of their own,
+     * and quoted strings are single tokens without their quotes.
+     *
+     * @param _text The script text.
+     */
+    private void tokenize(String _text) throws ScriptException {
+        int line = 1;
+        int i = 0;
+        while (i < _text.length()) {
+            char c = _text.charAt(i);
+            if (c == '\n') {
+                line++;
+                i++;
+            }
+            else if (Character.isWhitespace(c)) {
+                i++;
+            }
+            else if (_text.startsWith("//", i)) {
+                while (i < _text.length() && _text.charAt(i) != '\n') {
+                    i++;
+                }
+            }
+            else if (_text.startsWith("/*", i)) {
+                int end = _text.indexOf("*/", i + 2);
+                if (end == -1) {
+                    throw new ScriptException(line, "Unterminated comment.");
+                }
+                for (int j = i; j < end; j++) {
+                    if (_text.charAt(j) == '\n') {
+                        line++;
+                    }
+                }
+                i = end + 2;
+            }
+            else if (c == ',' || c == ';' || c == '{' || c == '}') {
+                addToken(String.valueOf(c), line);
+                i++;
+            }
+            else if (c == '"') {
+                int end = _text.indexOf('"', i + 1);
+                if (end == -1) {
+                    throw new ScriptException(line, "Unterminated string.");
+                }
+                addToken(_text.substring(i + 1, end), line);
+                i = end + 1;
+            }
+            else {
+                int start = i;
+                while (i < _text.length() && !Character.isWhitespace(_text.charAt(i))
+                        && ",;{}\"".indexOf(_text.charAt(i)) == -1) {
+                    i++;
+                }
+                addToken(_text.substring(start, i), line);
+            }
+        }
+    }
+
+    /**
+     * Appends a token.
+     *
+     * @param _token The token text.
+     * @param _line The script line of the token.
+     */
+    private void addToken(String _token, int _line) {
+        tokens.add(_token);
+        tokenLines.add(_line);
+    }
+
+    /**
+     * Parses commands up to the end of the script or of the enclosing loop body.
+     *
+     * @param _nested True if parsing a loop body, which ends at a closing brace.
+     * @return The parsed commands.
+     */
+    private List<Command> parseCommands(boolean _nested) throws ScriptException {
+        ArrayList<Command> parsed = new ArrayList<>();
+        while (position < tokens.size()) {
+            int line = tokenLines.get(position);
+            String token = tokens.get(position++);
+            if (token.equals("}")) {
+                if (!_nested) {
+                    throw new ScriptException(line, "Unexpected '}'.");
+                }
+                return parsed;
+            }
+
+            Command command = new Command(line, token);
+            switch (token) {
+                case "repeat":
+                case "while":
+                    while (position < tokens.size() && !tokens.get(position).equals("{")) {
+                        command.arguments.add(tokens.get(position++));
+                    }
+                    if (position++ == tokens.size()) {
+                        throw new ScriptException(line, "Expected '{' after " + token + ".");
+                    }
+                    if (token.equals("repeat") ? command.arguments.size() != 1 : command.arguments.size() != 3) {
+                        throw new ScriptException(line, token.equals("repeat")
+                                ? "Expected a repeat count." : "Expected a condition of the form variable op value.");
+                    }
+                    command.body = parseCommands(true);
+                    break;
+                case ",":
+                case ";":
+                case "{":
+                    throw new ScriptException(line, "Unexpected '" + token + "'.");
+                default:
+                    while (position < tokens.size() && !tokens.get(position).equals(",")
+                            && !tokens.get(position).equals(";")) {
+                        command.arguments.add(tokens.get(position++));
+                    }
+                    if (position++ == tokens.size()) {
+                        throw new ScriptException(line, "Expected ',' or ';' after " + token + ".");
+                    }
+                    break;
+            }
+            parsed.add(command);
+        }
+        if (_nested) {
+            throw new ScriptException(tokenLines.get(tokenLines.size() - 1), "Expected '}'.");
+        }
+        return parsed;
+    }
+
+    /**
+     * Executes a list of commands.
+     *
+     * @param _commands The commands to execute.
+     */
+    private void execute(List<Command> _commands) throws IOException, ScriptException {
+        for (Command command: _commands) {
+            switch (command.name) {
+                case "load":
+                    load(command);
+                    break;
+                case "output-file":
+                    if (output != null) {
+                        output.close();
+                    }
+                    output = Files.newBufferedWriter(resolve(command), StandardCharsets.UTF_8);
+                    break;
+                case "compare-to":
+                    if (compare != null) {
+                        compare.close();
+                    }
+                    compare = Files.newBufferedReader(resolve(command), StandardCharsets.UTF_8);
+                    break;
+                case "output-list":
+                    outputList = new ArrayList<>();
+                    for (String argument: command.arguments) {
+                        outputList.add(parseColumn(command.line, argument));
+                    }
+                    writeHeader(command.line);
+                    break;
+                case "output":
+                    writeValues(command.line);
+                    break;
+                case "set":
+                    if (command.arguments.size() != 2) {
+                        throw new ScriptException(command.line, "Expected set variable value.");
+                    }
+                    setVariable(command.line, command.arguments.get(0), parseValue(command.line, command.arguments.get(1)));
+                    break;
+                case "tick":
+                    cpu.run(1);
+                    break;
+                case "tock":
+                    time++;
+                    break;
+                case "ticktock":
+                    time += cpu.run(1);
+                    break;
+                case "repeat":
+                    repeat(command);
+                    break;
+                case "while":
+                    while (condition(command)) {
+                        execute(command.body);
+                    }
+                    break;
+                case "echo":
+                case "clear-echo":
+                case "breakpoint":
+                case "clear-breakpoints":
+                    break;
+                default:
+                    throw new ScriptException(command.line, "Unknown command " + command.name + ".");
+            }
+        }
+    }
+
+    /**
+     * Executes a repeat loop. A body consisting only of ticktock runs the CPU for the whole count at once.
+     *
+     * @param _command The repeat command.
+     */
+    private void repeat(Command _command) throws IOException, ScriptException {
+        long count;
+        try {
+            count = Long.parseLong(_command.arguments.get(0));
+        }
+        catch (NumberFormatException e) {
+            throw new ScriptException(_command.line, "Invalid repeat count " + _command.arguments.get(0) + ".");
+        }
+
+        if (_command.body.size() == 1 && _command.body.get(0).name.equals("ticktock")) {
+            //Count only the instructions run, as the program may halt part way through
+            time += cpu.run(count);
+            return;
+        }
+        for (long i = 0; i < count; i++) {
+            execute(_command.body);
+        }
+    }
+
+    /**
+     * Evaluates the condition of a while loop.
+     *
+     * @param _command The while command.
+     * @return True if the loop should run again, false if not.
+     */
+    private boolean condition(Command _command) throws ScriptException {
+        long left = getVariable(_command.line, _command.arguments.get(0));
+        long right = parseValue(_command.line, _command.arguments.get(2));
+        switch (_command.arguments.get(1)) {
+            case "=":
+                return left == right;
+            case "<>":
+                return left != right;
+            case "<":
+                return left < right;
+            case ">":
+                return left > right;
+            case "<=":
+                return left <= right;
+            case ">=":
+                return left >= right;
+            default:
+                throw new ScriptException(_command.line, "Unknown comparison " + _command.arguments.get(1) + ".");
+        }
+    }
+
+    /**
+     * Loads a program into a new CPU, assembling it first if it is an .asm file.
+     *
+     * @param _command The load command.
+     */
+    private void load(Command _command) throws IOException, ScriptException {
+        Path program = resolve(_command);
+        try {
+            int[] rom;
+            if (program.getFileName().toString().toLowerCase().endsWith(".asm")) {
+                rom = new Assembler().assemble(program);
+            }
+            else {
+                rom = RomReader.read(program);
+            }
+            cpu = new Cpu(rom);
+        }
+        catch (AssemblyException | IllegalArgumentException e) {
+            throw new ScriptException(_command.line, "Error loading " + program.getFileName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Resolves the file named by a command against the script's directory.
+     *
+     * @param _command A command with a single file argument.
+     * @return The file path.
+     */
+    private Path resolve(Command _command) throws ScriptException {
+        if (_command.arguments.size() != 1) {
+            throw new ScriptException(_command.line, "Expected a file name after " + _command.name + ".");
+        }
+        Path directory = script.toAbsolutePath().getParent();
+        return directory.resolve(_command.arguments.get(0));
+    }
+
+    /**
+     * Parses an output list entry of the form variable%Fpad.length.pad. The format defaults to B1.16.1.
+     *
+     * @param _line The script line.
+     * @param _entry The entry.
+     * @return The column.
+     */
+    private Column parseColumn(int _line, String _entry) throws ScriptException {
+        int percent = _entry.indexOf('%');
+        if (percent == -1) {
+            return new Column(_entry, 'B', 1, 16, 1);
+        }
+        String[] sizes = _entry.substring(percent + 2).split("\\.");
+        char format = percent + 1 < _entry.length() ? _entry.charAt(percent + 1) : ' ';
+        if ((format != 'B' && format != 'X' && format != 'D') || sizes.length != 3) {
+            throw new ScriptException(_line, "Invalid output format " + _entry + ".");
+        }
+        try {
+            return new Column(_entry.substring(0, percent), format,
+                    Integer.parseInt(sizes[0]), Integer.parseInt(sizes[1]), Integer.parseInt(sizes[2]));
+        }
+        catch (NumberFormatException e) {
+            throw new ScriptException(_line, "Invalid output format " + _entry + ".");
+        }
+    }
+
+    /**
+     * Writes the header line for the current output list, with each variable name centered in its column.
+     *
+     * @param _line The script line.
+     */
+    private void writeHeader(int _line) throws IOException, ScriptException {
+        StringBuilder header = new StringBuilder("|");
+        for (Column column: outputList) {
+            int width = column.padLeft + column.length + column.padRight;
+            String name = column.variable.length() > width ? column.variable.substring(0, width) : column.variable;
+            int left = (width - name.length()) / 2;
+            header.append(" ".repeat(left)).append(name).append(" ".repeat(width - left - name.length())).append('|');
+        }
+        writeLine(_line, header.toString());
+    }
+
+    /**
+     * Writes the current values of the output list, right-aligned in their columns.
+     *
+     * @param _line The script line.
+     */
+    private void writeValues(int _line) throws IOException, ScriptException {
+        if (outputList == null) {
+            throw new ScriptException(_line, "Output without an output list.");
+        }
+        StringBuilder values = new StringBuilder("|");
+        for (Column column: outputList) {
+            int value = (int) getVariable(_line, column.variable);
+            String text;
+            switch (column.format) {
+                case 'B':
+                    text = String.format("%16s", Integer.toBinaryString(value & 0xFFFF)).replace(' ', '0');
+                    break;
+                case 'X':
+                    text = String.format("%04X", value & 0xFFFF);
+                    break;
+                default:
+                    text = String.valueOf(value);
+                    break;
+            }
+            if (text.length() > column.length) {
+                text = text.substring(text.length() - column.length);
+            }
+            values.append(" ".repeat(column.padLeft + column.length - text.length())).append(text)
+                    .append(" ".repeat(column.padRight)).append('|');
+        }
+        writeLine(_line, values.toString());
+    }
+
+    /**
+     * Writes an output line and compares it against the next line of the compare file. An asterisk in the
+     * compare file matches any character.
+     *
+     * @param _line The script line.
+     * @param _text The output line.
+     */
+    private void writeLine(int _line, String _text) throws IOException, ScriptException {
+        outputLines++;
+        if (output != null) {
+            output.write(_text);
+            output.write('\n');
+        }
+        if (compare != null) {
+            String expected = compare.readLine();
+            boolean matches = expected != null && expected.length() == _text.length();
+            for (int i = 0; matches && i < expected.length(); i++) {
+                matches = expected.charAt(i) == '*' || expected.charAt(i) == _text.charAt(i);
+            }
+            if (!matches) {
+                throw new ScriptException(_line, "Comparison failure at line " + outputLines + ": expected "
+                        + (expected == null ? "end of file" : expected) + ", got " + _text);
+            }
+        }
+    }
+
+    /**
+     * Reads a variable.
+     *
+     * @param _line The script line.
+     * @param _variable The variable name.
+     * @return The value of the variable.
+     */
+    private long getVariable(int _line, String _variable) throws ScriptException {
+        switch (_variable) {
+            case "A":
+                return cpu.getA();
+            case "D":
+                return cpu.getD();
+            case "PC":
+                return cpu.getPC();
+            case "time":
+                return time;
+            default:
+                return cpu.getRam(parseRamAddress(_line, _variable));
+        }
+    }
+
+    /**
+     * Writes a variable.
+     *
+     * @param _line The script line.
+     * @param _variable The variable name.
+     * @param _value The value to store.
+     */
+    private void setVariable(int _line, String _variable, int _value) throws ScriptException {
+        switch (_variable) {
+            case "A":
+                cpu.setA(_value);
+                break;
+            case "D":
+                cpu.setD(_value);
+                break;
+            case "PC":
+                cpu.setPC(_value);
+                break;
+            default:
+                cpu.setRam(parseRamAddress(_line, _variable), _value);
+                break;
+        }
+    }
+
+    /**
+     * Parses a variable of the form RAM[i].
+     *
+     * @param _line The script line.
+     * @param _variable The variable name.
+     * @return The RAM address.
+     */
+    private static int parseRamAddress(int _line, String _variable) throws ScriptException {
+        if (_variable.startsWith("RAM[") && _variable.endsWith("]")) {
+            try {
+                int address = Integer.parseInt(_variable.substring(4, _variable.length() - 1));
+                if (address >= 0 && address < Cpu.MEMORY_SIZE) {
+                    return address;
+                }
+            }
+            catch (NumberFormatException e) {
+                //Reported below
+            }
+        }
+        throw new ScriptException(_line, "Unknown variable " + _variable + ".");
+    }
+
+    /**
+     * Parses a value, in decimal or with a %D, %X or %B prefix.
+     *
+     * @param _line The script line.
+     * @param _value The value text.
+     * @return The value.
+     */
+    private static int parseValue(int _line, String _value) throws ScriptException {
+        try {
+            if (_value.startsWith("%X")) {
+                return Integer.parseInt(_value.substring(2), 16);
+            }
+            if (_value.startsWith("%B")) {
+                return Integer.parseInt(_value.substring(2), 2);
+            }
+            if (_value.startsWith("%D")) {
+                return Integer.parseInt(_value.substring(2));
+            }
+            return Integer.parseInt(_value);
+        }
+        catch (NumberFormatException e) {
+            throw new ScriptException(_line, "Invalid value " + _value + ".");
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package nand2tetris.emulator;
+
+/**
+ * Custom exception for errors in test scripts, including comparison failures.
+ */
+public class ScriptException extends Exception {
+    /**Script line on which the error was found, or 0 if it is not tied to a line*/
+    private final int line;
+
+    /**
+     * Overloaded constructor - calls default exception constructor.
+     *
+     * @param errorMessage The error message to throw.
+     */
+    public ScriptException(String errorMessage) {
+        super(errorMessage);
+        line = 0;
+    }
+
+    /**
+     * Constructs an exception for an error on a given script line.
+     *
+     * @param _line The 1-based script line number.
+     * @param errorMessage The error message to throw.
+     */
+    public ScriptException(int _line, String errorMessage) {
+        super("Line " + _line + ": " + errorMessage);
+        line = _line;
+    }
+
+    /**
+     * Gets the script line on which the error was found.
+     *
+     * @return The 1-based line number, or 0 if the error is not tied to a line.
+     */
+    public int getLine() {
+        return line;
+    }
+}
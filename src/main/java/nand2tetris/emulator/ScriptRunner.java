@@ -0,0 +1,200 @@
+package nand2tetris.emulator;
+
+import nand2tetris.assembler.InputFiles;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Primary test script runner class. Runs the .tst scripts named on the command line, or found under the named
+ * directories, concurrently on a work-stealing pool. Each script gets its own Cpu, so scripts are independent.
+ * Failures are reported in sorted path order regardless of completion order.
+ */
+public class ScriptRunner {
+    /**
+     * Class holding the outcome of running one script.
+     */
+    public static class Result {
+        /**Script file*/
+        private final Path script;
+        /**Number of output lines produced, or -1 if the script failed*/
+        private final int lineCount;
+        /**Error message, or null if the script passed*/
+        private final String error;
+
+        /**
+         * Constructs a new result.
+         *
+         * @param _script The script file.
+         * @param _lineCount The number of output lines produced, or -1 if the script failed.
+         * @param _error The error message, or null if the script passed.
+         */
+        private Result(Path _script, int _lineCount, String _error) {
+            script = _script;
+            lineCount = _lineCount;
+            error = _error;
+        }
+
+        /**
+         * Gets the script file.
+         *
+         * @return The path of the .tst file.
+         */
+        public Path getScript() {
+            return script;
+        }
+
+        /**
+         * Gets the number of output lines produced.
+         *
+         * @return The line count, or -1 if the script failed.
+         */
+        public int getLineCount() {
+            return lineCount;
+        }
+
+        /**
+         * Gets the error message for a failed script.
+         *
+         * @return The error message, or null if the script passed.
+         */
+        public String getError() {
+            return error;
+        }
+    }
+
+    public static void main(String[] args) {
+        //Parse options
+        int threads = Runtime.getRuntime().availableProcessors();
+        ArrayList<String> arguments = new ArrayList<>();
+        boolean valid = true;
+        for (String arg: args) {
+            if (arg.startsWith("--threads=")) {
+                try {
+                    threads = Integer.parseInt(arg.substring("--threads=".length()));
+                    valid &= threads > 0;
+                }
+                catch (NumberFormatException e) {
+                    valid = false;
+                }
+            }
+            else if (!arg.startsWith("--")) {
+                arguments.add(arg);
+            }
+            else {
+                valid = false;
+            }
+        }
+
+        if (!valid || arguments.isEmpty()) {
+            System.err.println("Usage: ScriptRunner.jar [--threads=N] [filename | directory]...");
+            System.exit(1);
+        }
+
+        InputFiles scripts = InputFiles.expand(arguments, ".tst", argument -> findScripts(Paths.get(argument)));
+        if (scripts.getFiles().isEmpty()) {
+            System.exit(1);
+        }
+
+        long startTime = System.nanoTime();
+        List<Result> results = runAll(scripts.getFiles(), threads);
+        double seconds = Math.max(System.nanoTime() - startTime, 1) / 1e9;
+
+        int failed = 0;
+        for (Result result: results) {
+            if (result.getError() != null) {
+                failed++;
+                System.err.println(result.getScript() + ": Failed:");
+                System.err.println(result.getError());
+            }
+        }
+        System.out.printf("Passed %d of %d scripts in %.3f s%n", results.size() - failed, results.size(), seconds);
+        if (failed != 0 || scripts.getFailureCount() != 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Finds test scripts. A directory expands to the .tst files anywhere beneath it.
+     *
+     * @param _path A script file or directory.
+     * @return The matching files, in sorted order.
+     */
+    public static List<Path> findScripts(Path _path) throws IOException {
+        ArrayList<Path> scripts = new ArrayList<>();
+        if (Files.isDirectory(_path)) {
+            try (Stream<Path> files = Files.walk(_path)) {
+                files.filter(p -> Files.isRegularFile(p) && p.getFileName().toString().endsWith(".tst"))
+                        .sorted()
+                        .forEach(scripts::add);
+            }
+        }
+        else if (Files.exists(_path)) {
+            scripts.add(_path);
+        }
+        return scripts;
+    }
+
+    /**
+     * Runs scripts concurrently. Idle workers steal queued scripts from busy ones, so a few long scripts do not
+     * hold up the rest.
+     *
+     * @param _scripts The .tst files to run.
+     * @param _threads The number of scripts to run at once.
+     * @return One result per script, in the same order as the scripts.
+     */
+    public static List<Result> runAll(List<Path> _scripts, int _threads) {
+        ForkJoinPool pool = new ForkJoinPool(_threads);
+        ArrayList<Callable<Result>> tasks = new ArrayList<>();
+        for (Path script: _scripts) {
+            tasks.add(() -> runScript(script));
+        }
+
+        ArrayList<Result> results = new ArrayList<>();
+        try {
+            List<Future<Result>> futures = pool.invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                }
+                catch (ExecutionException e) {
+                    results.add(new Result(_scripts.get(i), -1, String.valueOf(e.getCause())));
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    results.add(new Result(_scripts.get(i), -1, "Interrupted while running."));
+                }
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+        return results;
+    }
+
+    /**
+     * Runs a single script, capturing any error in the result.
+     *
+     * @param _script The .tst file to run.
+     * @return The result for this script.
+     */
+    public static Result runScript(Path _script) {
+        try {
+            return new Result(_script, new Script(_script).run(), null);
+        }
+        catch (ScriptException e) {
+            return new Result(_script, -1, e.getMessage());
+        }
+        catch (IOException e) {
+            return new Result(_script, -1, "IOException: " + e.getMessage());
+        }
+    }
+}
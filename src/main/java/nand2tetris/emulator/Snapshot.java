@@ -0,0 +1,143 @@
+package nand2tetris.emulator;
+
+/**
+ * Class holding an immutable image of a Cpu's registers, program counter and RAM, taken with Cpu.snapshot.
+ * RAM is held as fixed-size pages. Pages of zeros are not stored, and a page which has not been written since
+ * the Cpu was last restored or snapshotted is shared with that snapshot rather than copied, so a run of
+ * snapshots costs only the pages each step touched. Pages are never written after capture, so any number of
+ * Cpus may be restored or forked from one snapshot, including from different threads.
+ */
+public final class Snapshot {
+    /**Number of address bits within a page*/
+    static final int PAGE_SHIFT = 8;
+    /**Number of words in a page*/
+    static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    /**Number of pages of RAM*/
+    static final int PAGE_COUNT = Cpu.MEMORY_SIZE / PAGE_SIZE;
+
+    /**Decoded ROM of the Cpu the snapshot was taken from*/
+    final int[] program;
+    /**Number of words loaded into ROM*/
+    final int programLength;
+    /**RAM pages, or null for pages of zeros*/
+    final short[][] pages;
+    /**A register*/
+    final int a;
+    /**D register*/
+    final int d;
+    /**Program counter*/
+    final int pc;
+    /**Number of instructions executed since reset*/
+    final long cycles;
+    /**Whether the program had halted*/
+    final boolean halted;
+
+    /**
+     * Constructs a snapshot. The arrays are taken over, not copied.
+     *
+     * @param _program The decoded ROM.
+     * @param _programLength The number of words loaded into ROM.
+     * @param _pages The RAM pages, or null for pages of zeros.
+     * @param _a The A register.
+     * @param _d The D register.
+     * @param _pc The program counter.
+     * @param _cycles The number of instructions executed since reset.
+     * @param _halted Whether the program had halted.
+     */
+    Snapshot(int[] _program, int _programLength, short[][] _pages, int _a, int _d, int _pc, long _cycles, boolean _halted) {
+        program = _program;
+        programLength = _programLength;
+        pages = _pages;
+        a = _a;
+        d = _d;
+        pc = _pc;
+        cycles = _cycles;
+        halted = _halted;
+    }
+
+    /**
+     * Creates a new Cpu in the captured state. The Cpu shares the decoded ROM with the snapshot's Cpu but has
+     * its own RAM, and starts with tiered execution, superinstructions and profiling disabled.
+     *
+     * @return The new Cpu.
+     */
+    public Cpu fork() {
+        Cpu cpu = new Cpu(this);
+        cpu.restore(this);
+        return cpu;
+    }
+
+    /**
+     * Creates independent Cpus in the captured state.
+     *
+     * @param _count The number of Cpus to create.
+     * @return The new Cpus.
+     */
+    public Cpu[] fork(int _count) {
+        Cpu[] cpus = new Cpu[_count];
+        for (int i = 0; i < _count; i++) {
+            cpus[i] = fork();
+        }
+        return cpus;
+    }
+
+    /**
+     * Gets a word of the captured RAM.
+     *
+     * @param _address The address, from 0 to 32767.
+     * @return The signed 16-bit value at that address.
+     */
+    public int getRam(int _address) {
+        short[] page = pages[_address >>> PAGE_SHIFT];
+        return page != null ? page[_address & (PAGE_SIZE - 1)] : 0;
+    }
+
+    /**
+     * Gets the captured program counter.
+     *
+     * @return The ROM address of the next instruction.
+     */
+    public int getPC() {
+        return pc;
+    }
+
+    /**
+     * Gets the captured cycle count.
+     *
+     * @return The number of instructions executed since reset.
+     */
+    public long getCycles() {
+        return cycles;
+    }
+
+    /**
+     * Gets the number of RAM pages held by this snapshot, including pages shared with other snapshots.
+     *
+     * @return The number of pages which are not all zeros.
+     */
+    public int getPageCount() {
+        int count = 0;
+        for (short[] page: pages) {
+            if (page != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Counts the RAM pages this snapshot shares with another.
+     *
+     * @param _other The other snapshot.
+     * @return The number of stored pages held by both.
+     */
+    public int getSharedPageCount(Snapshot _other) {
+        int count = 0;
+        for (int page = 0; page < PAGE_COUNT; page++) {
+            if (pages[page] != null && pages[page] == _other.pages[page]) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
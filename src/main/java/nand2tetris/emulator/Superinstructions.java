@@ -0,0 +1,271 @@
+package nand2tetris.emulator;
+
+import nand2tetris.assembler.Code;
+
+/**
+ * Class containing static methods for recognizing the instruction sequences the VM translator emits for push, pop,
+ * call and return commands, and for executing each such sequence in one step. Execution performs the same reads
+ * and writes in the same order as the original instructions and leaves A, D and the program counter as they
+ * would be, so the only difference from interpreting the sequence is speed.
+ */
+class Superinstructions {
+    //Superinstruction kinds, 0 meaning no superinstruction starts at an address
+    static final int NONE = 0;
+    static final int PUSH_CONSTANT = 1;
+    static final int PUSH_SEGMENT = 2;
+    static final int PUSH_FIXED = 3;
+    static final int POP_SEGMENT = 4;
+    static final int POP_FIXED = 5;
+    static final int CALL = 6;
+    static final int RETURN = 7;
+
+    /**Instruction sequence of each kind, where "@?" matches any load*/
+    private static final String[] PATTERNS = {
+            "",
+            //push constant i
+            "@? D=A @0 A=M M=D @0 M=M+1",
+            //push local, argument, this or that i
+            "@? D=A @? D=D+M A=D D=M @0 A=M M=D @0 M=M+1",
+            //push pointer, temp or static i
+            "@? D=A A=D D=M @0 A=M M=D @0 M=M+1",
+            //pop local, argument, this or that i
+            "@? D=A @? D=D+M @13 M=D @0 A=M-1 D=M @13 A=M M=D @0 M=M-1",
+            //pop pointer, temp or static i
+            "@? D=A @13 M=D @0 A=M-1 D=M @13 A=M M=D @0 M=M-1",
+            //call f n
+            "@? D=A @0 M=M+1 A=M-1 M=D @1 D=M @0 M=M+1 A=M-1 M=D @2 D=M @0 M=M+1 A=M-1 M=D "
+                    + "@3 D=M @0 M=M+1 A=M-1 M=D @4 D=M @0 M=M+1 A=M-1 M=D "
+                    + "@? D=A @0 D=M-D @2 M=D @0 D=M @1 M=D @? 0;JMP",
+            //return
+            "@1 D=M @14 M=D @5 A=D-A D=M @15 M=D @0 A=M-1 D=M @2 A=M M=D @2 D=M+1 @0 M=D "
+                    + "@14 A=M-1 D=M @4 M=D @14 D=M @2 A=D-A D=M @3 M=D @14 D=M @3 A=D-A D=M @2 M=D "
+                    + "@14 D=M @4 A=D-A D=M @1 M=D @15 A=M 0;JMP"
+    };
+
+    /**Decoded instructions of each pattern, with -1 for loads of any value*/
+    private static final int[][] DECODED = new int[PATTERNS.length][];
+
+    static {
+        DECODED[NONE] = new int[0];
+        for (int kind = 1; kind < PATTERNS.length; kind++) {
+            String[] instructions = PATTERNS[kind].split(" ");
+            DECODED[kind] = new int[instructions.length];
+            for (int i = 0; i < instructions.length; i++) {
+                DECODED[kind][i] = decodePattern(instructions[i]);
+            }
+        }
+    }
+
+    /**
+     * Decodes one instruction of a pattern.
+     *
+     * @param _instruction The instruction, in assembly.
+     * @return The decoded instruction, or -1 for a load of any value.
+     */
+    private static int decodePattern(String _instruction) {
+        if (_instruction.equals("@?")) {
+            return -1;
+        }
+        if (_instruction.startsWith("@")) {
+            return Cpu.decode(Integer.parseInt(_instruction.substring(1)));
+        }
+        int equals = _instruction.indexOf('=');
+        int semicolon = _instruction.indexOf(';');
+        String dest = equals == -1 ? "" : _instruction.substring(0, equals);
+        String comp = _instruction.substring(equals + 1, semicolon == -1 ? _instruction.length() : semicolon);
+        String jump = semicolon == -1 ? "" : _instruction.substring(semicolon + 1);
+        return Cpu.decode(0b111 << 13 | Code.comp(comp) << 6 | Code.dest(dest) << 3 | Code.jump(jump));
+    }
+
+    /**
+     * Gets the number of instructions a superinstruction replaces.
+     *
+     * @param _kind The superinstruction kind.
+     * @return The length of its instruction sequence.
+     */
+    static int length(int _kind) {
+        return DECODED[_kind].length;
+    }
+
+    /**
+     * Finds the superinstruction starting at each ROM address. Sequences may overlap, since the program may jump
+     * into the middle of one.
+     *
+     * @param _program The decoded ROM.
+     * @param _programLength The number of words loaded into ROM.
+     * @return The superinstruction kind starting at each ROM address.
+     */
+    static byte[] match(int[] _program, int _programLength) {
+        byte[] kinds = new byte[_program.length];
+        for (int pc = 0; pc < _programLength; pc++) {
+            for (int kind = 1; kind < DECODED.length; kind++) {
+                if (matches(_program, _programLength, pc, DECODED[kind])) {
+                    kinds[pc] = (byte) kind;
+                    break;
+                }
+            }
+        }
+
+        //A call to a function placed directly at its own jump would be the halting idiom, which only the
+        //interpreter detects
+        for (int pc = 0; pc < _programLength; pc++) {
+            if (kinds[pc] == CALL && operand(_program, pc + 40) == pc + 40) {
+                kinds[pc] = NONE;
+            }
+        }
+        return kinds;
+    }
+
+    /**
+     * Checks whether a pattern occurs at an address.
+     *
+     * @param _program The decoded ROM.
+     * @param _programLength The number of words loaded into ROM.
+     * @param _start The address to check.
+     * @param _pattern The decoded pattern.
+     * @return True if the pattern matches, false if not.
+     */
+    private static boolean matches(int[] _program, int _programLength, int _start, int[] _pattern) {
+        if (_start + _pattern.length > _programLength) {
+            return false;
+        }
+        for (int i = 0; i < _pattern.length; i++) {
+            int instruction = _program[_start + i];
+            if (_pattern[i] == -1 ? (instruction & Cpu.OP_MASK) != Cpu.OP_LOAD : instruction != _pattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the value loaded by a load instruction.
+     *
+     * @param _program The decoded ROM.
+     * @param _address The address of the load.
+     * @return The loaded value.
+     */
+    private static int operand(int[] _program, int _address) {
+        return _program[_address] >>> Cpu.OPERAND_SHIFT;
+    }
+
+    /**
+     * Executes a superinstruction.
+     *
+     * @param _kind The superinstruction kind.
+     * @param _program The decoded ROM.
+     * @param _pc The address of the superinstruction.
+     * @param _ram The CPU's RAM.
+     * @param _registers The A and D registers, at indices 0 and 1, which are written on exit. Every sequence sets
+     * both before using them.
+     * @return The address of the next instruction to execute.
+     */
+    static int execute(int _kind, int[] _program, int _pc, short[] _ram, int[] _registers) {
+        int a;
+        int d;
+        switch (_kind) {
+            case PUSH_CONSTANT:
+                d = operand(_program, _pc);
+                a = push(_ram, d);
+                break;
+            case PUSH_SEGMENT:
+                d = (short) (operand(_program, _pc) + _ram[operand(_program, _pc + 2)]);
+                d = _ram[d & 0x7FFF];
+                a = push(_ram, d);
+                break;
+            case PUSH_FIXED:
+                d = _ram[operand(_program, _pc)];
+                a = push(_ram, d);
+                break;
+            case POP_SEGMENT:
+                d = (short) (operand(_program, _pc) + _ram[operand(_program, _pc + 2)]);
+                d = pop(_ram, d);
+                a = 0;
+                break;
+            case POP_FIXED:
+                d = pop(_ram, operand(_program, _pc));
+                a = 0;
+                break;
+            case CALL:
+                pushFrame(_ram, operand(_program, _pc));
+                pushFrame(_ram, _ram[1]);
+                pushFrame(_ram, _ram[2]);
+                pushFrame(_ram, _ram[3]);
+                pushFrame(_ram, _ram[4]);
+                _ram[2] = (short) (_ram[0] - operand(_program, _pc + 30));
+                d = _ram[0];
+                _ram[1] = (short) d;
+                a = operand(_program, _pc + 40);
+                _registers[0] = a;
+                _registers[1] = d;
+                return a;
+            case RETURN:
+                return executeReturn(_ram, _registers);
+            default:
+                throw new IllegalArgumentException("Unknown superinstruction " + _kind);
+        }
+        _registers[0] = a;
+        _registers[1] = d;
+        return (_pc + length(_kind)) & 0x7FFF;
+    }
+
+    /**
+     * Executes {@code @SP A=M M=D @SP M=M+1}, which leaves 0 in A.
+     *
+     * @param _ram The CPU's RAM.
+     * @param _value The value of D.
+     * @return The final value of A.
+     */
+    private static int push(short[] _ram, int _value) {
+        _ram[_ram[0] & 0x7FFF] = (short) _value;
+        _ram[0] = (short) (_ram[0] + 1);
+        return 0;
+    }
+
+    /**
+     * Executes {@code @13 M=D @SP A=M-1 D=M @13 A=M M=D @SP M=M-1}, which leaves 0 in A.
+     *
+     * @param _ram The CPU's RAM.
+     * @param _address The value of D, the address to pop to.
+     * @return The final value of D, the popped value.
+     */
+    private static int pop(short[] _ram, int _address) {
+        _ram[13] = (short) _address;
+        int value = _ram[(_ram[0] - 1) & 0x7FFF];
+        _ram[_ram[13] & 0x7FFF] = (short) value;
+        _ram[0] = (short) (_ram[0] - 1);
+        return value;
+    }
+
+    /**
+     * Executes {@code @SP M=M+1 A=M-1 M=D}.
+     *
+     * @param _ram The CPU's RAM.
+     * @param _value The value of D.
+     */
+    private static void pushFrame(short[] _ram, int _value) {
+        _ram[0] = (short) (_ram[0] + 1);
+        _ram[(_ram[0] - 1) & 0x7FFF] = (short) _value;
+    }
+
+    /**
+     * Executes the return sequence.
+     *
+     * @param _ram The CPU's RAM.
+     * @param _registers The A and D registers, which are written on exit.
+     * @return The return address.
+     */
+    private static int executeReturn(short[] _ram, int[] _registers) {
+        _ram[14] = _ram[1];
+        _ram[15] = _ram[(_ram[14] - 5) & 0x7FFF];
+        _ram[_ram[2] & 0x7FFF] = _ram[(_ram[0] - 1) & 0x7FFF];
+        _ram[0] = (short) (_ram[2] + 1);
+        _ram[4] = _ram[(_ram[14] - 1) & 0x7FFF];
+        _ram[3] = _ram[(_ram[14] - 2) & 0x7FFF];
+        _ram[2] = _ram[(_ram[14] - 3) & 0x7FFF];
+        _ram[1] = _ram[(_ram[14] - 4) & 0x7FFF];
+        _registers[0] = _ram[15];
+        _registers[1] = _ram[1];
+        return _ram[15] & 0x7FFF;
+    }
+}
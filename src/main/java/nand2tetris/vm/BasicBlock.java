@@ -0,0 +1,89 @@
+package nand2tetris.vm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class holding a basic block of VM commands: a run which is only entered at its first command and only left
+ * after its last. A block starts at a function or label and ends after a goto, if-goto, call or return, so the
+ * depth of the stack relative to its start is known at every command.
+ */
+public class BasicBlock {
+    /**Commands in the block*/
+    private final List<Command> commands;
+
+    /**
+     * Constructs a new block.
+     *
+     * @param _commands The commands in the block.
+     */
+    private BasicBlock(List<Command> _commands) {
+        commands = Collections.unmodifiableList(_commands);
+    }
+
+    /**
+     * Reads the remaining commands of a parser and splits them into basic blocks.
+     *
+     * @param _parser The parser to read from.
+     * @return The blocks, in program order.
+     */
+    public static List<BasicBlock> partition(Parser _parser) {
+        ArrayList<BasicBlock> blocks = new ArrayList<>();
+        ArrayList<Command> commands = new ArrayList<>();
+        while (_parser.hasMoreCommands()) {
+            _parser.advance();
+            Parser.CommandType type = _parser.commandType();
+
+            //Functions and labels may be jumped to, so start a new block
+            if ((type == Parser.CommandType.C_FUNCTION || type == Parser.CommandType.C_LABEL) && !commands.isEmpty()) {
+                blocks.add(new BasicBlock(commands));
+                commands = new ArrayList<>();
+            }
+            commands.add(new Command(type, _parser.arg1(), _parser.arg2()));
+
+            //Control leaves the block after these
+            switch (type) {
+                case C_GOTO:
+                case C_IF:
+                case C_CALL:
+                case C_RETURN:
+                    blocks.add(new BasicBlock(commands));
+                    commands = new ArrayList<>();
+                    break;
+            }
+        }
+        if (!commands.isEmpty()) {
+            blocks.add(new BasicBlock(commands));
+        }
+        return blocks;
+    }
+
+    /**
+     * Gets the commands in the block.
+     *
+     * @return The commands, in order. The list cannot be modified.
+     */
+    public List<Command> commands() {
+        return commands;
+    }
+
+    /**
+     * Gets the number of commands in the block.
+     *
+     * @return The number of commands.
+     */
+    public int size() {
+        return commands.size();
+    }
+
+    /**
+     * Gets a command in the block.
+     *
+     * @param _index The index of the command.
+     * @return The command.
+     */
+    public Command get(int _index) {
+        return commands.get(_index);
+    }
+}
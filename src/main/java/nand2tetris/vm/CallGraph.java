@@ -0,0 +1,118 @@
+package nand2tetris.vm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Class holding the functions of a VM program and the calls between them, for finding the functions a program
+ * can never reach. VM code has no function pointers, so every call made by a function is a call command in its
+ * body.
+ */
+public class CallGraph {
+    /**Functions called by each function, in definition order*/
+    private final LinkedHashMap<String, Set<String>> callees;
+    /**Number of commands in each function, including its function command*/
+    private final Map<String, Integer> sizes;
+    /**Functions called from commands outside of any function*/
+    private final Set<String> topLevelCalls;
+
+    /**
+     * Constructs a new, empty call graph.
+     */
+    public CallGraph() {
+        callees = new LinkedHashMap<>();
+        sizes = new LinkedHashMap<>();
+        topLevelCalls = new LinkedHashSet<>();
+    }
+
+    /**
+     * Reads the remaining commands of a parser and adds the functions they define.
+     *
+     * @param _parser The parser to read from.
+     */
+    public void add(Parser _parser) {
+        String function = null;
+        while (_parser.hasMoreCommands()) {
+            _parser.advance();
+            switch (_parser.commandType()) {
+                case C_FUNCTION:
+                    function = _parser.arg1();
+                    callees.putIfAbsent(function, new LinkedHashSet<>());
+                    break;
+                case C_CALL:
+                    if (function != null) {
+                        callees.get(function).add(_parser.arg1());
+                    }
+                    else {
+                        topLevelCalls.add(_parser.arg1());
+                    }
+                    break;
+            }
+            if (function != null) {
+                sizes.merge(function, 1, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a function is defined.
+     *
+     * @param _function The function name.
+     * @return True if some file defines the function, false if not.
+     */
+    public boolean isDefined(String _function) {
+        return callees.containsKey(_function);
+    }
+
+    /**
+     * Gets the number of commands in a function.
+     *
+     * @param _function The function name.
+     * @return The number of commands including the function command, or 0 if it is not defined.
+     */
+    public int getSize(String _function) {
+        return sizes.getOrDefault(_function, 0);
+    }
+
+    /**
+     * Finds the defined functions reachable through calls from a root function or from commands outside of any
+     * function.
+     *
+     * @param _root The function execution starts at.
+     * @return The reachable functions which are defined.
+     */
+    public Set<String> reachable(String _root) {
+        LinkedHashSet<String> reached = new LinkedHashSet<>();
+        ArrayDeque<String> pending = new ArrayDeque<>(topLevelCalls);
+        pending.add(_root);
+        while (!pending.isEmpty()) {
+            String function = pending.poll();
+            if (isDefined(function) && reached.add(function)) {
+                pending.addAll(callees.get(function));
+            }
+        }
+        return reached;
+    }
+
+    /**
+     * Finds the defined functions which cannot be reached from a root function.
+     *
+     * @param _root The function execution starts at.
+     * @return The unreachable functions, in definition order.
+     */
+    public List<String> unreachable(String _root) {
+        Set<String> reached = reachable(_root);
+        ArrayList<String> unreachable = new ArrayList<>();
+        for (String function: callees.keySet()) {
+            if (!reached.contains(function)) {
+                unreachable.add(function);
+            }
+        }
+        return unreachable;
+    }
+}
@@ -5,9 +5,32 @@ import java.io.FileWriter;
 import java.io.IOException;
 
 /**
- * Class which manages the writing of the .asm output file.
+ * Class which manages the writing of the .asm output file. By default every call and return is written inline.
+ * With shared calls enabled, each call site instead stores its target, argument count and return address in
+ * R13-R15 and jumps to a single {@code $$call} routine, and each return jumps to a single {@code $$return}
+ * routine. The routines are written at the end of the output, which makes programs much smaller at the cost of
+ * a few cycles per call.
+ * <p>
+ * Code can also be written a basic block at a time. Within a block the stack pointer's offset from M[SP] is
+ * tracked here, stack slots are addressed relative to M[SP], and M[SP] is only written back when control can
+ * leave the block. With top of stack caching enabled, the value on top of the stack is also kept in the D
+ * register rather than in memory where possible, and only spilled when it is pushed under another value or
+ * control leaves the block.
  */
 public class CodeWriter {
+    /**Number of instructions in an inline call*/
+    public static final int INLINE_CALL_LENGTH = 42;
+    /**Number of instructions in an inline return*/
+    public static final int INLINE_RETURN_LENGTH = 48;
+    /**Largest distance from M[SP] of a stack slot addressed within a block*/
+    private static final int MAX_STACK_OFFSET = 3;
+    /**Largest segment index popped to by stepping the A register rather than through M[13]*/
+    private static final int MAX_INDEX_STEPS = 6;
+    /**Number of instructions at a call site using the shared call routine*/
+    private static final int SHARED_CALL_LENGTH = 14;
+    /**Number of instructions at a return using the shared return routine*/
+    private static final int SHARED_RETURN_LENGTH = 2;
+
     /**Output file writer*/
     private final FileWriter writer;
     /**Current VM filename*/
@@ -18,6 +41,22 @@ public class CodeWriter {
     private String currentFunction;
     /**Numeric label for return addresses*/
     private int returnNumber;
+    /**Whether calls and returns jump to shared routines*/
+    private boolean sharedCalls;
+    /**Number of calls written*/
+    private int callCount;
+    /**Number of returns written*/
+    private int returnCount;
+    /**Number of instructions written, not counting labels*/
+    private int instructionCount;
+    /**Number of instructions in the shared routines, once written*/
+    private int sharedRoutineCount;
+    /**Offset of the stack pointer from M[SP] within the block being written*/
+    private int stackOffset;
+    /**Whether blocks keep the top of the stack in the D register*/
+    private boolean cacheTop;
+    /**Whether the top of the stack is in the D register rather than in memory*/
+    private boolean topInD;
 
     /**
      * Constructs a new code writer instance.
@@ -30,6 +69,64 @@ public class CodeWriter {
         returnNumber = 1;
     }
 
+    /**
+     * Enables or disables shared call and return routines. Should be set before writing any code.
+     *
+     * @param _sharedCalls True to jump to shared routines, false to write calls and returns inline.
+     */
+    public void setSharedCalls(boolean _sharedCalls) {
+        sharedCalls = _sharedCalls;
+    }
+
+    /**
+     * Checks whether shared call and return routines are used.
+     *
+     * @return True if calls and returns jump to shared routines, false if they are written inline.
+     */
+    public boolean isSharedCalls() {
+        return sharedCalls;
+    }
+
+    /**
+     * Enables or disables caching the top of the stack in the D register within blocks.
+     *
+     * @param _cacheTop True to keep the top of the stack in D where possible, false to always keep it in memory.
+     */
+    public void setCacheTop(boolean _cacheTop) {
+        cacheTop = _cacheTop;
+    }
+
+    /**
+     * Checks whether the top of the stack is cached in the D register within blocks.
+     *
+     * @return True if the top of the stack is kept in D where possible, false if not.
+     */
+    public boolean isCacheTop() {
+        return cacheTop;
+    }
+
+    /**
+     * Gets the number of instructions written so far. Labels are not counted.
+     *
+     * @return The number of instructions.
+     */
+    public int getInstructionCount() {
+        return instructionCount;
+    }
+
+    /**
+     * Gets the number of instructions the code written so far would take with every call and return inline.
+     *
+     * @return The number of instructions.
+     */
+    public int getInlineInstructionCount() {
+        if (!sharedCalls) {
+            return instructionCount;
+        }
+        return instructionCount - sharedRoutineCount + callCount * (INLINE_CALL_LENGTH - SHARED_CALL_LENGTH)
+                + returnCount * (INLINE_RETURN_LENGTH - SHARED_RETURN_LENGTH);
+    }
+
     /**
      * Sets the VM filename - should be used when a new VM file is opened.
      *
@@ -47,59 +144,617 @@ public class CodeWriter {
     public void writeArithmetic(String _command) throws IOException {
         //Special handling for unary operators
         if (_command.equals("neg") || _command.equals("not")) {
-            writer.write("@SP\n");
-            writer.write("A=M-1\n");
+            write("@SP\n");
+            write("A=M-1\n");
             if (_command.equals("neg")) {
-                writer.write("M=-M\n");
+                write("M=-M\n");
             }
             else {
-                writer.write("M=!M\n");
+                write("M=!M\n");
             }
             return;
         }
 
         //Decrement stack pointer
-        writer.write("@SP\n");
-        writer.write("M=M-1\n");
+        write("@SP\n");
+        write("M=M-1\n");
         //Store y in D register
-        writer.write("A=M\n");
-        writer.write("D=M\n");
+        write("A=M\n");
+        write("D=M\n");
         //Decrement address so that x is in M register
-        writer.write("A=A-1\n");
+        write("A=A-1\n");
+
+        switch (_command) {
+            case "add":
+                write("M=M+D\n");
+                break;
+            case "sub":
+                write("M=M-D\n");
+                break;
+            case "and":
+                write("M=M&D\n");
+                break;
+            case "or":
+                write("M=M|D\n");
+                break;
+            case "eq":
+            case "gt":
+            case "lt":
+                write("D=M-D\n");
+                write("@branch" + branchNumber + "\n");
+                write("D;J" + _command.toUpperCase() + "\n");
+                write("D=0\n");
+                write("@endbranch" + branchNumber + "\n");
+                write("0;JMP\n");
+                write("(branch" + branchNumber + ")\n");
+                write("D=-1\n");
+                write("(endbranch" + branchNumber + ")\n");
+                write("@SP\n");
+                write("A=M-1\n");
+                write("M=D\n");
+                branchNumber++;
+                break;
+        }
+    }
+
+    /**
+     * Writes code corresponding to a comparison immediately followed by a conditional goto, or by not and a
+     * conditional goto, without pushing the boolean result. Jumps on the same 16-bit difference as writeArithmetic.
+     *
+     * @param _command The comparison: eq, gt or lt.
+     * @param _label The label to be jumped to.
+     * @param _negated True if the comparison's result is negated before the conditional goto.
+     */
+    public void writeCompareIf(String _command, String _label, boolean _negated) throws IOException {
+        //Pop y into D register
+        write("@SP\n");
+        write("AM=M-1\n");
+        write("D=M\n");
+        //Pop x and compute x - y
+        write("@SP\n");
+        write("AM=M-1\n");
+        write("D=M-D\n");
+        writeCompareJump(_command, _label, _negated);
+    }
+
+    /**
+     * Writes the jump of a fused comparison and conditional goto, with x - y in the D register.
+     *
+     * @param _command The comparison: eq, gt or lt.
+     * @param _label The label to be jumped to.
+     * @param _negated True if the comparison's result is negated before the conditional goto.
+     */
+    private void writeCompareJump(String _command, String _label, boolean _negated) throws IOException {
+        //Jump on the comparison, or on its inverse if negated
+        String condition = _command.toUpperCase();
+        if (_negated) {
+            switch (_command) {
+                case "eq":
+                    condition = "NE";
+                    break;
+                case "gt":
+                    condition = "LE";
+                    break;
+                case "lt":
+                    condition = "GE";
+                    break;
+            }
+        }
+        write("@" + currentFunction + "$" + _label + "\n");
+        write("D;J" + condition + "\n");
+    }
+
+    /**
+     * Writes code corresponding to a basic block, without updating M[SP] for each push and pop. Before a goto,
+     * if-goto, call or return M[SP] is brought up to date, so the code they jump to sees the usual stack.
+     *
+     * @param _block The block to write.
+     * @param _fuseCompares True to write a comparison followed by a conditional goto as in writeCompareIf.
+     */
+    public void writeBlock(BasicBlock _block, boolean _fuseCompares) throws IOException {
+        stackOffset = 0;
+        topInD = false;
+        for (int i = 0; i < _block.size(); i++) {
+            Command command = _block.get(i);
+            switch (command.type()) {
+                case C_ARITHMETIC:
+                    if (_fuseCompares && command.isComparison()) {
+                        boolean negated = i + 1 < _block.size() && _block.get(i + 1).type() == Parser.CommandType.C_ARITHMETIC
+                                && _block.get(i + 1).arg1().equals("not");
+                        int next = negated ? i + 2 : i + 1;
+                        if (next < _block.size() && _block.get(next).type() == Parser.CommandType.C_IF) {
+                            writeBlockCompareIf(command.arg1(), _block.get(next).arg1(), negated);
+                            i = next;
+                            break;
+                        }
+                    }
+                    if (cacheTop) {
+                        writeCachedArithmetic(command.arg1());
+                    }
+                    else {
+                        writeBlockArithmetic(command.arg1());
+                    }
+                    break;
+                case C_PUSH:
+                    if (cacheTop) {
+                        writeCachedPush(command.arg1(), command.arg2());
+                    }
+                    else {
+                        writeBlockPush(command.arg1(), command.arg2());
+                    }
+                    break;
+                case C_POP:
+                    if (cacheTop) {
+                        writeCachedPop(command.arg1(), command.arg2());
+                    }
+                    else {
+                        writeBlockPop(command.arg1(), command.arg2());
+                    }
+                    break;
+                case C_LABEL:
+                    spillTop();
+                    writeStackOffset();
+                    writeLabel(command.arg1());
+                    break;
+                case C_GOTO:
+                    spillTop();
+                    writeStackOffset();
+                    writeGoto(command.arg1());
+                    break;
+                case C_IF:
+                    //Pop the condition by leaving M[SP] pointing at it
+                    stackOffset--;
+                    writeStackOffset();
+                    if (!topInD) {
+                        write("@SP\n");
+                        write("A=M\n");
+                        write("D=M\n");
+                    }
+                    topInD = false;
+                    write("@" + currentFunction + "$" + command.arg1() + "\n");
+                    write("D;JNE\n");
+                    break;
+                case C_FUNCTION:
+                    spillTop();
+                    writeStackOffset();
+                    writeFunction(command.arg1(), command.arg2());
+                    break;
+                case C_CALL:
+                    spillTop();
+                    writeStackOffset();
+                    writeCall(command.arg1(), command.arg2());
+                    break;
+                case C_RETURN:
+                    spillTop();
+                    writeStackOffset();
+                    writeReturn();
+                    break;
+            }
+        }
+        spillTop();
+        writeStackOffset();
+    }
+
+    /**
+     * Writes an arithmetic command within a block.
+     *
+     * @param _command The arithmetic command to be written.
+     */
+    private void writeBlockArithmetic(String _command) throws IOException {
+        if (_command.equals("neg") || _command.equals("not")) {
+            reachStack(-1, -1);
+            writeSlotAddress(stackOffset - 1);
+            write(_command.equals("neg") ? "M=-M\n" : "M=!M\n");
+            return;
+        }
+
+        //Store y in D register, then address x
+        reachStack(-2, -1);
+        writeSlotAddress(stackOffset - 1);
+        write("D=M\n");
+        write("A=A-1\n");
+        stackOffset--;
+
+        switch (_command) {
+            case "add":
+                write("M=M+D\n");
+                break;
+            case "sub":
+                write("M=M-D\n");
+                break;
+            case "and":
+                write("M=M&D\n");
+                break;
+            case "or":
+                write("M=M|D\n");
+                break;
+            case "eq":
+            case "gt":
+            case "lt":
+                write("D=M-D\n");
+                write("@branch" + branchNumber + "\n");
+                write("D;J" + _command.toUpperCase() + "\n");
+                write("D=0\n");
+                write("@endbranch" + branchNumber + "\n");
+                write("0;JMP\n");
+                write("(branch" + branchNumber + ")\n");
+                write("D=-1\n");
+                write("(endbranch" + branchNumber + ")\n");
+                writeSlotAddress(stackOffset - 1);
+                write("M=D\n");
+                branchNumber++;
+                break;
+        }
+    }
+
+    /**
+     * Writes a comparison followed by a conditional goto within a block, as in writeCompareIf.
+     *
+     * @param _command The comparison: eq, gt or lt.
+     * @param _label The label to be jumped to.
+     * @param _negated True if the comparison's result is negated before the conditional goto.
+     */
+    private void writeBlockCompareIf(String _command, String _label, boolean _negated) throws IOException {
+        if (topInD) {
+            //Compute x - y, then pop both operands keeping the difference in D
+            reachStack(-2, -2);
+            writeSlotAddress(stackOffset - 2);
+            write("D=M-D\n");
+            stackOffset -= 2;
+            writeStackOffset();
+            topInD = false;
+            writeCompareJump(_command, _label, _negated);
+            return;
+        }
+
+        //Pop both operands by leaving M[SP] pointing at x
+        stackOffset -= 2;
+        writeStackOffset();
+        write("@SP\n");
+        write("A=M+1\n");
+        write("D=M\n");
+        write("A=A-1\n");
+        write("D=M-D\n");
+        writeCompareJump(_command, _label, _negated);
+    }
+
+    /**
+     * Writes a push command within a block.
+     *
+     * @param _segment The segment to push from.
+     * @param _index The index to use within the given segment.
+     */
+    private void writeBlockPush(String _segment, int _index) throws IOException {
+        //Writing M[SP] back uses the D register, so must happen first
+        reachStack(0, 0);
+
+        writeFetch(_segment, _index);
+
+        //Put on top of stack
+        writeSlotAddress(stackOffset);
+        write("M=D\n");
+        stackOffset++;
+    }
+
+    /**
+     * Writes code loading a segment word into the D register.
+     *
+     * @param _segment The segment to fetch from.
+     * @param _index The index to use within the given segment.
+     */
+    private void writeFetch(String _segment, int _index) throws IOException {
+        switch (_segment) {
+            case "constant":
+                write("@" + _index + "\n");
+                write("D=A\n");
+                break;
+            case "local":
+            case "argument":
+            case "this":
+            case "that":
+                if (_index == 0) {
+                    write("@" + segmentPointer(_segment) + "\n");
+                    write("A=M\n");
+                }
+                else {
+                    write("@" + _index + "\n");
+                    write("D=A\n");
+                    write("@" + segmentPointer(_segment) + "\n");
+                    write("A=D+M\n");
+                }
+                write("D=M\n");
+                break;
+            default:
+                write("@" + fixedAddress(_segment, _index) + "\n");
+                write("D=M\n");
+                break;
+        }
+    }
+
+    /**
+     * Writes a push command within a block, leaving the pushed value in the D register. The value it covers is
+     * spilled to memory first if it was in D.
+     *
+     * @param _segment The segment to push from.
+     * @param _index The index to use within the given segment.
+     */
+    private void writeCachedPush(String _segment, int _index) throws IOException {
+        spillTop();
+        writeFetch(_segment, _index);
+        stackOffset++;
+        topInD = true;
+    }
+
+    /**
+     * Writes a pop command within a block, storing the top of the stack from the D register.
+     *
+     * @param _segment The segment to pop to.
+     * @param _index The index to use within the given segment.
+     */
+    private void writeCachedPop(String _segment, int _index) throws IOException {
+        //No logic needed for constant segment, as in writePushPop
+        if (_segment.equals("constant")) {
+            return;
+        }
+
+        //Segments addressed through a base pointer, rather than at a fixed address
+        boolean based = _segment.equals("local") || _segment.equals("argument") || _segment.equals("this")
+                || _segment.equals("that");
+        if (based && _index > MAX_INDEX_STEPS) {
+            //Too far to step to, so go through M[13] with the value in memory
+            spillTop();
+            writeBlockPop(_segment, _index);
+            return;
+        }
+
+        //Fetch top value into D register
+        if (!topInD) {
+            reachStack(-1, -1);
+            writeSlotAddress(stackOffset - 1);
+            write("D=M\n");
+        }
+
+        //Address the target and store
+        if (based) {
+            write("@" + segmentPointer(_segment) + "\n");
+            if (_index == 0) {
+                write("A=M\n");
+            }
+            else {
+                write("A=M+1\n");
+                for (int i = 1; i < _index; i++) {
+                    write("A=A+1\n");
+                }
+            }
+        }
+        else {
+            write("@" + fixedAddress(_segment, _index) + "\n");
+        }
+        write("M=D\n");
+        stackOffset--;
+        topInD = false;
+    }
+
+    /**
+     * Writes an arithmetic command within a block, leaving the result in the D register.
+     *
+     * @param _command The arithmetic command to be written.
+     */
+    private void writeCachedArithmetic(String _command) throws IOException {
+        if (_command.equals("neg") || _command.equals("not")) {
+            if (topInD) {
+                write(_command.equals("neg") ? "D=-D\n" : "D=!D\n");
+            }
+            else {
+                reachStack(-1, -1);
+                writeSlotAddress(stackOffset - 1);
+                write(_command.equals("neg") ? "D=-M\n" : "D=!M\n");
+                topInD = true;
+            }
+            return;
+        }
+
+        //Have y in D register and address x
+        if (topInD) {
+            reachStack(-2, -2);
+            writeSlotAddress(stackOffset - 2);
+        }
+        else {
+            reachStack(-2, -1);
+            writeSlotAddress(stackOffset - 1);
+            write("D=M\n");
+            write("A=A-1\n");
+        }
+        stackOffset--;
+        topInD = true;
 
         switch (_command) {
             case "add":
-                writer.write("M=M+D\n");
+                write("D=D+M\n");
                 break;
             case "sub":
-                writer.write("M=M-D\n");
+                write("D=M-D\n");
                 break;
             case "and":
-                writer.write("M=M&D\n");
+                write("D=D&M\n");
                 break;
             case "or":
-                writer.write("M=M|D\n");
+                write("D=D|M\n");
                 break;
             case "eq":
             case "gt":
             case "lt":
-                writer.write("D=M-D\n");
-                writer.write("@branch" + branchNumber + "\n");
-                writer.write("D;J" + _command.toUpperCase() + "\n");
-                writer.write("D=0\n");
-                writer.write("@endbranch" + branchNumber + "\n");
-                writer.write("0;JMP\n");
-                writer.write("(branch" + branchNumber + ")\n");
-                writer.write("D=-1\n");
-                writer.write("(endbranch" + branchNumber + ")\n");
-                writer.write("@SP\n");
-                writer.write("A=M-1\n");
-                writer.write("M=D\n");
+                write("D=M-D\n");
+                write("@branch" + branchNumber + "\n");
+                write("D;J" + _command.toUpperCase() + "\n");
+                write("D=0\n");
+                write("@endbranch" + branchNumber + "\n");
+                write("0;JMP\n");
+                write("(branch" + branchNumber + ")\n");
+                write("D=-1\n");
+                write("(endbranch" + branchNumber + ")\n");
                 branchNumber++;
                 break;
         }
     }
 
+    /**
+     * Stores the top of the stack to memory if it is in the D register.
+     */
+    private void spillTop() throws IOException {
+        if (topInD) {
+            reachStack(-1, -1);
+            writeSlotAddress(stackOffset - 1);
+            write("M=D\n");
+            topInD = false;
+        }
+    }
+
+    /**
+     * Writes a pop command within a block.
+     *
+     * @param _segment The segment to pop to.
+     * @param _index The index to use within the given segment.
+     */
+    private void writeBlockPop(String _segment, int _index) throws IOException {
+        //No logic needed for constant segment, as in writePushPop
+        if (_segment.equals("constant")) {
+            return;
+        }
+
+        switch (_segment) {
+            case "local":
+            case "argument":
+            case "this":
+            case "that":
+                if (_index <= 1) {
+                    //Fetch top value and address the target directly
+                    reachStack(-1, -1);
+                    writeSlotAddress(stackOffset - 1);
+                    write("D=M\n");
+                    write("@" + segmentPointer(_segment) + "\n");
+                    write(_index == 0 ? "A=M\n" : "A=M+1\n");
+                }
+                else {
+                    //Put storage address at M[13]
+                    write("@" + _index + "\n");
+                    write("D=A\n");
+                    write("@" + segmentPointer(_segment) + "\n");
+                    write("D=D+M\n");
+                    write("@13\n");
+                    write("M=D\n");
+                    //Fetch top value and store it at the address in M[13]
+                    reachStack(-1, -1);
+                    writeSlotAddress(stackOffset - 1);
+                    write("D=M\n");
+                    write("@13\n");
+                    write("A=M\n");
+                }
+                break;
+            default:
+                reachStack(-1, -1);
+                writeSlotAddress(stackOffset - 1);
+                write("D=M\n");
+                write("@" + fixedAddress(_segment, _index) + "\n");
+                break;
+        }
+        write("M=D\n");
+        stackOffset--;
+    }
+
+    /**
+     * Writes M[SP] back first if a stack slot to be addressed is too far from it.
+     *
+     * @param _low The lowest slot to be addressed, relative to the stack pointer.
+     * @param _high The highest slot to be addressed, relative to the stack pointer.
+     */
+    private void reachStack(int _low, int _high) throws IOException {
+        if (stackOffset + _low < -MAX_STACK_OFFSET || stackOffset + _high > MAX_STACK_OFFSET) {
+            writeStackOffset();
+        }
+    }
+
+    /**
+     * Writes code loading the address of a stack slot into the A register.
+     *
+     * @param _slot The slot's offset from M[SP].
+     */
+    private void writeSlotAddress(int _slot) throws IOException {
+        write("@SP\n");
+        if (_slot == 0) {
+            write("A=M\n");
+        }
+        else if (_slot > 0) {
+            write("A=M+1\n");
+            for (int i = 1; i < _slot; i++) {
+                write("A=A+1\n");
+            }
+        }
+        else {
+            write("A=M-1\n");
+            for (int i = -1; i > _slot; i--) {
+                write("A=A-1\n");
+            }
+        }
+    }
+
+    /**
+     * Writes the stack pointer's offset within the block back to M[SP]. The D register is left alone while it
+     * holds the top of the stack.
+     */
+    private void writeStackOffset() throws IOException {
+        if (stackOffset == 1 || stackOffset == -1 || (topInD && stackOffset != 0)) {
+            write("@SP\n");
+            for (int i = 0; i < Math.abs(stackOffset); i++) {
+                write(stackOffset > 0 ? "M=M+1\n" : "M=M-1\n");
+            }
+        }
+        else if (stackOffset != 0) {
+            write("@" + Math.abs(stackOffset) + "\n");
+            write("D=A\n");
+            write("@SP\n");
+            write(stackOffset > 0 ? "M=M+D\n" : "M=M-D\n");
+        }
+        stackOffset = 0;
+    }
+
+    /**
+     * Gets the symbol holding the base address of a segment.
+     *
+     * @param _segment The segment: local, argument, this or that.
+     * @return The pointer's predefined symbol.
+     */
+    private static String segmentPointer(String _segment) {
+        switch (_segment) {
+            case "local":
+                return "LCL";
+            case "argument":
+                return "ARG";
+            case "this":
+                return "THIS";
+            default:
+                return "THAT";
+        }
+    }
+
+    /**
+     * Gets the symbol or address of a word in a segment at a fixed address.
+     *
+     * @param _segment The segment: pointer, temp or static.
+     * @param _index The index within the segment.
+     * @return The symbol or address to load.
+     */
+    private String fixedAddress(String _segment, int _index) {
+        switch (_segment) {
+            case "pointer":
+                return String.valueOf(_index + 3);
+            case "temp":
+                return String.valueOf(_index + 5);
+            default:
+                return filename + "." + _index;
+        }
+    }
+
     /**
      * Writes code corresponding to a push or pop command.
      *
@@ -112,15 +767,15 @@ public class CodeWriter {
         if (_segment.equals("constant")) {
             if (_type == Parser.CommandType.C_PUSH) {
                 //Load constant to D register
-                writer.write("@" + _index + "\n");
-                writer.write("D=A\n");
+                write("@" + _index + "\n");
+                write("D=A\n");
                 //Jump to stack head and write
-                writer.write("@SP\n");
-                writer.write("A=M\n");
-                writer.write("M=D\n");
+                write("@SP\n");
+                write("A=M\n");
+                write("M=D\n");
                 //Increment stack pointer
-                writer.write("@SP\n");
-                writer.write("M=M+1\n");
+                write("@SP\n");
+                write("M=M+1\n");
             }
             //No logic needed for C_POP - should do nothing if called this way for some reason
             return;
@@ -129,71 +784,71 @@ public class CodeWriter {
         //Calculate segment address and store in D register
         switch (_segment) {
             case "local":
-                writer.write("@" + _index + "\n");
-                writer.write("D=A\n");
-                writer.write("@LCL\n");
-                writer.write("D=D+M\n");
+                write("@" + _index + "\n");
+                write("D=A\n");
+                write("@LCL\n");
+                write("D=D+M\n");
                 break;
             case "argument":
-                writer.write("@" + _index + "\n");
-                writer.write("D=A\n");
-                writer.write("@ARG\n");
-                writer.write("D=D+M\n");
+                write("@" + _index + "\n");
+                write("D=A\n");
+                write("@ARG\n");
+                write("D=D+M\n");
                 break;
             case "this":
-                writer.write("@" + _index + "\n");
-                writer.write("D=A\n");
-                writer.write("@THIS\n");
-                writer.write("D=D+M\n");
+                write("@" + _index + "\n");
+                write("D=A\n");
+                write("@THIS\n");
+                write("D=D+M\n");
                 break;
             case "that":
-                writer.write("@" + _index + "\n");
-                writer.write("D=A\n");
-                writer.write("@THAT\n");
-                writer.write("D=D+M\n");
+                write("@" + _index + "\n");
+                write("D=A\n");
+                write("@THAT\n");
+                write("D=D+M\n");
                 break;
             case "pointer":
-                writer.write("@" + (_index + 3) + "\n");
-                writer.write("D=A\n");
+                write("@" + (_index + 3) + "\n");
+                write("D=A\n");
                 break;
             case "temp":
-                writer.write("@" + (_index + 5) + "\n");
-                writer.write("D=A\n");
+                write("@" + (_index + 5) + "\n");
+                write("D=A\n");
                 break;
             case "static":
-                writer.write("@" + filename + "." + _index + "\n");
-                writer.write("D=A\n");
+                write("@" + filename + "." + _index + "\n");
+                write("D=A\n");
                 break;
         }
 
         //Write push/pop logic
         if (_type == Parser.CommandType.C_PUSH) {
             //Fetch value
-            writer.write("A=D\n");
-            writer.write("D=M\n");
+            write("A=D\n");
+            write("D=M\n");
             //Put on top of stack
-            writer.write("@SP\n");
-            writer.write("A=M\n");
-            writer.write("M=D\n");
+            write("@SP\n");
+            write("A=M\n");
+            write("M=D\n");
             //Increment stack pointer
-            writer.write("@SP\n");
-            writer.write("M=M+1\n");
+            write("@SP\n");
+            write("M=M+1\n");
         }
         else if (_type == Parser.CommandType.C_POP) {
             //Put storage address at M[13]
-            writer.write("@13\n");
-            writer.write("M=D\n");
+            write("@13\n");
+            write("M=D\n");
             //Fetch top value from stack and store in D register
-            writer.write("@SP\n");
-            writer.write("A=M-1\n");
-            writer.write("D=M\n");
+            write("@SP\n");
+            write("A=M-1\n");
+            write("D=M\n");
             //Fetch address from M[13] and store value
-            writer.write("@13\n");
-            writer.write("A=M\n");
-            writer.write("M=D\n");
+            write("@13\n");
+            write("A=M\n");
+            write("M=D\n");
             //Decrement stack pointer
-            writer.write("@SP\n");
-            writer.write("M=M-1\n");
+            write("@SP\n");
+            write("M=M-1\n");
         }
     }
 
@@ -202,10 +857,10 @@ public class CodeWriter {
      */
     public void writeInit() throws IOException {
         //Write SP=256
-        writer.write("@256\n");
-        writer.write("D=A\n");
-        writer.write("@SP\n");
-        writer.write("M=D\n");
+        write("@256\n");
+        write("D=A\n");
+        write("@SP\n");
+        write("M=D\n");
         //Write call Sys.init 0
         writeCall("Sys.init", 0);
     }
@@ -216,7 +871,7 @@ public class CodeWriter {
      * @param _label The label name to use.
      */
     public void writeLabel(String _label) throws IOException {
-        writer.write("(" + currentFunction + "$" + _label + ")\n");
+        write("(" + currentFunction + "$" + _label + ")\n");
     }
 
     /**
@@ -226,8 +881,8 @@ public class CodeWriter {
      */
     public void writeGoto(String _label) throws IOException {
         //Unconditional jump to the target label
-        writer.write("@" + currentFunction + "$" + _label + "\n");
-        writer.write("0;JMP\n");
+        write("@" + currentFunction + "$" + _label + "\n");
+        write("0;JMP\n");
     }
 
     /**
@@ -237,13 +892,13 @@ public class CodeWriter {
      */
     public void writeIf(String _label) throws IOException {
         //Decrement stack pointer and store popped value in D register
-        writer.write("@SP\n");
-        writer.write("M=M-1\n");
-        writer.write("A=M\n");
-        writer.write("D=M\n");
+        write("@SP\n");
+        write("M=M-1\n");
+        write("A=M\n");
+        write("D=M\n");
         //Conditional jump to target label
-        writer.write("@" + currentFunction + "$" + _label + "\n");
-        writer.write("D;JNE\n");
+        write("@" + currentFunction + "$" + _label + "\n");
+        write("D;JNE\n");
     }
 
     /**
@@ -253,58 +908,80 @@ public class CodeWriter {
      * @param _numArgs The number of arguments passed to the function.
      */
     public void writeCall(String _functionName, int _numArgs) throws IOException {
+        callCount++;
+        if (sharedCalls) {
+            //Pass target in M[13], argument count in M[14] and return address in M[15]
+            write("@" + _functionName + "\n");
+            write("D=A\n");
+            write("@13\n");
+            write("M=D\n");
+            write("@" + _numArgs + "\n");
+            write("D=A\n");
+            write("@14\n");
+            write("M=D\n");
+            write("@return" + returnNumber + "\n");
+            write("D=A\n");
+            write("@15\n");
+            write("M=D\n");
+            write("@$$call\n");
+            write("0;JMP\n");
+            write("(return" + returnNumber + ")\n");
+            returnNumber++;
+            return;
+        }
+
         //Push return address
-        writer.write("@return" + returnNumber + "\n");
-        writer.write("D=A\n");
-        writer.write("@SP\n");
-        writer.write("M=M+1\n");
-        writer.write("A=M-1\n");
-        writer.write("M=D\n");
+        write("@return" + returnNumber + "\n");
+        write("D=A\n");
+        write("@SP\n");
+        write("M=M+1\n");
+        write("A=M-1\n");
+        write("M=D\n");
         //Push LCL
-        writer.write("@LCL\n");
-        writer.write("D=M\n");
-        writer.write("@SP\n");
-        writer.write("M=M+1\n");
-        writer.write("A=M-1\n");
-        writer.write("M=D\n");
+        write("@LCL\n");
+        write("D=M\n");
+        write("@SP\n");
+        write("M=M+1\n");
+        write("A=M-1\n");
+        write("M=D\n");
         //Push ARG
-        writer.write("@ARG\n");
-        writer.write("D=M\n");
-        writer.write("@SP\n");
-        writer.write("M=M+1\n");
-        writer.write("A=M-1\n");
-        writer.write("M=D\n");
+        write("@ARG\n");
+        write("D=M\n");
+        write("@SP\n");
+        write("M=M+1\n");
+        write("A=M-1\n");
+        write("M=D\n");
         //Push THIS
-        writer.write("@THIS\n");
-        writer.write("D=M\n");
-        writer.write("@SP\n");
-        writer.write("M=M+1\n");
-        writer.write("A=M-1\n");
-        writer.write("M=D\n");
+        write("@THIS\n");
+        write("D=M\n");
+        write("@SP\n");
+        write("M=M+1\n");
+        write("A=M-1\n");
+        write("M=D\n");
         //Push THAT
-        writer.write("@THAT\n");
-        writer.write("D=M\n");
-        writer.write("@SP\n");
-        writer.write("M=M+1\n");
-        writer.write("A=M-1\n");
-        writer.write("M=D\n");
+        write("@THAT\n");
+        write("D=M\n");
+        write("@SP\n");
+        write("M=M+1\n");
+        write("A=M-1\n");
+        write("M=D\n");
         //Set ARG to base of argument stack
-        writer.write("@" + (_numArgs + 5) + "\n");
-        writer.write("D=A\n");
-        writer.write("@SP\n");
-        writer.write("D=M-D\n");
-        writer.write("@ARG\n");
-        writer.write("M=D\n");
+        write("@" + (_numArgs + 5) + "\n");
+        write("D=A\n");
+        write("@SP\n");
+        write("D=M-D\n");
+        write("@ARG\n");
+        write("M=D\n");
         //LCL=SP
-        writer.write("@SP\n");
-        writer.write("D=M\n");
-        writer.write("@LCL\n");
-        writer.write("M=D\n");
+        write("@SP\n");
+        write("D=M\n");
+        write("@LCL\n");
+        write("M=D\n");
         //Jump to function
-        writer.write("@" + _functionName + "\n");
-        writer.write("0;JMP\n");
+        write("@" + _functionName + "\n");
+        write("0;JMP\n");
         //Return address to jump back to when done
-        writer.write("(return" + returnNumber + ")\n");
+        write("(return" + returnNumber + ")\n");
         returnNumber++;
     }
 
@@ -312,63 +989,76 @@ public class CodeWriter {
      * Writes assembly code corresponding to a return statement.
      */
     public void writeReturn() throws IOException {
+        returnCount++;
+        if (sharedCalls) {
+            write("@$$return\n");
+            write("0;JMP\n");
+            return;
+        }
+        writeInlineReturn();
+    }
+
+    /**
+     * Writes the body of a return statement, ending with the jump to the return address.
+     */
+    private void writeInlineReturn() throws IOException {
         //Store LCL at M[14] for reference
-        writer.write("@LCL\n");
-        writer.write("D=M\n");
-        writer.write("@14\n");
-        writer.write("M=D\n");
+        write("@LCL\n");
+        write("D=M\n");
+        write("@14\n");
+        write("M=D\n");
         //Store return address at M[15] to avoid overwriting if function has no arguments
-        writer.write("@5\n");
-        writer.write("A=D-A\n");
-        writer.write("D=M\n");
-        writer.write("@15\n");
-        writer.write("M=D\n");
+        write("@5\n");
+        write("A=D-A\n");
+        write("D=M\n");
+        write("@15\n");
+        write("M=D\n");
         //Store return value at ARG
-        writer.write("@SP\n");
-        writer.write("A=M-1\n");
-        writer.write("D=M\n");
-        writer.write("@ARG\n");
-        writer.write("A=M\n");
-        writer.write("M=D\n");
+        write("@SP\n");
+        write("A=M-1\n");
+        write("D=M\n");
+        write("@ARG\n");
+        write("A=M\n");
+        write("M=D\n");
         //Reposition stack pointer to ARG + 1
-        writer.write("@ARG\n");
-        writer.write("D=M+1\n");
-        writer.write("@SP\n");
-        writer.write("M=D\n");
+        write("@ARG\n");
+        write("D=M+1\n");
+        write("@SP\n");
+        write("M=D\n");
         //Restore previous value of THAT
-        writer.write("@14\n");
-        writer.write("A=M-1\n");
-        writer.write("D=M\n");
-        writer.write("@THAT\n");
-        writer.write("M=D\n");
+        write("@14\n");
+        write("A=M-1\n");
+        write("D=M\n");
+        write("@THAT\n");
+        write("M=D\n");
         //Restore previous value of THIS
-        writer.write("@14\n");
-        writer.write("D=M\n");
-        writer.write("@2\n");
-        writer.write("A=D-A\n");
-        writer.write("D=M\n");
-        writer.write("@THIS\n");
-        writer.write("M=D\n");
+        write("@14\n");
+        write("D=M\n");
+        write("@2\n");
+        write("A=D-A\n");
+        write("D=M\n");
+        write("@THIS\n");
+        write("M=D\n");
         //Restore previous value of ARG
-        writer.write("@14\n");
-        writer.write("D=M\n");
-        writer.write("@3\n");
-        writer.write("A=D-A\n");
-        writer.write("D=M\n");
-        writer.write("@ARG\n");
-        writer.write("M=D\n");
+        write("@14\n");
+        write("D=M\n");
+        write("@3\n");
+        write("A=D-A\n");
+        write("D=M\n");
+        write("@ARG\n");
+        write("M=D\n");
         //Restore previous value of LCL
-        writer.write("@14\n");
-        writer.write("D=M\n");
-        writer.write("@4\n");
-        writer.write("A=D-A\n");
-        writer.write("D=M\n");
-        writer.write("@LCL\n");
-        writer.write("M=D\n");
+        write("@14\n");
+        write("D=M\n");
+        write("@4\n");
+        write("A=D-A\n");
+        write("D=M\n");
+        write("@LCL\n");
+        write("M=D\n");
         //Fetch return address and jump to it
-        writer.write("@15\n");
-        writer.write("A=M\n");
-        writer.write("0;JMP\n");
+        write("@15\n");
+        write("A=M\n");
+        write("0;JMP\n");
     }
 
     /**
@@ -379,26 +1069,90 @@ public class CodeWriter {
      */
     public void writeFunction(String _functionName, int _numLocals) throws IOException {
         currentFunction = _functionName;
-        writer.write("(" + _functionName + ")\n");
+        write("(" + _functionName + ")\n");
         if (_numLocals != 0) {
-            writer.write("@" + _numLocals + "\n");
-            writer.write("D=A\n");
-            writer.write("@SP\n");
-            writer.write("M=M+D\n");
-            writer.write("A=M-1\n");
+            write("@" + _numLocals + "\n");
+            write("D=A\n");
+            write("@SP\n");
+            write("M=M+D\n");
+            write("A=M-1\n");
             for (int i = 0; i < _numLocals; i++) {
-                writer.write("M=0\n");
+                write("M=0\n");
                 if (i != _numLocals - 1) {
-                    writer.write("A=A-1\n");
+                    write("A=A-1\n");
                 }
             }
         }
     }
 
     /**
-     * Closes the output stream. Call when done.
+     * Writes the shared call and return routines which have been used.
+     */
+    private void writeSharedCalls() throws IOException {
+        int start = instructionCount;
+        if (callCount != 0) {
+            write("($$call)\n");
+            //Push return address from M[15]
+            write("@15\n");
+            write("D=M\n");
+            write("@SP\n");
+            write("M=M+1\n");
+            write("A=M-1\n");
+            write("M=D\n");
+            //Push LCL, ARG, THIS and THAT
+            for (String pointer: new String[] {"LCL", "ARG", "THIS", "THAT"}) {
+                write("@" + pointer + "\n");
+                write("D=M\n");
+                write("@SP\n");
+                write("M=M+1\n");
+                write("A=M-1\n");
+                write("M=D\n");
+            }
+            //Set ARG to SP - M[14] - 5
+            write("@14\n");
+            write("D=M\n");
+            write("@5\n");
+            write("D=D+A\n");
+            write("@SP\n");
+            write("D=M-D\n");
+            write("@ARG\n");
+            write("M=D\n");
+            //LCL=SP
+            write("@SP\n");
+            write("D=M\n");
+            write("@LCL\n");
+            write("M=D\n");
+            //Jump to function in M[13]
+            write("@13\n");
+            write("A=M\n");
+            write("0;JMP\n");
+        }
+        if (returnCount != 0) {
+            write("($$return)\n");
+            writeInlineReturn();
+        }
+        sharedRoutineCount = instructionCount - start;
+    }
+
+    /**
+     * Writes one line of assembly code, counting it if it is an instruction.
+     *
+     * @param _line The line, including its newline.
+     */
+    private void write(String _line) throws IOException {
+        if (_line.charAt(0) != '(') {
+            instructionCount++;
+        }
+        writer.write(_line);
+    }
+
+    /**
+     * Writes the shared routines if they are used and closes the output stream. Call when done.
      */
     public void close() throws IOException {
+        if (sharedCalls) {
+            writeSharedCalls();
+        }
         writer.close();
     }
 }
@@ -0,0 +1,58 @@
+package nand2tetris.vm;
+
+/**
+ * Class holding one parsed VM command, for code generators which need to see more than one command at a time.
+ */
+public class Command {
+    /**Command type*/
+    private final Parser.CommandType type;
+    /**First argument*/
+    private final String arg1;
+    /**Second argument*/
+    private final int arg2;
+
+    /**
+     * Constructs a new command.
+     *
+     * @param _type The command type.
+     * @param _arg1 The first argument, or the operation of an arithmetic command.
+     * @param _arg2 The second argument, or 0 if there is none.
+     */
+    Command(Parser.CommandType _type, String _arg1, int _arg2) {
+        type = _type;
+        arg1 = _arg1;
+        arg2 = _arg2;
+    }
+
+    /**
+     * Gets the command type.
+     * @return A CommandType enum representing the command type.
+     */
+    Parser.CommandType type() {
+        return type;
+    }
+
+    /**
+     * Returns the first argument of the command.
+     * @return The first argument, or the operation of an arithmetic command.
+     */
+    public String arg1() {
+        return arg1;
+    }
+
+    /**
+     * Returns the second argument of the command.
+     * @return The second argument, or 0 if there is none.
+     */
+    public int arg2() {
+        return arg2;
+    }
+
+    /**
+     * Checks whether the command is a comparison.
+     * @return True if the command is eq, gt or lt, false if not.
+     */
+    public boolean isComparison() {
+        return type == Parser.CommandType.C_ARITHMETIC && (arg1.equals("eq") || arg1.equals("gt") || arg1.equals("lt"));
+    }
+}
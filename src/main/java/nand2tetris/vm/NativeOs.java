@@ -0,0 +1,666 @@
+package nand2tetris.vm;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class implementing the Jack OS in Java for the VM interpreter. Functions follow the standard OS API, including
+ * its error codes, and keep their data in the interpreter's RAM where Jack code can see it: heap blocks lie
+ * between HEAP_BASE and HEAP_END, and Screen functions draw into the screen memory map. Bookkeeping the Jack code
+ * cannot see, such as the heap's free list, is kept in Java.
+ * <p>
+ * The interpreter is headless, so Output functions write text to a stream instead of drawing glyphs, Keyboard
+ * read functions take characters from a reader, and Sys.wait returns at once.
+ */
+class NativeOs {
+    /**First word of the heap*/
+    static final int HEAP_BASE = 2048;
+    /**Word after the last word of the heap*/
+    static final int HEAP_END = 16384;
+    /**Base address of the screen memory map*/
+    private static final int SCREEN = 16384;
+    /**Address of the keyboard memory map*/
+    private static final int KEYBOARD = 24576;
+    /**Jack character code for a new line*/
+    private static final int NEW_LINE = 128;
+    /**Jack character code for a backspace*/
+    private static final int BACKSPACE = 129;
+    /**Jack character code for a double quote*/
+    private static final int DOUBLE_QUOTE = 34;
+
+    //Function ids
+    private static final int MATH_INIT = 0;
+    private static final int MATH_ABS = 1;
+    private static final int MATH_MULTIPLY = 2;
+    private static final int MATH_DIVIDE = 3;
+    private static final int MATH_MIN = 4;
+    private static final int MATH_MAX = 5;
+    private static final int MATH_SQRT = 6;
+    private static final int MEMORY_INIT = 7;
+    private static final int MEMORY_PEEK = 8;
+    private static final int MEMORY_POKE = 9;
+    private static final int MEMORY_ALLOC = 10;
+    private static final int MEMORY_DE_ALLOC = 11;
+    private static final int ARRAY_NEW = 12;
+    private static final int ARRAY_DISPOSE = 13;
+    private static final int STRING_NEW = 14;
+    private static final int STRING_DISPOSE = 15;
+    private static final int STRING_LENGTH = 16;
+    private static final int STRING_CHAR_AT = 17;
+    private static final int STRING_SET_CHAR_AT = 18;
+    private static final int STRING_APPEND_CHAR = 19;
+    private static final int STRING_ERASE_LAST_CHAR = 20;
+    private static final int STRING_INT_VALUE = 21;
+    private static final int STRING_SET_INT = 22;
+    private static final int STRING_BACK_SPACE = 23;
+    private static final int STRING_DOUBLE_QUOTE = 24;
+    private static final int STRING_NEW_LINE = 25;
+    private static final int OUTPUT_INIT = 26;
+    private static final int OUTPUT_MOVE_CURSOR = 27;
+    private static final int OUTPUT_PRINT_CHAR = 28;
+    private static final int OUTPUT_PRINT_STRING = 29;
+    private static final int OUTPUT_PRINT_INT = 30;
+    private static final int OUTPUT_PRINTLN = 31;
+    private static final int OUTPUT_BACK_SPACE = 32;
+    private static final int SCREEN_INIT = 33;
+    private static final int SCREEN_CLEAR_SCREEN = 34;
+    private static final int SCREEN_SET_COLOR = 35;
+    private static final int SCREEN_DRAW_PIXEL = 36;
+    private static final int SCREEN_DRAW_LINE = 37;
+    private static final int SCREEN_DRAW_RECTANGLE = 38;
+    private static final int SCREEN_DRAW_CIRCLE = 39;
+    private static final int KEYBOARD_INIT = 40;
+    private static final int KEYBOARD_KEY_PRESSED = 41;
+    private static final int KEYBOARD_READ_CHAR = 42;
+    private static final int KEYBOARD_READ_LINE = 43;
+    private static final int KEYBOARD_READ_INT = 44;
+    private static final int SYS_HALT = 45;
+    private static final int SYS_ERROR = 46;
+    private static final int SYS_WAIT = 47;
+
+    /**Largest number of arguments of any function*/
+    static final int MAX_ARGUMENTS = 4;
+    /**Names of the implemented functions, indexed by function id, in the same order as the ids above*/
+    private static final String[] NAMES = {
+            "Math.init", "Math.abs", "Math.multiply", "Math.divide", "Math.min", "Math.max", "Math.sqrt",
+            "Memory.init", "Memory.peek", "Memory.poke", "Memory.alloc", "Memory.deAlloc",
+            "Array.new", "Array.dispose",
+            "String.new", "String.dispose", "String.length", "String.charAt", "String.setCharAt",
+            "String.appendChar", "String.eraseLastChar", "String.intValue", "String.setInt",
+            "String.backSpace", "String.doubleQuote", "String.newLine",
+            "Output.init", "Output.moveCursor", "Output.printChar", "Output.printString", "Output.printInt",
+            "Output.println", "Output.backSpace",
+            "Screen.init", "Screen.clearScreen", "Screen.setColor", "Screen.drawPixel", "Screen.drawLine",
+            "Screen.drawRectangle", "Screen.drawCircle",
+            "Keyboard.init", "Keyboard.keyPressed", "Keyboard.readChar", "Keyboard.readLine", "Keyboard.readInt",
+            "Sys.halt", "Sys.error", "Sys.wait"
+    };
+    /**Number of arguments of each function, indexed by function id*/
+    private static final int[] ARGUMENT_COUNTS = {
+            0, 1, 2, 2, 2, 2, 1,
+            0, 1, 2, 1, 1,
+            1, 1,
+            1, 1, 1, 2, 3, 2, 1, 1, 2, 0, 0, 0,
+            0, 2, 1, 1, 1, 0, 0,
+            0, 0, 1, 2, 4, 4, 3,
+            0, 0, 0, 1, 1,
+            0, 1, 1
+    };
+    /**Function id of each implemented function name*/
+    private static final Map<String, Integer> IDS = new HashMap<>();
+
+    static {
+        for (int id = 0; id < NAMES.length; id++) {
+            IDS.put(NAMES[id], id);
+        }
+    }
+
+    /**RAM shared with the interpreter*/
+    private final short[] ram;
+    /**Free heap blocks, keyed by base address, with their sizes*/
+    private final TreeMap<Integer, Integer> freeBlocks;
+    /**Allocated heap blocks, keyed by base address, with their sizes*/
+    private final HashMap<Integer, Integer> allocatedBlocks;
+    /**Stream Output functions write to*/
+    private PrintStream output;
+    /**Reader Keyboard read functions take characters from*/
+    private Reader input;
+    /**Whether Screen functions draw in black*/
+    private boolean black;
+    /**Whether Sys.halt or Sys.error has been called*/
+    private boolean halted;
+    /**Code passed to Sys.error, or 0 if it has not been called*/
+    private int errorCode;
+
+    /**
+     * Constructs the OS with an empty heap.
+     *
+     * @param _ram The interpreter's RAM.
+     * @param _output The stream Output functions write to.
+     * @param _input The reader Keyboard read functions take characters from.
+     */
+    NativeOs(short[] _ram, PrintStream _output, Reader _input) {
+        ram = _ram;
+        output = _output;
+        input = _input;
+        freeBlocks = new TreeMap<>();
+        allocatedBlocks = new HashMap<>();
+        initMemory();
+        black = true;
+    }
+
+    /**
+     * Looks up an OS function.
+     *
+     * @param _name The full function name, such as Math.multiply.
+     * @return The function id, or -1 if the function is not implemented.
+     */
+    static int lookup(String _name) {
+        Integer id = IDS.get(_name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Gets the number of arguments an OS function takes, including the object for methods.
+     *
+     * @param _id The function id.
+     * @return The argument count.
+     */
+    static int argumentCount(int _id) {
+        return ARGUMENT_COUNTS[_id];
+    }
+
+    /**
+     * Gets the name of an OS function.
+     *
+     * @param _id The function id.
+     * @return The full function name.
+     */
+    static String name(int _id) {
+        return NAMES[_id];
+    }
+
+    /**
+     * Sets the stream Output functions write to.
+     *
+     * @param _output The output stream.
+     */
+    void setOutput(PrintStream _output) {
+        output = _output;
+    }
+
+    /**
+     * Sets the reader Keyboard read functions take characters from.
+     *
+     * @param _input The input reader.
+     */
+    void setInput(Reader _input) {
+        input = _input;
+    }
+
+    /**
+     * Checks whether Sys.halt or Sys.error has been called.
+     *
+     * @return True if the program has halted, false if not.
+     */
+    boolean isHalted() {
+        return halted;
+    }
+
+    /**
+     * Gets the code passed to Sys.error.
+     *
+     * @return The error code, or 0 if Sys.error has not been called.
+     */
+    int getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * Calls an OS function.
+     *
+     * @param _id The function id.
+     * @param _args The arguments, as signed 16-bit values. Only the first argumentCount(_id) are read.
+     * @return The return value, which is 0 for void functions.
+     */
+    int call(int _id, int[] _args) {
+        switch (_id) {
+            case MATH_INIT:
+            case OUTPUT_INIT:
+            case SCREEN_INIT:
+            case KEYBOARD_INIT:
+                return 0;
+            case MATH_ABS:
+                return (short) Math.abs(_args[0]);
+            case MATH_MULTIPLY:
+                return (short) (_args[0] * _args[1]);
+            case MATH_DIVIDE:
+                if (_args[1] == 0) {
+                    return error(3);
+                }
+                return (short) (_args[0] / _args[1]);
+            case MATH_MIN:
+                return Math.min(_args[0], _args[1]);
+            case MATH_MAX:
+                return Math.max(_args[0], _args[1]);
+            case MATH_SQRT:
+                if (_args[0] < 0) {
+                    return error(4);
+                }
+                return (int) Math.sqrt(_args[0]);
+            case MEMORY_INIT:
+                initMemory();
+                return 0;
+            case MEMORY_PEEK:
+                return ram[_args[0] & 0x7FFF];
+            case MEMORY_POKE:
+                ram[_args[0] & 0x7FFF] = (short) _args[1];
+                return 0;
+            case MEMORY_ALLOC:
+                return alloc(_args[0], 5);
+            case MEMORY_DE_ALLOC:
+            case ARRAY_DISPOSE:
+            case STRING_DISPOSE:
+                deAlloc(_args[0]);
+                return 0;
+            case ARRAY_NEW:
+                return alloc(_args[0], 2);
+            case STRING_NEW:
+                return newString(_args[0]);
+            case STRING_LENGTH:
+                return ram[(_args[0] + 1) & 0x7FFF];
+            case STRING_CHAR_AT:
+                if (_args[1] < 0 || _args[1] >= ram[(_args[0] + 1) & 0x7FFF]) {
+                    return error(15);
+                }
+                return ram[(_args[0] + 2 + _args[1]) & 0x7FFF];
+            case STRING_SET_CHAR_AT:
+                if (_args[1] < 0 || _args[1] >= ram[(_args[0] + 1) & 0x7FFF]) {
+                    return error(16);
+                }
+                ram[(_args[0] + 2 + _args[1]) & 0x7FFF] = (short) _args[2];
+                return 0;
+            case STRING_APPEND_CHAR:
+                if (ram[(_args[0] + 1) & 0x7FFF] >= ram[_args[0] & 0x7FFF]) {
+                    return error(17);
+                }
+                appendChar(_args[0], _args[1]);
+                return _args[0];
+            case STRING_ERASE_LAST_CHAR:
+                if (ram[(_args[0] + 1) & 0x7FFF] <= 0) {
+                    return error(18);
+                }
+                ram[(_args[0] + 1) & 0x7FFF]--;
+                return 0;
+            case STRING_INT_VALUE:
+                return intValue(_args[0]);
+            case STRING_SET_INT:
+                String digits = Integer.toString(_args[1]);
+                if (digits.length() > ram[_args[0] & 0x7FFF]) {
+                    return error(19);
+                }
+                ram[(_args[0] + 1) & 0x7FFF] = 0;
+                for (int i = 0; i < digits.length(); i++) {
+                    appendChar(_args[0], digits.charAt(i));
+                }
+                return 0;
+            case STRING_BACK_SPACE:
+                return BACKSPACE;
+            case STRING_DOUBLE_QUOTE:
+                return DOUBLE_QUOTE;
+            case STRING_NEW_LINE:
+                return NEW_LINE;
+            case OUTPUT_MOVE_CURSOR:
+                if (_args[0] < 0 || _args[0] > 22 || _args[1] < 0 || _args[1] > 63) {
+                    return error(20);
+                }
+                return 0;
+            case OUTPUT_PRINT_CHAR:
+                printChar(_args[0]);
+                return 0;
+            case OUTPUT_PRINT_STRING:
+                printString(_args[0]);
+                return 0;
+            case OUTPUT_PRINT_INT:
+                output.print(_args[0]);
+                return 0;
+            case OUTPUT_PRINTLN:
+                printChar(NEW_LINE);
+                return 0;
+            case OUTPUT_BACK_SPACE:
+                printChar(BACKSPACE);
+                return 0;
+            case SCREEN_CLEAR_SCREEN:
+                for (int address = SCREEN; address < KEYBOARD; address++) {
+                    ram[address] = 0;
+                }
+                return 0;
+            case SCREEN_SET_COLOR:
+                black = _args[0] != 0;
+                return 0;
+            case SCREEN_DRAW_PIXEL:
+                if (!onScreen(_args[0], _args[1])) {
+                    return error(7);
+                }
+                drawPixel(_args[0], _args[1]);
+                return 0;
+            case SCREEN_DRAW_LINE:
+                if (!onScreen(_args[0], _args[1]) || !onScreen(_args[2], _args[3])) {
+                    return error(8);
+                }
+                drawLine(_args[0], _args[1], _args[2], _args[3]);
+                return 0;
+            case SCREEN_DRAW_RECTANGLE:
+                if (_args[0] > _args[2] || _args[1] > _args[3] || !onScreen(_args[0], _args[1])
+                        || !onScreen(_args[2], _args[3])) {
+                    return error(9);
+                }
+                for (int y = _args[1]; y <= _args[3]; y++) {
+                    drawLine(_args[0], y, _args[2], y);
+                }
+                return 0;
+            case SCREEN_DRAW_CIRCLE:
+                return drawCircle(_args[0], _args[1], _args[2]);
+            case KEYBOARD_KEY_PRESSED:
+                return ram[KEYBOARD];
+            case KEYBOARD_READ_CHAR:
+                int c = readChar();
+                printChar(c);
+                return c;
+            case KEYBOARD_READ_LINE:
+                return readLine(_args[0]);
+            case KEYBOARD_READ_INT:
+                int line = readLine(_args[0]);
+                int value = intValue(line);
+                deAlloc(line);
+                return value;
+            case SYS_HALT:
+                halted = true;
+                return 0;
+            case SYS_ERROR:
+                return error(_args[0]);
+            case SYS_WAIT:
+                if (_args[0] < 0) {
+                    return error(1);
+                }
+                return 0;
+            default:
+                throw new IllegalArgumentException("Unknown OS function " + _id);
+        }
+    }
+
+    /**
+     * Reports an error as Sys.error does, printing ERR and the code, and halts.
+     *
+     * @param _code The error code.
+     * @return 0, the value returned by the failed function.
+     */
+    private int error(int _code) {
+        output.print("ERR" + _code);
+        output.flush();
+        errorCode = _code;
+        halted = true;
+        return 0;
+    }
+
+    /**
+     * Empties the heap.
+     */
+    private void initMemory() {
+        freeBlocks.clear();
+        allocatedBlocks.clear();
+        freeBlocks.put(HEAP_BASE, HEAP_END - HEAP_BASE);
+    }
+
+    /**
+     * Allocates a heap block, taking the first free block that is large enough.
+     *
+     * @param _size The number of words to allocate.
+     * @param _sizeError The error code for a size that is not positive.
+     * @return The base address of the block, or 0 after an error.
+     */
+    private int alloc(int _size, int _sizeError) {
+        if (_size <= 0) {
+            return error(_sizeError);
+        }
+        for (Map.Entry<Integer, Integer> block: freeBlocks.entrySet()) {
+            if (block.getValue() >= _size) {
+                int base = block.getKey();
+                int remaining = block.getValue() - _size;
+                freeBlocks.remove(base);
+                if (remaining > 0) {
+                    freeBlocks.put(base + _size, remaining);
+                }
+                allocatedBlocks.put(base, _size);
+                return base;
+            }
+        }
+        return error(6);
+    }
+
+    /**
+     * Frees a heap block, merging it with adjacent free blocks. Addresses that are not allocated blocks are
+     * ignored.
+     *
+     * @param _base The base address of the block.
+     */
+    private void deAlloc(int _base) {
+        Integer size = allocatedBlocks.remove(_base);
+        if (size == null) {
+            return;
+        }
+        int base = _base;
+        Map.Entry<Integer, Integer> previous = freeBlocks.lowerEntry(base);
+        if (previous != null && previous.getKey() + previous.getValue() == base) {
+            base = previous.getKey();
+            size += previous.getValue();
+            freeBlocks.remove(base);
+        }
+        Integer next = freeBlocks.remove(base + size);
+        if (next != null) {
+            size += next;
+        }
+        freeBlocks.put(base, size);
+    }
+
+    /**
+     * Allocates an empty string. A string is a heap block holding its maximum length, its length and then its
+     * characters; Jack code only accesses strings through String functions.
+     *
+     * @param _maxLength The maximum length.
+     * @return The string, or 0 after an error.
+     */
+    private int newString(int _maxLength) {
+        if (_maxLength < 0) {
+            return error(14);
+        }
+        int string = alloc(_maxLength + 2, 14);
+        if (string != 0) {
+            ram[string] = (short) _maxLength;
+            ram[string + 1] = 0;
+        }
+        return string;
+    }
+
+    /**
+     * Appends a character to a string which has room for it.
+     *
+     * @param _string The string.
+     * @param _c The character.
+     */
+    private void appendChar(int _string, int _c) {
+        int length = ram[(_string + 1) & 0x7FFF];
+        ram[(_string + 2 + length) & 0x7FFF] = (short) _c;
+        ram[(_string + 1) & 0x7FFF] = (short) (length + 1);
+    }
+
+    /**
+     * Parses the integer at the start of a string: an optional minus sign followed by digits.
+     *
+     * @param _string The string.
+     * @return The value of the digits, or 0 if there are none.
+     */
+    private int intValue(int _string) {
+        int length = ram[(_string + 1) & 0x7FFF];
+        int value = 0;
+        int i = 0;
+        boolean negative = length > 0 && ram[(_string + 2) & 0x7FFF] == '-';
+        if (negative) {
+            i++;
+        }
+        for (; i < length; i++) {
+            int c = ram[(_string + 2 + i) & 0x7FFF];
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return (short) (negative ? -value : value);
+    }
+
+    /**
+     * Writes a character to the output, translating Jack's new line and backspace codes.
+     *
+     * @param _c The Jack character code.
+     */
+    private void printChar(int _c) {
+        if (_c == NEW_LINE) {
+            output.println();
+        }
+        else if (_c == BACKSPACE) {
+            output.print('\b');
+        }
+        else {
+            output.print((char) _c);
+        }
+    }
+
+    /**
+     * Writes the characters of a string to the output.
+     *
+     * @param _string The string.
+     */
+    private void printString(int _string) {
+        for (int i = 0; i < ram[(_string + 1) & 0x7FFF]; i++) {
+            printChar(ram[(_string + 2 + i) & 0x7FFF]);
+        }
+    }
+
+    /**
+     * Reads a character from the input, translating line ends to Jack's new line code. The end of input reads as
+     * a new line, so reads never block once input runs out.
+     *
+     * @return The Jack character code.
+     */
+    private int readChar() {
+        try {
+            int c = input.read();
+            while (c == '\r') {
+                c = input.read();
+            }
+            return c == -1 || c == '\n' ? NEW_LINE : c;
+        }
+        catch (IOException e) {
+            return NEW_LINE;
+        }
+    }
+
+    /**
+     * Prints a message, then reads a line of input into a new string, echoing it.
+     *
+     * @param _message The message string.
+     * @return The new string.
+     */
+    private int readLine(int _message) {
+        printString(_message);
+        StringBuilder line = new StringBuilder();
+        for (int c = readChar(); c != NEW_LINE; c = readChar()) {
+            line.append((char) c);
+        }
+        output.println(line);
+        int string = newString(line.length());
+        for (int i = 0; string != 0 && i < line.length(); i++) {
+            appendChar(string, line.charAt(i));
+        }
+        return string;
+    }
+
+    /**
+     * Checks whether a point lies on the screen.
+     *
+     * @param _x The column, from 0 to 511.
+     * @param _y The row, from 0 to 255.
+     * @return True if the point is on the screen, false if not.
+     */
+    private static boolean onScreen(int _x, int _y) {
+        return _x >= 0 && _x < 512 && _y >= 0 && _y < 256;
+    }
+
+    /**
+     * Sets a pixel to the current color.
+     *
+     * @param _x The column.
+     * @param _y The row.
+     */
+    private void drawPixel(int _x, int _y) {
+        int address = SCREEN + _y * 32 + (_x >> 4);
+        int bit = 1 << (_x & 15);
+        ram[address] = (short) (black ? ram[address] | bit : ram[address] & ~bit);
+    }
+
+    /**
+     * Draws a line between two points on the screen, stepping along x or y depending on which keeps the line
+     * closest to the ideal, as the standard OS does.
+     *
+     * @param _x1 The column of the first point.
+     * @param _y1 The row of the first point.
+     * @param _x2 The column of the second point.
+     * @param _y2 The row of the second point.
+     */
+    private void drawLine(int _x1, int _y1, int _x2, int _y2) {
+        int dx = Math.abs(_x2 - _x1);
+        int dy = Math.abs(_y2 - _y1);
+        int stepX = _x2 < _x1 ? -1 : 1;
+        int stepY = _y2 < _y1 ? -1 : 1;
+        int a = 0;
+        int b = 0;
+        int difference = 0;
+        while (a <= dx && b <= dy) {
+            drawPixel(_x1 + a * stepX, _y1 + b * stepY);
+            if (dy == 0 || (dx != 0 && difference < 0)) {
+                a++;
+                difference += dy;
+            }
+            else {
+                b++;
+                difference -= dx;
+            }
+        }
+    }
+
+    /**
+     * Draws a filled circle as horizontal lines.
+     *
+     * @param _x The column of the center.
+     * @param _y The row of the center.
+     * @param _r The radius.
+     * @return 0.
+     */
+    private int drawCircle(int _x, int _y, int _r) {
+        if (!onScreen(_x, _y)) {
+            return error(12);
+        }
+        if (_r < 0 || _r > 181 || !onScreen(_x - _r, _y - _r) || !onScreen(_x + _r, _y + _r)) {
+            return error(13);
+        }
+        for (int dy = -_r; dy <= _r; dy++) {
+            int dx = (int) Math.sqrt(_r * _r - dy * dy);
+            drawLine(_x - dx, _y + dy, _x + dx, _y + dy);
+        }
+        return 0;
+    }
+}
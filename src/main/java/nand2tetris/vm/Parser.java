@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.Scanner;
+import java.util.Set;
 
 /**
  * Class which parses commands from .vm files.
@@ -142,6 +143,41 @@ public class Parser {
         }
     }
 
+    /**
+     * Removes the commands of functions not in the given set. Commands before the first function are kept.
+     * Should be called before the first advance.
+     * @param _functions The names of the functions to keep.
+     * @return The number of commands removed.
+     */
+    public int retainFunctions(Set<String> _functions) {
+        ArrayList<String> retained = new ArrayList<>();
+        boolean keep = true;
+        for (String line: lines) {
+            String[] tokens = line.split(" ");
+            if (tokens[0].equals("function") && tokens.length > 1) {
+                keep = _functions.contains(tokens[1]);
+            }
+            if (keep) {
+                retained.add(line);
+            }
+        }
+        int removed = lines.size() - retained.size();
+        lines = retained;
+        return removed;
+    }
+
+    /**
+     * Gets the keyword of an upcoming command without advancing to it.
+     * @param _ahead How many commands ahead to look, 1 for the next command.
+     * @return The first word of that command, or null if the file ends first.
+     */
+    public String peekCommand(int _ahead) {
+        if (currentLine + _ahead >= lines.size()) {
+            return null;
+        }
+        return lines.get(currentLine + _ahead).split(" ")[0];
+    }
+
     /**
      * Gets the current command type.
      * @return A CommandType enum representing the current command type.
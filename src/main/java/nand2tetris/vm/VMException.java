@@ -0,0 +1,16 @@
+package nand2tetris.vm;
+
+/**
+ * Custom exception for errors detected while loading or running VM code.
+ */
+public class VMException extends Exception {
+
+    /**
+     * Overloaded constructor - calls default exception constructor.
+     *
+     * @param errorMessage The error message to throw.
+     */
+    public VMException(String errorMessage) {
+        super(errorMessage);
+    }
+}
@@ -0,0 +1,678 @@
+package nand2tetris.vm;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Class which runs VM code directly, without translating it to assembly. The .vm files are parsed once by Parser
+ * into parallel int arrays of opcodes and operands, with labels and function names resolved to command indices.
+ * Commands then update RAM exactly as the code written by CodeWriter would, including its use of R13 to R15 and
+ * its 16-bit comparisons, and statics get the addresses the assembler would give them when every called
+ * function is defined. Return addresses pushed by calls are command indices rather than ROM addresses.
+ * <p>
+ * Calls to Jack OS functions which the loaded files do not define run as native Java code in NativeOs.
+ */
+public class VMInterpreter {
+    //Opcodes
+    private static final int OP_PUSH_CONSTANT = 0;
+    private static final int OP_PUSH_SEGMENT = 1;
+    private static final int OP_PUSH_FIXED = 2;
+    private static final int OP_POP_SEGMENT = 3;
+    private static final int OP_POP_FIXED = 4;
+    private static final int OP_ADD = 5;
+    private static final int OP_SUB = 6;
+    private static final int OP_NEG = 7;
+    private static final int OP_EQ = 8;
+    private static final int OP_GT = 9;
+    private static final int OP_LT = 10;
+    private static final int OP_AND = 11;
+    private static final int OP_OR = 12;
+    private static final int OP_NOT = 13;
+    private static final int OP_GOTO = 14;
+    private static final int OP_IF_GOTO = 15;
+    private static final int OP_FUNCTION = 16;
+    private static final int OP_CALL = 17;
+    private static final int OP_CALL_NATIVE = 18;
+    private static final int OP_RETURN = 19;
+    private static final int OP_NOP = 20;
+    private static final int OP_HALT = 21;
+
+    /**Number of words of RAM*/
+    public static final int MEMORY_SIZE = 32768;
+    /**First address given to static variables*/
+    private static final int STATIC_BASE = 16;
+    /**Largest number of commands, so that every return address fits in a RAM word*/
+    private static final int MAX_COMMANDS = 65536;
+
+    /**Opcode of each command*/
+    private int[] opcodes;
+    /**First operand of each command: a value, address, segment register or command index*/
+    private int[] operands;
+    /**Second operand of each command: a segment index or argument count*/
+    private int[] arguments;
+    /**Number of commands*/
+    private int length;
+
+    /**RAM*/
+    private final short[] ram;
+    /**Native OS functions*/
+    private final NativeOs os;
+    /**Arguments of the native OS function being called, reused between calls*/
+    private final int[] nativeArguments;
+    /**Index of the next command*/
+    private int pc;
+    /**Number of commands executed*/
+    private long commandCount;
+    /**Whether the program has halted*/
+    private boolean halted;
+
+    /**
+     * Loads a .vm file, or every .vm file in a directory in the order VMTranslator translates them, and sets up
+     * the bootstrap code: SP is set to 256 and Sys.init is called.
+     *
+     * @param _input The .vm file or directory.
+     */
+    public VMInterpreter(File _input) throws IOException, VMException {
+        File[] files = new File[] {_input};
+        if (_input.isDirectory()) {
+            FilenameFilter filter = (dir, name) -> name.toLowerCase().endsWith(".vm");
+            files = _input.listFiles(filter);
+            if (files == null || files.length == 0) {
+                throw new VMException("No .vm files found in given directory");
+            }
+        }
+
+        ram = new short[MEMORY_SIZE];
+        os = new NativeOs(ram, System.out, new InputStreamReader(System.in, StandardCharsets.US_ASCII));
+        nativeArguments = new int[NativeOs.MAX_ARGUMENTS];
+        opcodes = new int[256];
+        operands = new int[256];
+        arguments = new int[256];
+        load(files);
+        reset();
+    }
+
+    /**
+     * Parses the files into commands and resolves labels and calls.
+     *
+     * @param _files The .vm files.
+     */
+    private void load(File[] _files) throws IOException, VMException {
+        HashMap<String, Integer> labels = new HashMap<>();
+        HashMap<String, Integer> functions = new HashMap<>();
+        HashMap<String, Integer> statics = new HashMap<>();
+        ArrayList<String> jumpTargets = new ArrayList<>();
+        ArrayList<String> callTargets = new ArrayList<>();
+
+        //Bootstrap: call Sys.init 0, halting if it returns
+        add(OP_CALL, 0, 0);
+        callTargets.add("Sys.init");
+        add(OP_HALT, 0, 0);
+
+        String currentFunction = "Sys.init";
+        for (File file: _files) {
+            Parser parser = new Parser(file);
+            while (parser.hasMoreCommands()) {
+                parser.advance();
+                switch (parser.commandType()) {
+                    case C_ARITHMETIC:
+                        add(arithmeticOpcode(parser.arg1()), 0, 0);
+                        break;
+                    case C_PUSH:
+                    case C_POP:
+                        addPushPop(parser.commandType() == Parser.CommandType.C_PUSH, parser.arg1(), parser.arg2(),
+                                file.getName(), statics);
+                        break;
+                    case C_LABEL:
+                        labels.put(currentFunction + "$" + parser.arg1(), length);
+                        break;
+                    case C_GOTO:
+                    case C_IF:
+                        jumpTargets.add(currentFunction + "$" + parser.arg1());
+                        add(parser.commandType() == Parser.CommandType.C_GOTO ? OP_GOTO : OP_IF_GOTO, jumpTargets.size() - 1, 0);
+                        break;
+                    case C_FUNCTION:
+                        currentFunction = parser.arg1();
+                        functions.put(currentFunction, length);
+                        add(OP_FUNCTION, parser.arg2(), 0);
+                        break;
+                    case C_RETURN:
+                        add(OP_RETURN, 0, 0);
+                        break;
+                    case C_CALL:
+                        add(OP_CALL, callTargets.size(), parser.arg2());
+                        callTargets.add(parser.arg1());
+                        break;
+                }
+            }
+        }
+
+        //Without a Sys.init, run Main.main and halt, as the OS's Sys.init does
+        if (!functions.containsKey("Sys.init")) {
+            functions.put("Sys.init", length);
+            add(OP_FUNCTION, 0, 0);
+            add(OP_CALL, callTargets.size(), 0);
+            callTargets.add("Main.main");
+            add(OP_POP_FIXED, 5, 0);
+            add(OP_CALL, callTargets.size(), 0);
+            callTargets.add("Sys.halt");
+        }
+
+        //Halt rather than run past the last command
+        add(OP_HALT, 0, 0);
+        if (length > MAX_COMMANDS) {
+            throw new VMException("Program of " + length + " commands is too large.");
+        }
+
+        //Resolve jumps and calls, falling back to native OS functions for undefined functions
+        for (int i = 0; i < length; i++) {
+            switch (opcodes[i]) {
+                case OP_GOTO:
+                case OP_IF_GOTO:
+                    String label = jumpTargets.get(operands[i]);
+                    Integer target = labels.get(label);
+                    if (target == null) {
+                        throw new VMException("Undefined label " + label);
+                    }
+                    operands[i] = target;
+                    break;
+                case OP_CALL:
+                    String function = callTargets.get(operands[i]);
+                    Integer address = functions.get(function);
+                    if (address != null) {
+                        operands[i] = address;
+                        break;
+                    }
+                    int id = NativeOs.lookup(function);
+                    if (id == -1) {
+                        throw new VMException("Undefined function " + function);
+                    }
+                    if (arguments[i] != NativeOs.argumentCount(id)) {
+                        throw new VMException(function + " takes " + NativeOs.argumentCount(id) + " arguments, but "
+                                + arguments[i] + " are passed.");
+                    }
+                    opcodes[i] = OP_CALL_NATIVE;
+                    operands[i] = id;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Appends a command.
+     *
+     * @param _opcode The opcode.
+     * @param _operand The first operand.
+     * @param _argument The second operand.
+     */
+    private void add(int _opcode, int _operand, int _argument) {
+        if (length == opcodes.length) {
+            opcodes = Arrays.copyOf(opcodes, length * 2);
+            operands = Arrays.copyOf(operands, length * 2);
+            arguments = Arrays.copyOf(arguments, length * 2);
+        }
+        opcodes[length] = _opcode;
+        operands[length] = _operand;
+        arguments[length] = _argument;
+        length++;
+    }
+
+    /**
+     * Appends a push or pop command.
+     *
+     * @param _push True for push, false for pop.
+     * @param _segment The segment name.
+     * @param _index The index within the segment.
+     * @param _filename The name of the file containing the command, which scopes statics.
+     * @param _statics The address of each static variable seen so far.
+     */
+    private void addPushPop(boolean _push, String _segment, int _index, String _filename, HashMap<String, Integer> _statics) throws VMException {
+        switch (_segment) {
+            case "constant":
+                //Popping to constant does nothing, as in CodeWriter
+                add(_push ? OP_PUSH_CONSTANT : OP_NOP, _index & 0x7FFF, 0);
+                return;
+            case "local":
+                add(_push ? OP_PUSH_SEGMENT : OP_POP_SEGMENT, 1, _index);
+                return;
+            case "argument":
+                add(_push ? OP_PUSH_SEGMENT : OP_POP_SEGMENT, 2, _index);
+                return;
+            case "this":
+                add(_push ? OP_PUSH_SEGMENT : OP_POP_SEGMENT, 3, _index);
+                return;
+            case "that":
+                add(_push ? OP_PUSH_SEGMENT : OP_POP_SEGMENT, 4, _index);
+                return;
+            case "pointer":
+                add(_push ? OP_PUSH_FIXED : OP_POP_FIXED, (_index + 3) & 0x7FFF, 0);
+                return;
+            case "temp":
+                add(_push ? OP_PUSH_FIXED : OP_POP_FIXED, (_index + 5) & 0x7FFF, 0);
+                return;
+            case "static":
+                String name = _filename + "." + _index;
+                Integer address = _statics.get(name);
+                if (address == null) {
+                    address = STATIC_BASE + _statics.size();
+                    _statics.put(name, address);
+                }
+                add(_push ? OP_PUSH_FIXED : OP_POP_FIXED, address, 0);
+                return;
+            default:
+                throw new VMException("Unknown segment " + _segment);
+        }
+    }
+
+    /**
+     * Gets the opcode of an arithmetic command.
+     *
+     * @param _command The command name.
+     * @return The opcode.
+     */
+    private static int arithmeticOpcode(String _command) throws VMException {
+        switch (_command) {
+            case "add":
+                return OP_ADD;
+            case "sub":
+                return OP_SUB;
+            case "neg":
+                return OP_NEG;
+            case "eq":
+                return OP_EQ;
+            case "gt":
+                return OP_GT;
+            case "lt":
+                return OP_LT;
+            case "and":
+                return OP_AND;
+            case "or":
+                return OP_OR;
+            case "not":
+                return OP_NOT;
+            default:
+                throw new VMException("Unknown command " + _command);
+        }
+    }
+
+    /**
+     * Runs the program until it halts or the budget is used up. The program halts when it calls Sys.halt or
+     * Sys.error, when Sys.init returns, or when it reaches a goto to itself, as in {@code label END goto END}.
+     *
+     * @param _budget The largest number of commands to execute.
+     * @return The number of commands executed.
+     */
+    public long run(long _budget) throws VMException {
+        int[] opcodes = this.opcodes;
+        int[] operands = this.operands;
+        int[] arguments = this.arguments;
+        short[] ram = this.ram;
+        int pc = this.pc;
+        long executed = 0;
+
+        try {
+            while (executed < _budget && !halted) {
+                int operand = operands[pc];
+                int sp;
+                int address;
+                executed++;
+
+                switch (opcodes[pc]) {
+                    case OP_PUSH_CONSTANT:
+                        push(ram, operand);
+                        pc++;
+                        break;
+                    case OP_PUSH_SEGMENT:
+                        push(ram, ram[(short) (arguments[pc] + ram[operand]) & 0x7FFF]);
+                        pc++;
+                        break;
+                    case OP_PUSH_FIXED:
+                        push(ram, ram[operand]);
+                        pc++;
+                        break;
+                    case OP_POP_SEGMENT:
+                        pop(ram, (short) (arguments[pc] + ram[operand]));
+                        pc++;
+                        break;
+                    case OP_POP_FIXED:
+                        pop(ram, operand);
+                        pc++;
+                        break;
+                    case OP_ADD:
+                    case OP_SUB:
+                    case OP_EQ:
+                    case OP_GT:
+                    case OP_LT:
+                    case OP_AND:
+                    case OP_OR:
+                        ram[0] = (short) (ram[0] - 1);
+                        int y = ram[ram[0] & 0x7FFF];
+                        address = (ram[0] - 1) & 0x7FFF;
+                        ram[address] = (short) binary(opcodes[pc], ram[address], y);
+                        pc++;
+                        break;
+                    case OP_NEG:
+                        address = (ram[0] - 1) & 0x7FFF;
+                        ram[address] = (short) -ram[address];
+                        pc++;
+                        break;
+                    case OP_NOT:
+                        address = (ram[0] - 1) & 0x7FFF;
+                        ram[address] = (short) ~ram[address];
+                        pc++;
+                        break;
+                    case OP_GOTO:
+                        if (operand == pc) {
+                            halted = true;
+                        }
+                        pc = operand;
+                        break;
+                    case OP_IF_GOTO:
+                        ram[0] = (short) (ram[0] - 1);
+                        pc = ram[ram[0] & 0x7FFF] != 0 ? operand : pc + 1;
+                        break;
+                    case OP_FUNCTION:
+                        sp = (short) (ram[0] + operand);
+                        ram[0] = (short) sp;
+                        for (int i = 1; i <= operand; i++) {
+                            ram[(sp - i) & 0x7FFF] = 0;
+                        }
+                        pc++;
+                        break;
+                    case OP_CALL:
+                        pushFrame(ram, pc + 1);
+                        pushFrame(ram, ram[1]);
+                        pushFrame(ram, ram[2]);
+                        pushFrame(ram, ram[3]);
+                        pushFrame(ram, ram[4]);
+                        ram[2] = (short) (ram[0] - arguments[pc] - 5);
+                        ram[1] = ram[0];
+                        pc = operand;
+                        break;
+                    case OP_CALL_NATIVE:
+                        pc = callNative(operand, arguments[pc], pc);
+                        break;
+                    case OP_RETURN:
+                        ram[14] = ram[1];
+                        ram[15] = ram[(ram[14] - 5) & 0x7FFF];
+                        ram[ram[2] & 0x7FFF] = ram[(ram[0] - 1) & 0x7FFF];
+                        ram[0] = (short) (ram[2] + 1);
+                        ram[4] = ram[(ram[14] - 1) & 0x7FFF];
+                        ram[3] = ram[(ram[14] - 2) & 0x7FFF];
+                        ram[2] = ram[(ram[14] - 3) & 0x7FFF];
+                        ram[1] = ram[(ram[14] - 4) & 0x7FFF];
+                        pc = ram[15] & 0xFFFF;
+                        if (pc >= length) {
+                            this.pc = pc;
+                            throw new VMException("Return to invalid address " + pc);
+                        }
+                        break;
+                    case OP_NOP:
+                        pc++;
+                        break;
+                    default:
+                        halted = true;
+                        break;
+                }
+            }
+        }
+        finally {
+            this.pc = pc;
+            commandCount += executed;
+        }
+        return executed;
+    }
+
+    /**
+     * Pushes a value, as {@code @SP A=M M=D @SP M=M+1} does.
+     *
+     * @param _ram The RAM.
+     * @param _value The value to push.
+     */
+    private static void push(short[] _ram, int _value) {
+        _ram[_ram[0] & 0x7FFF] = (short) _value;
+        _ram[0] = (short) (_ram[0] + 1);
+    }
+
+    /**
+     * Pushes a value, as {@code @SP M=M+1 A=M-1 M=D} in CodeWriter's call code does.
+     *
+     * @param _ram The RAM.
+     * @param _value The value to push.
+     */
+    private static void pushFrame(short[] _ram, int _value) {
+        _ram[0] = (short) (_ram[0] + 1);
+        _ram[(_ram[0] - 1) & 0x7FFF] = (short) _value;
+    }
+
+    /**
+     * Pops a value to an address, going through R13 as CodeWriter's pop code does.
+     *
+     * @param _ram The RAM.
+     * @param _address The address to pop to.
+     */
+    private static void pop(short[] _ram, int _address) {
+        _ram[13] = (short) _address;
+        int value = _ram[(_ram[0] - 1) & 0x7FFF];
+        _ram[_ram[13] & 0x7FFF] = (short) value;
+        _ram[0] = (short) (_ram[0] - 1);
+    }
+
+    /**
+     * Computes a binary arithmetic or comparison command. Comparisons test the sign of the 16-bit difference,
+     * as the translated code does.
+     *
+     * @param _opcode The opcode.
+     * @param _x The first operand.
+     * @param _y The second operand, from the top of the stack.
+     * @return The result.
+     */
+    private static int binary(int _opcode, int _x, int _y) {
+        switch (_opcode) {
+            case OP_ADD:
+                return _x + _y;
+            case OP_SUB:
+                return _x - _y;
+            case OP_AND:
+                return _x & _y;
+            case OP_OR:
+                return _x | _y;
+            case OP_EQ:
+                return (short) (_x - _y) == 0 ? -1 : 0;
+            case OP_GT:
+                return (short) (_x - _y) > 0 ? -1 : 0;
+            default:
+                return (short) (_x - _y) < 0 ? -1 : 0;
+        }
+    }
+
+    /**
+     * Calls a native OS function, replacing its arguments on the stack with its return value.
+     *
+     * @param _id The function id.
+     * @param _argumentCount The number of arguments on the stack.
+     * @param _pc The index of the call command.
+     * @return The index of the next command.
+     */
+    private int callNative(int _id, int _argumentCount, int _pc) {
+        int base = ram[0] - _argumentCount;
+        for (int i = 0; i < _argumentCount; i++) {
+            nativeArguments[i] = ram[(base + i) & 0x7FFF];
+        }
+        ram[0] = (short) base;
+        push(ram, os.call(_id, nativeArguments));
+        halted |= os.isHalted();
+        return _pc + 1;
+    }
+
+    /**
+     * Resets the program to the bootstrap code, with SP set to 256. RAM is otherwise left as it is.
+     */
+    public void reset() {
+        ram[0] = 256;
+        pc = 0;
+        commandCount = 0;
+        halted = false;
+    }
+
+    /**
+     * Sets the stream Output functions write to.
+     *
+     * @param _output The output stream.
+     */
+    public void setOutput(PrintStream _output) {
+        os.setOutput(_output);
+    }
+
+    /**
+     * Sets the reader Keyboard read functions take characters from.
+     *
+     * @param _input The input reader.
+     */
+    public void setInput(Reader _input) {
+        os.setInput(_input);
+    }
+
+    /**
+     * Gets a word of RAM.
+     *
+     * @param _address The address, from 0 to 32767.
+     * @return The signed 16-bit value at that address.
+     */
+    public int getRam(int _address) {
+        return ram[_address];
+    }
+
+    /**
+     * Sets a word of RAM.
+     *
+     * @param _address The address, from 0 to 32767.
+     * @param _value The value to store. Only the low 16 bits are used.
+     */
+    public void setRam(int _address, int _value) {
+        ram[_address] = (short) _value;
+    }
+
+    /**
+     * Gets the number of commands executed since reset.
+     *
+     * @return The command count.
+     */
+    public long getCommandCount() {
+        return commandCount;
+    }
+
+    /**
+     * Gets the number of commands loaded, including the bootstrap code.
+     *
+     * @return The program length.
+     */
+    public int getProgramLength() {
+        return length;
+    }
+
+    /**
+     * Checks whether the program has halted.
+     *
+     * @return True if the program has halted, false if not.
+     */
+    public boolean isHalted() {
+        return halted;
+    }
+
+    /**
+     * Gets the code the program passed to Sys.error.
+     *
+     * @return The error code, or 0 if Sys.error has not been called.
+     */
+    public int getErrorCode() {
+        return os.getErrorCode();
+    }
+
+    public static void main(String[] args) {
+        //Parse options
+        String inputName = null;
+        long budget = 100_000_000L;
+        ArrayList<int[]> dumps = new ArrayList<>();
+        boolean valid = true;
+        try {
+            for (String arg: args) {
+                if (arg.startsWith("--commands=")) {
+                    budget = Long.parseLong(arg.substring("--commands=".length()));
+                }
+                else if (arg.startsWith("--dump=")) {
+                    String[] parts = arg.substring("--dump=".length()).split("-");
+                    int from = parseAddress(parts[0]);
+                    dumps.add(new int[] {from, parts.length > 1 ? parseAddress(parts[1]) : from});
+                }
+                else if (inputName == null && !arg.startsWith("--")) {
+                    inputName = arg;
+                }
+                else {
+                    valid = false;
+                }
+            }
+        }
+        catch (NumberFormatException e) {
+            valid = false;
+        }
+
+        if (!valid || inputName == null) {
+            System.err.println("Usage: VMInterpreter.jar [--commands=N] [--dump=FROM[-TO]]... [file or directory name]");
+            System.exit(1);
+        }
+
+        File input = new File(inputName);
+        if (!input.exists()) {
+            System.err.println("No such file or directory " + inputName);
+            System.exit(1);
+        }
+
+        try {
+            VMInterpreter interpreter = new VMInterpreter(input);
+            long start = System.nanoTime();
+            long executed = interpreter.run(budget);
+            double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+
+            System.out.println();
+            System.out.printf("%s after %d commands in %.3f s (%.1f million commands/s)%n",
+                    interpreter.isHalted() ? "Halted" : "Stopped", executed, seconds, executed / seconds / 1e6);
+            for (int[] dump: dumps) {
+                for (int address = dump[0]; address <= dump[1]; address++) {
+                    System.out.println("RAM[" + address + "] = " + interpreter.getRam(address));
+                }
+            }
+        }
+        catch (IOException e) {
+            System.err.println("IOException while reading .vm files.");
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        catch (VMException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Parses a RAM address.
+     *
+     * @param _address The address, in decimal.
+     * @return The address.
+     */
+    private static int parseAddress(String _address) {
+        int address = Integer.parseInt(_address);
+        if (address < 0 || address >= MEMORY_SIZE) {
+            throw new NumberFormatException("Address out of range: " + _address);
+        }
+        return address;
+    }
+}
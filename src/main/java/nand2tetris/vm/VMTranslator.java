@@ -3,22 +3,62 @@ package nand2tetris.vm;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Primary VM translator class. Translates the .vm file or directory specified on the command line into a .asm file.
+ * With --shared-calls, calls and returns jump to shared routines instead of being written inline, and the saving
+ * in instructions is reported. With --fuse-compares, a comparison followed by a conditional goto, possibly with a
+ * not in between, is written as a single compare and branch. With --elide-sp, each file is split into basic blocks
+ * which are written without updating the stack pointer in memory at every push and pop, and --cache-tos also keeps
+ * the top of the stack in the D register within each block. With --strip-unused, functions which cannot be
+ * reached through calls from Sys.init are left out, and the dropped functions are reported.
  */
 public class VMTranslator {
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.err.println("Usage: VMTranslator.jar [file or directory name]");
+        //Parse options
+        String inputName = null;
+        boolean sharedCalls = false;
+        boolean fuseCompares = false;
+        boolean elideStackPointer = false;
+        boolean cacheTop = false;
+        boolean stripUnused = false;
+        boolean valid = true;
+        for (String arg: args) {
+            if (arg.equals("--shared-calls")) {
+                sharedCalls = true;
+            }
+            else if (arg.equals("--fuse-compares")) {
+                fuseCompares = true;
+            }
+            else if (arg.equals("--elide-sp")) {
+                elideStackPointer = true;
+            }
+            else if (arg.equals("--cache-tos")) {
+                cacheTop = true;
+            }
+            else if (arg.equals("--strip-unused")) {
+                stripUnused = true;
+            }
+            else if (inputName == null && !arg.startsWith("--")) {
+                inputName = arg;
+            }
+            else {
+                valid = false;
+            }
+        }
+
+        if (!valid || inputName == null) {
+            System.err.println("Usage: VMTranslator.jar [--shared-calls] [--fuse-compares] [--elide-sp] [--cache-tos] [--strip-unused] [file or directory name]");
             System.exit(1);
         }
 
-        File input = new File(args[0]);
+        File input = new File(inputName);
 
         //Error if input path does not exist
         if (!input.exists()) {
-            System.err.println("No such file or directory " + args[0]);
+            System.err.println("No such file or directory " + inputName);
             System.exit(1);
         }
 
@@ -32,56 +72,71 @@ public class VMTranslator {
                 System.err.println("No .vm files found in given directory");
                 System.exit(1);
             }
-            output = new File(args[0] + "/" + input.getName() + ".asm");
+            output = new File(inputName + "/" + input.getName() + ".asm");
         }
         else {
-            if (!args[0].endsWith(".vm")) {
+            if (!inputName.endsWith(".vm")) {
                 System.err.println("Error: VM files should use the .vm extension.");
                 System.exit(1);
             }
-            String outPath = args[0].replaceAll("\\.vm$", ".asm");
+            String outPath = inputName.replaceAll("\\.vm$", ".asm");
             output = new File(outPath);
         }
 
         try {
+            //Find the functions the program can reach from Sys.init
+            Set<String> reachable = null;
+            if (stripUnused) {
+                CallGraph graph = new CallGraph();
+                for (File f: toParse) {
+                    graph.add(new Parser(f));
+                }
+                if (graph.isDefined("Sys.init")) {
+                    reachable = graph.reachable("Sys.init");
+                    List<String> unreachable = graph.unreachable("Sys.init");
+                    int commands = 0;
+                    for (String function: unreachable) {
+                        commands += graph.getSize(function);
+                    }
+                    System.out.printf("Dropped %d of %d functions (%d commands) not reachable from Sys.init%n",
+                            unreachable.size(), unreachable.size() + reachable.size(), commands);
+                    for (String function: unreachable) {
+                        System.out.printf("    %s (%d commands)%n", function, graph.getSize(function));
+                    }
+                }
+                else {
+                    System.out.println("Sys.init is not defined, so all functions were kept");
+                }
+            }
+
             CodeWriter writer = new CodeWriter(output);
+            writer.setSharedCalls(sharedCalls);
+            writer.setCacheTop(cacheTop);
             writer.writeInit();
             for (File f: toParse) {
                 writer.setFileName(f.getName());
                 Parser parser = new Parser(f);
-
-                while (parser.hasMoreCommands()) {
-                    parser.advance();
-                    switch (parser.commandType()) {
-                        case C_ARITHMETIC:
-                            writer.writeArithmetic(parser.arg1());
-                            break;
-                        case C_PUSH:
-                        case C_POP:
-                            writer.writePushPop(parser.commandType(), parser.arg1(), parser.arg2());
-                            break;
-                        case C_LABEL:
-                            writer.writeLabel(parser.arg1());
-                            break;
-                        case C_GOTO:
-                            writer.writeGoto(parser.arg1());
-                            break;
-                        case C_IF:
-                            writer.writeIf(parser.arg1());
-                            break;
-                        case C_FUNCTION:
-                            writer.writeFunction(parser.arg1(), parser.arg2());
-                            break;
-                        case C_RETURN:
-                            writer.writeReturn();
-                            break;
-                        case C_CALL:
-                            writer.writeCall(parser.arg1(), parser.arg2());
-                            break;
+                if (reachable != null) {
+                    parser.retainFunctions(reachable);
+                }
+                //Top of stack caching is done per block, so implies stack pointer elision
+                if (elideStackPointer || cacheTop) {
+                    for (BasicBlock block: BasicBlock.partition(parser)) {
+                        writer.writeBlock(block, fuseCompares);
                     }
                 }
+                else {
+                    translate(parser, writer, fuseCompares);
+                }
             }
             writer.close();
+
+            if (sharedCalls) {
+                int inline = writer.getInlineInstructionCount();
+                int saved = inline - writer.getInstructionCount();
+                System.out.printf("Wrote %d instructions instead of %d with inline calls and returns (%d fewer, %.1f%%)%n",
+                        writer.getInstructionCount(), inline, saved, 100.0 * saved / Math.max(inline, 1));
+            }
         }
         catch (IOException e) {
             System.err.println("IOException while trying to write .asm file.");
@@ -89,4 +144,66 @@ public class VMTranslator {
             System.exit(1);
         }
     }
+
+    /**
+     * Translates the remaining commands of a parser one at a time.
+     *
+     * @param _parser The parser to read commands from.
+     * @param _writer The code writer to write to.
+     * @param _fuseCompares True to write a comparison followed by a conditional goto as a single compare and branch.
+     */
+    private static void translate(Parser _parser, CodeWriter _writer, boolean _fuseCompares) throws IOException {
+        while (_parser.hasMoreCommands()) {
+            _parser.advance();
+            switch (_parser.commandType()) {
+                case C_ARITHMETIC:
+                    if (_fuseCompares && isComparison(_parser.arg1())) {
+                        String command = _parser.arg1();
+                        boolean negated = "not".equals(_parser.peekCommand(1));
+                        if ("if-goto".equals(_parser.peekCommand(negated ? 2 : 1))) {
+                            _parser.advance();
+                            if (negated) {
+                                _parser.advance();
+                            }
+                            _writer.writeCompareIf(command, _parser.arg1(), negated);
+                            break;
+                        }
+                    }
+                    _writer.writeArithmetic(_parser.arg1());
+                    break;
+                case C_PUSH:
+                case C_POP:
+                    _writer.writePushPop(_parser.commandType(), _parser.arg1(), _parser.arg2());
+                    break;
+                case C_LABEL:
+                    _writer.writeLabel(_parser.arg1());
+                    break;
+                case C_GOTO:
+                    _writer.writeGoto(_parser.arg1());
+                    break;
+                case C_IF:
+                    _writer.writeIf(_parser.arg1());
+                    break;
+                case C_FUNCTION:
+                    _writer.writeFunction(_parser.arg1(), _parser.arg2());
+                    break;
+                case C_RETURN:
+                    _writer.writeReturn();
+                    break;
+                case C_CALL:
+                    _writer.writeCall(_parser.arg1(), _parser.arg2());
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Checks whether an arithmetic command is a comparison.
+     *
+     * @param _command The arithmetic command.
+     * @return True if the command is eq, gt or lt, false if not.
+     */
+    private static boolean isComparison(String _command) {
+        return _command.equals("eq") || _command.equals("gt") || _command.equals("lt");
+    }
 }
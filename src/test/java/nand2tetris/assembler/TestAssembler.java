@@ -1,9 +1,15 @@
 package nand2tetris.assembler;
 import org.apache.commons.io.FileUtils;
 import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
 
 public class TestAssembler {
     @Test
@@ -29,4 +35,175 @@ public class TestAssembler {
         Assembler.main(new String[] {"src/test/java/nand2tetris/assembler/Rect.asm"});
         assertTrue("Machine code does not match", FileUtils.contentEquals(new File("src/test/java/nand2tetris/assembler/Rect.hack"), new File("src/test/java/nand2tetris/assembler/Rect.hack.cmp")));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testPongSinglePass() throws IOException {
+        Assembler.main(new String[] {"--single-pass", "src/test/java/nand2tetris/assembler/Pong.asm"});
+        assertTrue("Machine code does not match", FileUtils.contentEquals(new File("src/test/java/nand2tetris/assembler/Pong.hack"), new File("src/test/java/nand2tetris/assembler/Pong.hack.cmp")));
+    }
+
+    @Test
+    public void testRectSinglePass() throws IOException {
+        Assembler.main(new String[] {"--single-pass", "src/test/java/nand2tetris/assembler/Rect.asm"});
+        assertTrue("Machine code does not match", FileUtils.contentEquals(new File("src/test/java/nand2tetris/assembler/Rect.hack"), new File("src/test/java/nand2tetris/assembler/Rect.hack.cmp")));
+    }
+
+    @Test
+    public void testPongParallel() throws IOException {
+        Assembler.main(new String[] {"--parallel", "src/test/java/nand2tetris/assembler/Pong.asm"});
+        assertTrue("Machine code does not match", FileUtils.contentEquals(new File("src/test/java/nand2tetris/assembler/Pong.hack"), new File("src/test/java/nand2tetris/assembler/Pong.hack.cmp")));
+    }
+
+    @Test
+    public void testBatchDirectory() throws IOException {
+        Assembler.main(new String[] {"--threads=2", "src/test/java/nand2tetris/assembler"});
+        for (String name: new String[] {"Add", "Max", "Pong", "Rect"}) {
+            assertTrue("Machine code does not match for " + name, FileUtils.contentEquals(new File("src/test/java/nand2tetris/assembler/" + name + ".hack"), new File("src/test/java/nand2tetris/assembler/" + name + ".hack.cmp")));
+        }
+    }
+
+    @Test
+    public void testBatchUnmatched() {
+        List<String> arguments = Arrays.asList("src/test/java/nand2tetris/assembler/Add.asm", "src/test/java/nand2tetris/assembler/Missing.asm");
+        assertFalse("Batch with an unmatched argument succeeded", BatchAssembler.run(new Assembler(), arguments, 2));
+    }
+
+    @Test
+    public void testBatchExtensionCase() throws IOException {
+        Path directory = Files.createTempDirectory("assembler-batch");
+        try {
+            Files.write(directory.resolve("Upper.ASM"), Arrays.asList("@0"));
+            Files.write(directory.resolve("Lower.asm"), Arrays.asList("@0"));
+            List<Path> inputs = BatchAssembler.findInputs(directory.toString());
+            assertEquals("Inputs do not match", Arrays.asList(directory.resolve("Lower.asm")), inputs);
+        }
+        finally {
+            FileUtils.deleteDirectory(directory.toFile());
+        }
+    }
+
+    @Test
+    public void testMaxBinary() throws IOException {
+        Assembler.main(new String[] {"--binary", "src/test/java/nand2tetris/assembler/Max.asm"});
+        byte[] image = Files.readAllBytes(new File("src/test/java/nand2tetris/assembler/Max.bin").toPath());
+        List<String> expected = Files.readAllLines(new File("src/test/java/nand2tetris/assembler/Max.hack.cmp").toPath());
+        assertEquals("ROM image size does not match", expected.size() * 2, image.length);
+        for (int i = 0; i < expected.size(); i++) {
+            int word = ((image[2 * i] & 0xFF) << 8) | (image[2 * i + 1] & 0xFF);
+            assertEquals("Machine code does not match", Integer.parseInt(expected.get(i), 2), word);
+        }
+    }
+
+    @Test
+    public void testAssembleInProcess() throws IOException, AssemblyException {
+        Path source = new File("src/test/java/nand2tetris/assembler/Max.asm").toPath();
+        List<String> expected = Files.readAllLines(new File("src/test/java/nand2tetris/assembler/Max.hack.cmp").toPath());
+        Assembler assembler = new Assembler();
+        int[] fromPath = assembler.assemble(source);
+        int[] fromText = assembler.assemble(Files.readString(source));
+        assertEquals("Instruction count does not match", expected.size(), fromPath.length);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals("Machine code does not match", Integer.parseInt(expected.get(i), 2), fromPath[i]);
+            assertEquals("Machine code does not match", fromPath[i], fromText[i]);
+        }
+    }
+
+    @Test
+    public void testCache() throws IOException, AssemblyException {
+        Path directory = Files.createTempDirectory("assembler-cache");
+        Assembler assembler = new Assembler();
+        assembler.setCache(new BuildCache(directory, BuildCache.DEFAULT_MAX_SIZE));
+        Path input = new File("src/test/java/nand2tetris/assembler/Rect.asm").toPath();
+        int[] words = assembler.assemble(input);
+        assertEquals("Cache entry was not stored", 1, directory.toFile().list().length);
+        assertTrue("Cached machine code does not match", Arrays.equals(words, assembler.assemble(input)));
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void testPeephole() throws AssemblyException {
+        Assembler assembler = new Assembler();
+        int[] expected = assembler.assemble("@SP\nA=M\nD=M\n@LOOP\n(LOOP)\n0;JMP\n");
+        assembler.setPeephole(true);
+        int[] words = assembler.assemble("@SP\nM=M+1\n@SP\nAM=M-1\nD=M\n@SP\nA=M\n@LOOP\n(LOOP)\n0;JMP\n");
+        assertTrue("Optimized machine code does not match", Arrays.equals(expected, words));
+    }
+
+    @Test
+    public void testOptimizedLabelReusingPredefinedSymbol() throws AssemblyException {
+        String input = "@R5\nD=A\n@SCREEN\nM=D\n(R5)\n@R5\nD;JGT\n(SCREEN)\n@SCREEN\n0;JMP\n";
+        Assembler assembler = new Assembler();
+        int[] expected = assembler.assemble(input);
+        assembler.setPeephole(true);
+        assembler.setStripDeadCode(true);
+        assertTrue("Optimized machine code does not match", Arrays.equals(expected, assembler.assemble(input)));
+    }
+
+    @Test
+    public void testStripDeadCode() throws AssemblyException {
+        Assembler assembler = new Assembler();
+        int[] expected = assembler.assemble("@END\n0;JMP\n(END)\n@END\n0;JMP\n");
+        assembler.setStripDeadCode(true);
+        int[] words = assembler.assemble("@END\n0;JMP\nD=M\n(UNUSED)\nM=D\n(END)\n@END\n0;JMP\n@UNUSED\n");
+        assertTrue("Stripped machine code does not match", Arrays.equals(expected, words));
+    }
+
+    @Test
+    public void testStats() throws IOException, AssemblyException {
+        Assembler assembler = new Assembler();
+        AssemblyStats stats = new AssemblyStats();
+        assembler.setStats(stats);
+        int[] words = assembler.assemble(new File("src/test/java/nand2tetris/assembler/Max.asm").toPath());
+        assertTrue("Command counts do not match", stats.toJson().contains("\"commands\":{\"a\":8,\"c\":8,\"l\":3}"));
+        assertTrue("Instruction count does not match", stats.toJson().contains("\"instructions\":" + words.length));
+
+        //Allocations of pool threads are counted, and never make a phase negative
+        assembler.setMode(Assembler.Mode.PARALLEL);
+        stats = new AssemblyStats();
+        assembler.setStats(stats);
+        assembler.assemble(new File("src/test/java/nand2tetris/assembler/Pong.asm").toPath());
+        for (AssemblyStats.Phase phase: AssemblyStats.Phase.values()) {
+            assertTrue("Allocated bytes are negative", stats.getAllocatedBytes(phase) >= -1);
+        }
+        assertTrue("Pool allocations were not counted", stats.getAllocatedBytes(AssemblyStats.Phase.PASS_2) != 0);
+    }
+
+    @Test
+    public void testDuplicateLabelSinglePass() throws AssemblyException {
+        //The last definition of a label wins, including for references made before it
+        String input = "(X)\n@X\n0;JMP\n(X)\n@X\nD=A\n@Y\n0;JMP\n(Y)\n@Y\n(Y)\nD=A\n";
+        Assembler assembler = new Assembler();
+        int[] expected = assembler.assemble(input);
+        assertEquals("Label does not bind to its last definition", 2, expected[0]);
+        assembler.setMode(Assembler.Mode.SINGLE_PASS);
+        assertTrue("Single-pass machine code does not match", Arrays.equals(expected, assembler.assemble(input)));
+    }
+
+    @Test
+    public void testLabelReusingPredefinedSymbol() throws AssemblyException {
+        //Long enough that the parallel assembler defines the label in a later chunk than the first reference
+        StringBuilder input = new StringBuilder("(X)\n@X\n0;JMP\n(X)\n@X\nD=A\n(R5)\n@R5\nD=A\n@SCREEN\nD=A\n");
+        for (int i = 0; i < 10000; i++) {
+            input.append("D=D+1\n");
+        }
+        input.append("(SCREEN)\n@R5\nD=A\n@SCREEN\n0;JMP\n");
+
+        int[] expected = null;
+        for (Assembler.Mode mode: Assembler.Mode.values()) {
+            Assembler assembler = new Assembler();
+            assembler.setMode(mode);
+            int[] words = assembler.assemble(input.toString());
+            assertEquals("Label does not replace predefined symbol in " + mode, 4, words[4]);
+            assertEquals("Label does not replace predefined symbol in " + mode, 10008, words[6]);
+            if (expected != null) {
+                assertTrue("Machine code does not match in " + mode, Arrays.equals(expected, words));
+            }
+            expected = words;
+        }
+    }
+
+    @Test(expected = AssemblyException.class)
+    public void testInvalidComputation() throws AssemblyException {
+        new Assembler().assemble("@1\nD=M+A\n");
+    }
+}
@@ -0,0 +1,137 @@
+package nand2tetris.emulator;
+import nand2tetris.assembler.Assembler;
+import nand2tetris.assembler.AssemblyException;
+import nand2tetris.assembler.Lexer;
+import nand2tetris.assembler.Program;
+import nand2tetris.vm.VMTranslator;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.io.IOException;
+
+public class TestEmulator {
+    @Test
+    public void testMax() throws IOException, AssemblyException {
+        Cpu cpu = new Cpu(new Assembler().assemble(new File("src/test/java/nand2tetris/assembler/Max.asm").toPath()));
+        cpu.setRam(0, 17);
+        cpu.setRam(1, -42);
+        cpu.run(1000);
+        assertTrue("Program did not halt", cpu.isHalted());
+        assertEquals("Maximum does not match", 17, cpu.getRam(2));
+    }
+
+    @Test
+    public void testFibonacciElement() throws IOException, AssemblyException {
+        VMTranslator.main(new String[] {"src/test/java/nand2tetris/vm/FibonacciElement"});
+        Cpu cpu = new Cpu(new Assembler().assemble(new File("src/test/java/nand2tetris/vm/FibonacciElement/FibonacciElement.asm").toPath()));
+        cpu.run(6000);
+        assertTrue("Program did not halt", cpu.isHalted());
+        assertEquals("Stack pointer does not match", 262, cpu.getRam(0));
+        assertEquals("Fibonacci result does not match", 3, cpu.getRam(261));
+    }
+
+    @Test
+    public void testTiered() throws IOException, AssemblyException {
+        int[] rom = new Assembler().assemble(new File("src/test/java/nand2tetris/assembler/Pong.asm").toPath());
+        Cpu interpreted = new Cpu(rom);
+        Cpu tiered = new Cpu(rom);
+        tiered.setTiered(true);
+        for (int i = 0; i < 20; i++) {
+            interpreted.run(100_003);
+            tiered.run(100_003);
+            assertEquals("Cycles do not match", interpreted.getCycles(), tiered.getCycles());
+            assertEquals("PC does not match", interpreted.getPC(), tiered.getPC());
+            assertEquals("A does not match", interpreted.getA(), tiered.getA());
+            assertEquals("D does not match", interpreted.getD(), tiered.getD());
+        }
+        assertTrue("No blocks were compiled", tiered.getCompiledBlocks() > 0);
+        for (int address = 0; address < Cpu.MEMORY_SIZE; address++) {
+            assertEquals("RAM[" + address + "] does not match", interpreted.getRam(address), tiered.getRam(address));
+        }
+    }
+
+    @Test
+    public void testSuperinstructions() throws IOException, AssemblyException {
+        VMTranslator.main(new String[] {"src/test/java/nand2tetris/vm/NestedCall"});
+        int[] rom = new Assembler().assemble(new File("src/test/java/nand2tetris/vm/NestedCall/NestedCall.asm").toPath());
+        Cpu interpreted = new Cpu(rom);
+        Cpu fused = new Cpu(rom);
+        fused.setSuperinstructions(true);
+        assertTrue("No superinstructions were recognized", fused.getSuperinstructionCount() > 0);
+        for (int i = 0; i < 100; i++) {
+            interpreted.run(7);
+            fused.run(7);
+            assertEquals("Cycles do not match", interpreted.getCycles(), fused.getCycles());
+            assertEquals("PC does not match", interpreted.getPC(), fused.getPC());
+            assertEquals("A does not match", interpreted.getA(), fused.getA());
+            assertEquals("D does not match", interpreted.getD(), fused.getD());
+        }
+        assertTrue("Program did not halt", fused.isHalted());
+        for (int address = 0; address < Cpu.MEMORY_SIZE; address++) {
+            assertEquals("RAM[" + address + "] does not match", interpreted.getRam(address), fused.getRam(address));
+        }
+    }
+
+    @Test
+    public void testProfiler() throws IOException, AssemblyException {
+        VMTranslator.main(new String[] {"src/test/java/nand2tetris/vm/FibonacciElement"});
+        File source = new File("src/test/java/nand2tetris/vm/FibonacciElement/FibonacciElement.asm");
+        Cpu cpu = new Cpu(new Assembler().assemble(source.toPath()));
+        Profiler profiler = new Profiler(cpu, Program.parse(new Lexer(source)).labels());
+        long executed = profiler.run(6000);
+        assertTrue("Program did not halt", cpu.isHalted());
+        assertEquals("Fibonacci result does not match", 3, cpu.getRam(261));
+        assertEquals("Calls to Main.fibonacci do not match", 9, profiler.getCalls("Main.fibonacci"));
+        assertEquals("Calls to Sys.init do not match", 1, profiler.getCalls("Sys.init"));
+
+        long exclusive = 0;
+        for (String function: new String[] {Profiler.START, "Sys.init", "Main.fibonacci"}) {
+            exclusive += profiler.getExclusive(function);
+        }
+        assertEquals("Exclusive cycles do not add up", executed, exclusive);
+        assertEquals("Inclusive cycles of the start do not match", executed, profiler.getInclusive(Profiler.START));
+        assertEquals("Inclusive cycles of a leaf do not match", profiler.getExclusive("Main.fibonacci"), profiler.getInclusive("Main.fibonacci"));
+        assertEquals("Inclusive cycles of Sys.init do not match", executed - profiler.getExclusive(Profiler.START), profiler.getInclusive("Sys.init"));
+    }
+
+    @Test
+    public void testSnapshot() throws IOException, AssemblyException {
+        Cpu cpu = new Cpu(new Assembler().assemble(new File("src/test/java/nand2tetris/assembler/Pong.asm").toPath()));
+        cpu.run(1_000_000);
+        Snapshot booted = cpu.snapshot();
+        cpu.run(100_000);
+        Snapshot later = cpu.snapshot();
+        assertTrue("No pages were shared", later.getSharedPageCount(booted) > 0);
+
+        //Restoring and rerunning reaches the same state
+        cpu.restore(booted);
+        assertEquals("Cycles were not restored", 1_000_000, cpu.getCycles());
+        cpu.run(100_000);
+        for (int address = 0; address < Cpu.MEMORY_SIZE; address++) {
+            assertEquals("RAM[" + address + "] does not match after restore", later.getRam(address), cpu.getRam(address));
+        }
+
+        //Forks are independent of each other and of the snapshot
+        Cpu[] forks = booted.fork(3);
+        forks[0].setTiered(true);
+        forks[1].setSuperinstructions(true);
+        for (Cpu fork: forks) {
+            fork.setRam(Cpu.SCREEN, 1);
+            fork.run(100_000);
+            assertEquals("PC does not match", later.getPC(), fork.getPC());
+            assertEquals("Cycles do not match", later.getCycles(), fork.getCycles());
+            for (int address = 0; address < Cpu.MEMORY_SIZE; address++) {
+                int expected = address == Cpu.SCREEN ? 1 : later.getRam(address);
+                assertEquals("RAM[" + address + "] does not match in fork", expected, fork.getRam(address));
+            }
+        }
+        assertEquals("Snapshot was modified", 0, booted.getRam(Cpu.SCREEN));
+
+        //Restoring after a tiered run copies every page
+        forks[0].restore(later);
+        for (int address = 0; address < Cpu.MEMORY_SIZE; address++) {
+            assertEquals("RAM[" + address + "] does not match after restoring a fork", later.getRam(address), forks[0].getRam(address));
+        }
+    }
+}
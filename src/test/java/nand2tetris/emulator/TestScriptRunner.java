@@ -0,0 +1,78 @@
+package nand2tetris.emulator;
+import nand2tetris.assembler.InputFiles;
+import nand2tetris.vm.VMTranslator;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+public class TestScriptRunner {
+    @Test
+    public void testVMScripts() throws IOException {
+        for (String program: new String[] {"FibonacciElement", "NestedCall", "StaticsTest"}) {
+            VMTranslator.main(new String[] {"src/test/java/nand2tetris/vm/" + program});
+        }
+        List<ScriptRunner.Result> results = ScriptRunner.runAll(ScriptRunner.findScripts(Paths.get("src/test/java/nand2tetris/vm")), 2);
+        assertEquals("Scripts not found", 3, results.size());
+        for (ScriptRunner.Result result: results) {
+            assertNull(result.getScript() + " failed: " + result.getError(), result.getError());
+            assertEquals("Output line count does not match", 2, result.getLineCount());
+        }
+        assertTrue("Output does not match", FileUtils.contentEquals(new File("src/test/java/nand2tetris/vm/NestedCall/NestedCall.out"), new File("src/test/java/nand2tetris/vm/NestedCall/NestedCall.cmp")));
+    }
+
+    @Test
+    public void testMissingScript() {
+        InputFiles scripts = InputFiles.expand(Arrays.asList("src/test/java/nand2tetris/vm", "src/test/java/nand2tetris/vm/Missing.tst"),
+                ".tst", argument -> ScriptRunner.findScripts(Paths.get(argument)));
+        assertEquals("Scripts not found", 3, scripts.getFiles().size());
+        assertEquals("Missing script was not counted", 1, scripts.getFailureCount());
+    }
+
+    @Test
+    public void testTimeAfterHalt() throws IOException {
+        File directory = Files.createTempDirectory("scripts").toFile();
+        try {
+            FileUtils.copyFile(new File("src/test/java/nand2tetris/assembler/Max.asm"), new File(directory, "Max.asm"));
+            FileUtils.writeStringToFile(new File(directory, "Max.tst"), "load Max.asm,\noutput-file Max.out,\n"
+                    + "output-list time%D1.4.1;\nset RAM[0] 3,\nset RAM[1] 5;\nrepeat 100 {\n  ticktock;\n}\noutput;\n"
+                    + "set PC 0;\nrepeat 50 {\n  ticktock;\n  ticktock;\n}\noutput;\n", StandardCharsets.US_ASCII);
+            ScriptRunner.Result result = ScriptRunner.runScript(new File(directory, "Max.tst").toPath());
+            assertNull("Script failed: " + result.getError(), result.getError());
+            List<String> lines = Files.readAllLines(new File(directory, "Max.out").toPath());
+            assertEquals("Time does not match", "| time |", lines.get(0));
+            assertEquals("Time does not count only instructions run", "|   14 |", lines.get(1));
+            assertEquals("Time does not count only instructions run", "|   28 |", lines.get(2));
+        }
+        finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testComparisonFailure() throws IOException {
+        File directory = Files.createTempDirectory("scripts").toFile();
+        try {
+            FileUtils.copyFile(new File("src/test/java/nand2tetris/assembler/Max.asm"), new File(directory, "Max.asm"));
+            FileUtils.writeStringToFile(new File(directory, "Max.tst"), "load Max.asm,\ncompare-to Max.cmp,\n"
+                    + "output-list RAM[2]%D2.6.2;\nset RAM[0] 3,\nset RAM[1] 5;\nrepeat 20 {\n  ticktock;\n}\noutput;\n"
+                    + "set PC 0,\nset RAM[0] 9;\nrepeat 20 {\n  ticktock;\n}\noutput;\n", StandardCharsets.US_ASCII);
+            FileUtils.writeStringToFile(new File(directory, "Max.cmp"), "|  RAM[2]  |\n|       5  |\n|       5  |\n", StandardCharsets.US_ASCII);
+            ScriptRunner.Result result = ScriptRunner.runScript(new File(directory, "Max.tst").toPath());
+            assertNotNull("Mismatch was not detected", result.getError());
+            assertTrue("Mismatch was not reported on the third output line", result.getError().contains("line 3"));
+        }
+        finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+}
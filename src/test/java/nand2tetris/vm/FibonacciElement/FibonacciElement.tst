@@ -0,0 +1,13 @@
+// Runs the translated FibonacciElement program, which computes the 4th
+// Fibonacci element with a recursive function, and checks the stack.
+
+load FibonacciElement.asm,
+output-file FibonacciElement.out,
+compare-to FibonacciElement.cmp,
+output-list RAM[0]%D2.6.2 RAM[261]%D2.6.2;
+
+repeat 6000 {
+    ticktock;
+}
+
+output;
@@ -0,0 +1,13 @@
+// Runs the translated NestedCall program and checks the stack and segment
+// pointers once Sys.init has finished.
+
+load NestedCall.asm,
+output-file NestedCall.out,
+compare-to NestedCall.cmp,
+output-list RAM[0]%D1.6.1 RAM[1]%D1.6.1 RAM[2]%D1.6.1 RAM[3]%D1.6.1 RAM[4]%D1.6.1 RAM[5]%D1.6.1 RAM[6]%D1.6.1;
+
+repeat 4000 {
+    ticktock;
+}
+
+output;
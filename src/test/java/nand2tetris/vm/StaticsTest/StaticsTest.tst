@@ -0,0 +1,13 @@
+// Runs the translated StaticsTest program, whose two classes each keep their
+// own static variables, and checks the values left on the stack.
+
+load StaticsTest.asm,
+output-file StaticsTest.out,
+compare-to StaticsTest.cmp,
+output-list RAM[0]%D2.6.2 RAM[261]%D2.6.2 RAM[262]%D2.6.2;
+
+repeat 2500 {
+    ticktock;
+}
+
+output;
@@ -0,0 +1,59 @@
+package nand2tetris.vm;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class TestVMInterpreter {
+    @Test
+    public void testFibonacciElement() throws IOException, VMException {
+        VMInterpreter interpreter = new VMInterpreter(new File("src/test/java/nand2tetris/vm/FibonacciElement"));
+        interpreter.run(1000);
+        assertTrue("Program did not halt", interpreter.isHalted());
+        assertEquals("Stack pointer does not match", 262, interpreter.getRam(0));
+        assertEquals("Fibonacci result does not match", 3, interpreter.getRam(261));
+    }
+
+    @Test
+    public void testStaticsTest() throws IOException, VMException {
+        VMInterpreter interpreter = new VMInterpreter(new File("src/test/java/nand2tetris/vm/StaticsTest"));
+        interpreter.run(1000);
+        assertTrue("Program did not halt", interpreter.isHalted());
+        assertEquals("Stack pointer does not match", 263, interpreter.getRam(0));
+        assertEquals("First class result does not match", -2, interpreter.getRam(261));
+        assertEquals("Second class result does not match", 8, interpreter.getRam(262));
+    }
+
+    @Test
+    public void testNativeOs() throws IOException, VMException {
+        File directory = Files.createTempDirectory("vm").toFile();
+        try {
+            FileUtils.writeStringToFile(new File(directory, "Main.vm"), "function Main.main 0\n"
+                    + "push constant 2\ncall String.new 1\npush constant 72\ncall String.appendChar 2\n"
+                    + "push constant 105\ncall String.appendChar 2\ncall Output.printString 1\npop temp 0\n"
+                    + "push constant 123\npush constant 45\ncall Math.multiply 2\nneg\ncall Output.printInt 1\npop temp 0\n"
+                    + "push constant 0\npush constant 0\npush constant 15\npush constant 1\ncall Screen.drawRectangle 4\npop temp 0\n"
+                    + "push constant 10\ncall Array.new 1\npop static 0\n"
+                    + "push constant 5\npush constant 0\ncall Math.divide 2\npop static 1\n"
+                    + "push constant 0\nreturn\n", StandardCharsets.US_ASCII);
+            VMInterpreter interpreter = new VMInterpreter(directory);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            interpreter.setOutput(new PrintStream(output, true, "US-ASCII"));
+            interpreter.run(1000);
+            assertTrue("Program did not halt", interpreter.isHalted());
+            assertEquals("Error code does not match", 3, interpreter.getErrorCode());
+            assertEquals("Output does not match", "Hi-5535ERR3", output.toString("US-ASCII"));
+            assertEquals("Screen does not match", -1, interpreter.getRam(16384 + 32));
+            assertEquals("Array was not allocated after the string", 2052, interpreter.getRam(16));
+        }
+        finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+}
@@ -1,9 +1,17 @@
 package nand2tetris.vm;
+import nand2tetris.assembler.Assembler;
+import nand2tetris.assembler.AssemblyException;
+import nand2tetris.emulator.Cpu;
 import org.apache.commons.io.FileUtils;
 import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
 
 public class TestVMTranslator {
     @Test
@@ -25,4 +33,165 @@ public class TestVMTranslator {
         assertTrue("Assembler code does not match", FileUtils.contentEquals(new File("src/test/java/nand2tetris/vm/StaticsTest/StaticsTest.asm"), new File("src/test/java/nand2tetris/vm/StaticsTest/StaticsTest.asm.cmp")));
 
     }
+
+    @Test
+    public void testSharedCalls() throws IOException, AssemblyException {
+        File directory = copyFibonacci();
+        try {
+            Cpu inline = runFibonacci(directory);
+            Cpu shared = runFibonacci(directory, "--shared-calls");
+            assertTrue("Shared calls did not shrink the program", shared.getProgramLength() < inline.getProgramLength());
+        }
+        finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testFuseCompares() throws IOException, AssemblyException {
+        File directory = Files.createTempDirectory("vm").toFile();
+        try {
+            FileUtils.writeStringToFile(new File(directory, "Sys.vm"), "function Sys.init 0\n"
+                    + "label LOOP\npush static 0\npush constant 20\nlt\nnot\nif-goto END\n"
+                    + "push static 0\npush constant 7\ngt\nif-goto GREATER\n"
+                    + "push static 1\npush constant 1\nadd\npop static 1\nlabel GREATER\n"
+                    + "push static 0\npush constant 3\neq\nnot\nif-goto NOT_THREE\n"
+                    + "push static 2\npush constant 100\nadd\npop static 2\nlabel NOT_THREE\n"
+                    + "push static 0\npush constant 1\nadd\npop static 0\ngoto LOOP\n"
+                    + "label END\npush constant 30000\npush constant 30000\nneg\ngt\npop static 3\n"
+                    + "label HALT\ngoto HALT\n", StandardCharsets.US_ASCII);
+            Cpu plain = translateAndRun(directory);
+            Cpu fused = translateAndRun(directory, "--fuse-compares");
+            assertTrue("Fused compares did not save cycles", fused.getCycles() < plain.getCycles());
+            assertEquals("Loop count does not match", 20, fused.getRam(16));
+            assertEquals("Count of values up to 7 does not match", 8, fused.getRam(17));
+            assertEquals("Count of threes does not match", 100, fused.getRam(18));
+            for (int address = 0; address < 256; address++) {
+                assertEquals("RAM[" + address + "] does not match", plain.getRam(address), fused.getRam(address));
+            }
+        }
+        finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testElideStackPointer() throws IOException, AssemblyException {
+        File directory = copyFibonacci();
+        try {
+            Cpu plain = runFibonacci(directory);
+            Cpu elided = runFibonacci(directory, "--elide-sp");
+            assertTrue("Eliding the stack pointer did not save cycles", elided.getCycles() < plain.getCycles());
+
+            //Deep expressions write the stack pointer back part way through a block
+            FileUtils.cleanDirectory(directory);
+            FileUtils.writeStringToFile(new File(directory, "Sys.vm"), "function Sys.init 3\n"
+                    + "push constant 1\npush constant 2\npush constant 3\npush constant 4\npush constant 5\npush constant 6\n"
+                    + "add\nadd\nadd\nadd\nadd\npop local 2\n"
+                    + "push local 2\npush constant 21\neq\npop static 0\n"
+                    + "push local 2\nneg\npop local 0\npush local 0\npop static 1\n"
+                    + "label HALT\ngoto HALT\n", StandardCharsets.US_ASCII);
+            Cpu cpu = translateAndRun(directory, "--elide-sp");
+            assertEquals("Stack pointer does not match", 264, cpu.getRam(0));
+            assertEquals("Comparison does not match", -1, cpu.getRam(16));
+            assertEquals("Negated sum does not match", -21, cpu.getRam(17));
+        }
+        finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testCacheTop() throws IOException, AssemblyException {
+        File directory = copyFibonacci();
+        try {
+            Cpu elided = runFibonacci(directory, "--elide-sp");
+            Cpu cached = runFibonacci(directory, "--cache-tos");
+            assertTrue("Caching the top of the stack did not save cycles", cached.getCycles() < elided.getCycles());
+
+            //Pops to far segment indices go through memory, and values left on the stack are spilled
+            FileUtils.cleanDirectory(directory);
+            FileUtils.writeStringToFile(new File(directory, "Sys.vm"), "function Sys.init 10\n"
+                    + "push constant 7\npush constant 5\nsub\npop local 9\n"
+                    + "push local 9\npush constant 3\ngt\nnot\npop static 0\n"
+                    + "push constant 4\npush local 9\nneg\n"
+                    + "label HALT\ngoto HALT\n", StandardCharsets.US_ASCII);
+            Cpu cpu = translateAndRun(directory, "--cache-tos");
+            assertEquals("Stack pointer does not match", 273, cpu.getRam(0));
+            assertEquals("Far local does not match", 2, cpu.getRam(270));
+            assertEquals("Comparison does not match", -1, cpu.getRam(16));
+            assertEquals("Spilled value does not match", 4, cpu.getRam(271));
+            assertEquals("Cached value does not match", -2, cpu.getRam(272));
+        }
+        finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testStripUnused() throws IOException, AssemblyException {
+        File directory = copyFibonacci();
+        try {
+            FileUtils.writeStringToFile(new File(directory, "Unused.vm"), "function Unused.a 0\ncall Unused.b 0\nreturn\n"
+                    + "function Unused.b 0\npush constant 1\nreturn\n", StandardCharsets.US_ASCII);
+            runFibonacci(directory, "--strip-unused");
+            String asm = FileUtils.readFileToString(new File(directory, directory.getName() + ".asm"), StandardCharsets.US_ASCII);
+            assertFalse("Unreachable function was written", asm.contains("(Unused.a)") || asm.contains("(Unused.b)"));
+            assertTrue("Reachable function was dropped", asm.contains("(Main.fibonacci)"));
+
+            //Calls between unreachable functions do not make them reachable
+            CallGraph graph = new CallGraph();
+            for (File f: directory.listFiles((dir, name) -> name.endsWith(".vm"))) {
+                graph.add(new Parser(f));
+            }
+            assertEquals("Reachable functions do not match", 2, graph.reachable("Sys.init").size());
+            assertEquals("Unreachable functions do not match", 2, graph.unreachable("Sys.init").size());
+            assertEquals("Function size does not match", 3, graph.getSize("Unused.b"));
+        }
+        finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * Copies the FibonacciElement program into a new temporary directory.
+     *
+     * @return The directory, which the caller should delete.
+     */
+    private static File copyFibonacci() throws IOException {
+        File directory = Files.createTempDirectory("vm").toFile();
+        FileUtils.copyDirectory(new File("src/test/java/nand2tetris/vm/FibonacciElement"), directory, f -> f.getName().endsWith(".vm"));
+        return directory;
+    }
+
+    /**
+     * Translates a directory of VM files, assembles the output and runs it until it halts.
+     *
+     * @param _directory The directory to translate.
+     * @param _flags The translator options to use.
+     * @return The halted Cpu.
+     */
+    private static Cpu translateAndRun(File _directory, String... _flags) throws IOException, AssemblyException {
+        String[] args = Arrays.copyOf(_flags, _flags.length + 1);
+        args[_flags.length] = _directory.getPath();
+        VMTranslator.main(args);
+        Cpu cpu = new Cpu(new Assembler().assemble(new File(_directory, _directory.getName() + ".asm").toPath()));
+        cpu.run(100_000);
+        assertTrue("Program did not halt", cpu.isHalted());
+        return cpu;
+    }
+
+    /**
+     * Translates and runs a copy of FibonacciElement, checking its result.
+     *
+     * @param _directory The directory holding the copy.
+     * @param _flags The translator options to use.
+     * @return The halted Cpu.
+     */
+    private static Cpu runFibonacci(File _directory, String... _flags) throws IOException, AssemblyException {
+        Cpu cpu = translateAndRun(_directory, _flags);
+        assertEquals("Stack pointer does not match", 262, cpu.getRam(0));
+        assertEquals("Fibonacci result does not match", 3, cpu.getRam(261));
+        return cpu;
+    }
 }